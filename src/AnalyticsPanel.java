@@ -2,12 +2,31 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.sql.*;
+import java.io.File;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
 
 public class AnalyticsPanel extends JPanel {
+    // Every rollup report loads under this key, so the newest request (a button or a batch of
+    // sales) wins and an older result is dropped instead of overwriting it
+    private static final String REPORT_KEY = "report";
+
+    private record DailyFigures(SalesRollups.Totals totals, double[] byHour) {
+    }
+
     private JTextArea reportArea;
-    private JButton dailyButton, weeklyButton, monthlyButton, annualButton, refreshButton;
-    private Connection connection;
+    private JButton dailyButton, weeklyButton, monthlyButton, annualButton, customButton, refreshButton, exportButton;
+    private final BackgroundLoader loader = new BackgroundLoader(this);
 
     public AnalyticsPanel() {
         setLayout(new BorderLayout());
@@ -30,27 +49,33 @@ public class AnalyticsPanel extends JPanel {
 
         // Create buttons for daily, weekly, monthly, and annual reports
         JPanel buttonPanel = new JPanel();
-        buttonPanel.setLayout(new GridLayout(1, 5, 10, 10));  // Arrange buttons horizontally
+        buttonPanel.setLayout(new GridLayout(1, 7, 10, 10));  // Arrange buttons horizontally
 
         dailyButton = new JButton("Daily Report");
         weeklyButton = new JButton("Weekly Report");
         monthlyButton = new JButton("Monthly Report");
         annualButton = new JButton("Annual Report");
+        customButton = new JButton("Custom Range");
         refreshButton = new JButton("Refresh Report");
+        exportButton = new JButton("Export Sales");
 
         // Set up button appearance
         setButtonStyle(dailyButton);
         setButtonStyle(weeklyButton);
         setButtonStyle(monthlyButton);
         setButtonStyle(annualButton);
+        setButtonStyle(customButton);
         setButtonStyle(refreshButton);
+        setButtonStyle(exportButton);
 
         // Add buttons to the panel
         buttonPanel.add(dailyButton);
         buttonPanel.add(weeklyButton);
         buttonPanel.add(monthlyButton);
         buttonPanel.add(annualButton);
+        buttonPanel.add(customButton);
         buttonPanel.add(refreshButton);
+        buttonPanel.add(exportButton);
 
         // Action listeners for the buttons
         dailyButton.addActionListener(new ActionListener() {
@@ -81,21 +106,32 @@ public class AnalyticsPanel extends JPanel {
             }
         });
 
+        customButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                generateCustomRangeReport();
+            }
+        });
+
         refreshButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                refreshReport();
+                refreshReport(true);
             }
         });
 
+        exportButton.addActionListener(e -> exportSales());
+
+        // Keep the summary current as sales come in, at most once per refresh window
+        EventBus.getInstance().subscribe(Set.of(EventBus.SaleCompleted.class, EventBus.StockChanged.class),
+                EventBus.UI_REFRESH_MS, batch -> refreshReport(false));
+
         // Add the button panel to the top panel
         topPanel.add(buttonPanel, BorderLayout.NORTH);
 
         // Add the top panel to the main panel
         add(topPanel, BorderLayout.NORTH);
-
-        // Connect to the database
-        connectToDatabase();
+        add(loader.getStatusBar(), BorderLayout.SOUTH);  // Export progress
     }
 
     // Helper method to set consistent button style
@@ -109,213 +145,203 @@ public class AnalyticsPanel extends JPanel {
 
     // Function to simulate refreshing the report (e.g., updating with actual data)
     public void refreshReport() {
-        // Fetch updated data and show summary in the JTextArea
-        reportArea.setText("Sales Report: \n");
+        refreshReport(true);
+    }
 
-        // Example: Aggregate total sales, products sold, and customers from sales_history
-        try (Statement stmt = connection.createStatement()) {
-            String query = """
-            SELECT 
-                IFNULL(SUM(total_price), 0) AS total_sales, 
-                IFNULL(SUM(quantity_sold), 0) AS total_products_sold, 
-                COUNT(DISTINCT customer_id) AS total_customers 
-            FROM sales_history;
-        """;
-            ResultSet rs = stmt.executeQuery(query);
-
-            if (rs.next()) {
-                reportArea.append("Total Sales: $" + rs.getDouble("total_sales") + "\n");
-                reportArea.append("Total Products Sold: " + rs.getInt("total_products_sold") + "\n");
-                reportArea.append("Total Customers: " + rs.getInt("total_customers") + "\n");
+    // Aggregate total sales, products sold, and customers from the monthly rollups
+    private void refreshReport(boolean interactive) {
+        FlightEvents.Report event = startReport("All time", "rollups");
+        loader.submit(REPORT_KEY, progress -> {
+            try (Connection connection = DatabaseConnection.getConnection()) {
+                return SalesRollups.query(connection, SalesRollups.Period.ALL_TIME);
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(this, "Error fetching data: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-        }
+        }, totals -> {
+            // Fetch updated data and show summary in the JTextArea
+            reportArea.setText("Sales Report: \n");
+            reportArea.append("Total Sales: $" + totals.totalSales() + "\n");
+            reportArea.append("Total Products Sold: " + totals.productsSold() + "\n");
+            reportArea.append("Total Customers: " + totals.customers() + "\n");
+            succeeded(event);
+        }, reportFailed(event, interactive));
     }
 
-    // Function to connect to the database
-    private void connectToDatabase() {
-        try {
-            // Connect to your database (replace with your own connection details)
-            String url = "jdbc:mysql://localhost:3306/shopping_system";
-            String user = "root";
-            String password = "";
-            connection = DriverManager.getConnection(url, user, password);
-        } catch (SQLException e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(this, "Database connection failed: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-        }
+    // Report events cover the whole generation, including the dialog if one fails
+    private static FlightEvents.Report startReport(String report, String source) {
+        FlightEvents.Report event = new FlightEvents.Report();
+        event.report = report;
+        event.source = source;
+        event.begin();
+        return event;
     }
 
-    // Populate sales_data table with data from sales_history
-    private void populateSalesData(String dateRange) {
-        try {
-            String insertQuery = "";
-
-            switch (dateRange.toLowerCase()) {
-                case "daily":
-                    insertQuery = """
-                    INSERT INTO sales_data (sale_date, total_sales, products_sold, customer_id)
-                    SELECT 
-                        CURDATE() AS sale_date,
-                        IFNULL(SUM(sh.total_price), 0) AS total_sales,
-                        IFNULL(SUM(sh.quantity), 0) AS products_sold,
-                        sh.customer_id
-                    FROM sales_history sh
-                    WHERE DATE(sh.sale_date) = CURDATE() 
-                      AND sh.customer_id IS NOT NULL
-                    GROUP BY sh.customer_id;
-                """;
-                    break;
-                case "weekly":
-                    insertQuery = """
-                    INSERT INTO sales_data (sale_date, total_sales, products_sold, customer_id)
-                    SELECT 
-                        CURDATE() AS sale_date,
-                        IFNULL(SUM(sh.total_price), 0) AS total_sales,
-                        IFNULL(SUM(sh.quantity), 0) AS products_sold,
-                        sh.customer_id
-                    FROM sales_history sh
-                    WHERE YEARWEEK(sh.sale_date, 1) = YEARWEEK(CURDATE(), 1) 
-                      AND sh.customer_id IS NOT NULL
-                    GROUP BY sh.customer_id;
-                """;
-                    break;
-                case "monthly":
-                    insertQuery = """
-                    INSERT INTO sales_data (sale_date, total_sales, products_sold, customer_id)
-                    SELECT 
-                        CURDATE() AS sale_date,
-                        IFNULL(SUM(sh.total_price), 0) AS total_sales,
-                        IFNULL(SUM(sh.quantity), 0) AS products_sold,
-                        sh.customer_id
-                    FROM sales_history sh
-                    WHERE YEAR(sh.sale_date) = YEAR(CURDATE()) 
-                      AND MONTH(sh.sale_date) = MONTH(CURDATE()) 
-                      AND sh.customer_id IS NOT NULL
-                    GROUP BY sh.customer_id;
-                """;
-                    break;
-                case "annual":
-                    insertQuery = """
-                    INSERT INTO sales_data (sale_date, total_sales, products_sold, customer_id)
-                    SELECT 
-                        CURDATE() AS sale_date,
-                        IFNULL(SUM(sh.total_price), 0) AS total_sales,
-                        IFNULL(SUM(sh.quantity), 0) AS products_sold,
-                        sh.customer_id
-                    FROM sales_history sh
-                    WHERE YEAR(sh.sale_date) = YEAR(CURDATE()) 
-                      AND sh.customer_id IS NOT NULL
-                    GROUP BY sh.customer_id;
-                """;
-                    break;
-                default:
-                    throw new IllegalArgumentException("Invalid date range: " + dateRange);
-            }
+    private static void succeeded(FlightEvents.Report event) {
+        event.succeeded = true;
+        event.commit();
+    }
 
-            Statement stmt = connection.createStatement();
-            stmt.executeUpdate(insertQuery);
-            JOptionPane.showMessageDialog(this, dateRange + " sales data populated successfully.", "Success", JOptionPane.INFORMATION_MESSAGE);
-        } catch (SQLException e) {
+    // A report the user asked for fails with a dialog as before. The automatic refresh only
+    // says so in the report area: with the database down it would otherwise open a modal
+    // dialog every refresh window.
+    private Consumer<Exception> reportFailed(FlightEvents.Report event, boolean interactive) {
+        return e -> {
             e.printStackTrace();
-            JOptionPane.showMessageDialog(this, "Error populating " + dateRange + " sales data: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-        } catch (IllegalArgumentException e) {
-            JOptionPane.showMessageDialog(this, e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-        }
+            if (interactive) {
+                JOptionPane.showMessageDialog(this, "Error fetching data: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            } else {
+                reportArea.setText("Sales Report: \nCould not refresh: " + e.getMessage() + "\n");
+            }
+            event.commit();
+        };
     }
 
-    // Functions for different types of reports
+    // Functions for different types of reports; each reads pre-aggregated rollup rows
     private void generateDailyReport() {
-        // First, populate the sales_data table with the latest data
-        populateSalesData("daily");
-
-        try {
-            String query = "SELECT SUM(total_sales) AS daily_sales, SUM(products_sold) AS products_sold, COUNT(DISTINCT customer_id) AS new_customers " +
-                    "FROM sales_data WHERE DATE(sale_date) = CURDATE()";
-
-            Statement stmt = connection.createStatement();
-            ResultSet rs = stmt.executeQuery(query);
-
-            if (rs.next()) {
-                reportArea.setText("Daily Sales Report: \n");
-                reportArea.append("Total Sales Today: $" + rs.getDouble("daily_sales") + "\n");
-                reportArea.append("Total Products Sold: " + rs.getInt("products_sold") + "\n");
-                reportArea.append("New Customers Today: " + rs.getInt("new_customers") + "\n");
+        FlightEvents.Report event = startReport("Daily", "rollups");
+        loader.submit(REPORT_KEY, progress -> {
+            try (Connection connection = DatabaseConnection.getConnection()) {
+                return new DailyFigures(SalesRollups.query(connection, SalesRollups.Period.DAILY),
+                        SalesRollups.todayByHour(connection));
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(this, "Error fetching data: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-        }
+        }, figures -> {
+            SalesRollups.Totals totals = figures.totals();
+            double[] byHour = figures.byHour();
+            reportArea.setText("Daily Sales Report: \n");
+            reportArea.append("Total Sales Today: $" + totals.totalSales() + "\n");
+            reportArea.append("Total Products Sold: " + totals.productsSold() + "\n");
+            reportArea.append("New Customers Today: " + totals.customers() + "\n");
+            for (int hour = 0; hour < byHour.length; hour++) {
+                if (byHour[hour] > 0) {
+                    reportArea.append(String.format("  %02d:00 - %02d:59  $%.2f\n", hour, hour, byHour[hour]));
+                }
+            }
+            succeeded(event);
+        }, reportFailed(event, true));
     }
 
     private void generateWeeklyReport() {
-        // First, populate the sales_data table with the latest data
-        populateSalesData("weekly");
+        showPeriodReport(SalesRollups.Period.WEEKLY, "Weekly", "This Week");
+    }
 
-        try {
-            String query = "SELECT SUM(total_sales) AS weekly_sales, SUM(products_sold) AS products_sold, COUNT(DISTINCT customer_id) AS new_customers " +
-                    "FROM sales_data WHERE WEEK(sale_date) = WEEK(CURDATE())";
+    private void generateMonthlyReport() {
+        showPeriodReport(SalesRollups.Period.MONTHLY, "Monthly", "This Month");
+    }
 
-            Statement stmt = connection.createStatement();
-            ResultSet rs = stmt.executeQuery(query);
+    private void generateAnnualReport() {
+        showPeriodReport(SalesRollups.Period.ANNUAL, "Annual", "This Year");
+    }
 
-            if (rs.next()) {
-                reportArea.setText("Weekly Sales Report: \n");
-                reportArea.append("Total Sales This Week: $" + rs.getDouble("weekly_sales") + "\n");
-                reportArea.append("Total Products Sold: " + rs.getInt("products_sold") + "\n");
-                reportArea.append("New Customers This Week: " + rs.getInt("new_customers") + "\n");
+    private void showPeriodReport(SalesRollups.Period period, String title, String label) {
+        FlightEvents.Report event = startReport(title, "rollups");
+        loader.submit(REPORT_KEY, progress -> {
+            try (Connection connection = DatabaseConnection.getConnection()) {
+                return SalesRollups.query(connection, period);
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(this, "Error fetching data: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-        }
+        }, totals -> {
+            reportArea.setText(title + " Sales Report: \n");
+            reportArea.append("Total Sales " + label + ": $" + totals.totalSales() + "\n");
+            reportArea.append("Total Products Sold: " + totals.productsSold() + "\n");
+            reportArea.append("New Customers " + label + ": " + totals.customers() + "\n");
+            succeeded(event);
+        }, reportFailed(event, true));
     }
 
-    private void generateMonthlyReport() {
-        // First, populate the sales_data table with the latest data
-        populateSalesData("monthly");
+    // Any date window, answered from the in-memory column store instead of MySQL
+    private void generateCustomRangeReport() {
+        String fromText = JOptionPane.showInputDialog(this, "From date (yyyy-MM-dd):", LocalDate.now().withDayOfMonth(1));
+        if (fromText == null) return;
+        String toText = JOptionPane.showInputDialog(this, "To date, inclusive (yyyy-MM-dd):", LocalDate.now());
+        if (toText == null) return;
 
+        LocalDate from;
+        LocalDate to;
         try {
-            String query = "SELECT SUM(total_sales) AS monthly_sales, SUM(products_sold) AS products_sold, COUNT(DISTINCT customer_id) AS new_customers " +
-                    "FROM sales_data WHERE MONTH(sale_date) = MONTH(CURDATE())";
+            from = LocalDate.parse(fromText.trim());
+            to = LocalDate.parse(toText.trim());
+        } catch (DateTimeParseException e) {
+            JOptionPane.showMessageDialog(this, "Dates must be in yyyy-MM-dd format.", "Validation Error", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
 
-            Statement stmt = connection.createStatement();
-            ResultSet rs = stmt.executeQuery(query);
+        ZoneId zone = ZoneId.systemDefault();
+        long fromSecond = from.atStartOfDay(zone).toEpochSecond();
+        long toSecond = to.plusDays(1).atStartOfDay(zone).toEpochSecond();
+        reportArea.setText("Loading sales for " + from + " to " + to + "...\n");
+
+        FlightEvents.Report event = startReport("Custom range", "column store");
+        loader.submit("custom", progress -> {
+            SalesColumnStore store = SalesColumnStore.getInstance();
+            store.catchUp();
+
+            long start = System.nanoTime();
+            SalesColumnStore.Totals totals = store.totals(fromSecond, toSecond);
+            List<SalesColumnStore.Group> topProducts = store.groupBy(SalesColumnStore.GroupBy.PRODUCT, fromSecond, toSecond, 10);
+            List<SalesColumnStore.Group> hours = store.groupBy(SalesColumnStore.GroupBy.HOUR, fromSecond, toSecond, Integer.MAX_VALUE);
+            long micros = (System.nanoTime() - start) / 1_000;
+
+            StringBuilder report = new StringBuilder();
+            report.append("Sales Report ").append(from).append(" to ").append(to).append(": \n");
+            report.append(String.format("Total Sales: $%.2f\n", totals.amount()));
+            report.append("Total Products Sold: ").append(totals.quantity()).append("\n");
+            report.append("Number of Sales: ").append(totals.sales()).append("\n\n");
+
+            report.append("Top Products:\n");
+            ProductCatalog catalog = ProductCatalog.getInstance();
+            for (SalesColumnStore.Group group : topProducts) {
+                ProductCatalog.Product product = catalog.get((int) group.key());
+                String name = product != null ? product.name() : "Product #" + group.key();
+                report.append(String.format("  %-30s %6d sold  $%.2f\n", name, group.quantity(), group.amount()));
+            }
 
-            if (rs.next()) {
-                reportArea.setText("Monthly Sales Report: \n");
-                reportArea.append("Total Sales This Month: $" + rs.getDouble("monthly_sales") + "\n");
-                reportArea.append("Total Products Sold: " + rs.getInt("products_sold") + "\n");
-                reportArea.append("New Customers This Month: " + rs.getInt("new_customers") + "\n");
+            hours.sort(Comparator.comparingLong(SalesColumnStore.Group::cents).reversed());
+            report.append("\nBusiest Hours:\n");
+            DateTimeFormatter hourFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:00").withZone(zone);
+            for (SalesColumnStore.Group group : hours.subList(0, Math.min(5, hours.size()))) {
+                report.append(String.format("  %s  $%.2f\n", hourFormat.format(Instant.ofEpochSecond(group.key())), group.amount()));
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(this, "Error fetching data: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-        }
+            report.append(String.format("\n(%,d sales in memory, aggregated in %.1f ms)\n", store.size(), micros / 1000.0));
+            return report.toString();
+        }, report -> {
+            reportArea.setText(report);
+            succeeded(event);
+        }, reportFailed(event, true));
     }
 
-    private void generateAnnualReport() {
-        // First, populate the sales_data table with the latest data
-        populateSalesData("annual");
-
+    // Streams sales_history to a file for accounting; the file name picks CSV or JSON lines
+    // and .gz compresses it
+    private void exportSales() {
+        String fromText = JOptionPane.showInputDialog(this, "From date (yyyy-MM-dd, blank for the beginning):", "");
+        if (fromText == null) return;
+        String toText = JOptionPane.showInputDialog(this, "To date, inclusive (yyyy-MM-dd, blank for no end date):", "");
+        if (toText == null) return;
+        String productText = JOptionPane.showInputDialog(this, "Product IDs, comma separated (blank for all):", "");
+        if (productText == null) return;
+
+        SalesExporter.Filter filter;
         try {
-            String query = "SELECT SUM(total_sales) AS annual_sales, SUM(products_sold) AS products_sold, COUNT(DISTINCT customer_id) AS new_customers " +
-                    "FROM sales_data WHERE YEAR(sale_date) = YEAR(CURDATE())";
-
-            Statement stmt = connection.createStatement();
-            ResultSet rs = stmt.executeQuery(query);
-
-            if (rs.next()) {
-                reportArea.setText("Annual Sales Report: \n");
-                reportArea.append("Total Sales This Year: $" + rs.getDouble("annual_sales") + "\n");
-                reportArea.append("Total Products Sold: " + rs.getInt("products_sold") + "\n");
-                reportArea.append("New Customers This Year: " + rs.getInt("new_customers") + "\n");
+            Set<Integer> productIds = new LinkedHashSet<>();
+            for (String id : productText.split(",")) {
+                if (!id.isBlank()) {
+                    productIds.add(Integer.parseInt(id.trim()));
+                }
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(this, "Error fetching data: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            filter = new SalesExporter.Filter(fromText.isBlank() ? null : LocalDate.parse(fromText.trim()),
+                    toText.isBlank() ? null : LocalDate.parse(toText.trim()), productIds);
+        } catch (DateTimeParseException | NumberFormatException e) {
+            JOptionPane.showMessageDialog(this, "Dates must be in yyyy-MM-dd format and product IDs numeric.",
+                    "Validation Error", JOptionPane.WARNING_MESSAGE);
+            return;
         }
+
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File("sales-export.csv.gz"));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        Path file = chooser.getSelectedFile().toPath();
+
+        loader.submit("export", progress -> new SalesExporter().export(filter, file, progress), result ->
+                JOptionPane.showMessageDialog(this, String.format("Exported %,d sales (%,d KB) in %.1f s to %s",
+                        result.rows(), result.bytes() / 1024, result.millis() / 1000.0, result.file())),
+                "Error exporting sales.");
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
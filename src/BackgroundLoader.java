@@ -0,0 +1,169 @@
+import javax.swing.*;
+import java.awt.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// Runs a panel's database work off the EDT and hands results back on it. Tasks are keyed:
+// submitting a new task under a key cancels the running one and its result is never delivered,
+// so a slow old load cannot overwrite a newer one. One loader per panel, used from the EDT.
+public class BackgroundLoader {
+    // Shared by every panel; JDBC calls block, so this is sized like the connection pool
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(4, new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "background-loader-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    public interface Task<T> {
+        T run(Progress progress) throws Exception;
+    }
+
+    // Handed to a running task so it can report progress and notice it has been superseded
+    public interface Progress {
+        // percent in 0..100, or -1 when the total is unknown
+        void update(int percent, String message);
+
+        boolean isCancelled();
+    }
+
+    private final Component owner;
+    private final JProgressBar statusBar;
+    private final Map<String, Running> running = new HashMap<>();
+    private int nextGeneration = 0;
+
+    private static class Running {
+        final int generation;
+        Future<?> future;
+        volatile boolean cancelled;
+
+        Running(int generation) {
+            this.generation = generation;
+        }
+    }
+
+    public BackgroundLoader(Component owner) {
+        this.owner = owner;
+        statusBar = new JProgressBar(0, 100);
+        statusBar.setStringPainted(true);
+        statusBar.setVisible(false);
+    }
+
+    // Add this to the panel to show what is loading
+    public JProgressBar getStatusBar() {
+        return statusBar;
+    }
+
+    // Errors are reported with the same kind of dialog the panels always used
+    public <T> void submit(String key, Task<T> task, Consumer<T> onSuccess, String errorMessage) {
+        submit(key, task, onSuccess, showError(errorMessage));
+    }
+
+    // For writes: never superseded by a later task, so an insert is not cancelled halfway
+    public <T> void execute(Task<T> task, Consumer<T> onSuccess, String errorMessage) {
+        submit("write-" + (nextGeneration + 1), task, onSuccess, showError(errorMessage));
+    }
+
+    private Consumer<Exception> showError(String errorMessage) {
+        return e -> {
+            e.printStackTrace();
+            JOptionPane.showMessageDialog(owner, errorMessage);
+        };
+    }
+
+    public <T> void submit(String key, Task<T> task, Consumer<T> onSuccess, Consumer<Exception> onError) {
+        cancel(key);
+
+        Running current = new Running(++nextGeneration);
+        running.put(key, current);
+        updateStatus(-1, "Working...");
+
+        Progress progress = new Progress() {
+            @Override
+            public void update(int percent, String message) {
+                SwingUtilities.invokeLater(() -> {
+                    if (isCurrent(key, current)) {
+                        updateStatus(percent, message);
+                    }
+                });
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return current.cancelled || Thread.currentThread().isInterrupted();
+            }
+        };
+
+        current.future = EXECUTOR.submit(() -> {
+            try {
+                T result = task.run(progress);
+                SwingUtilities.invokeLater(() -> {
+                    if (finish(key, current)) {
+                        onSuccess.accept(result);
+                    }
+                });
+            } catch (Exception e) {
+                SwingUtilities.invokeLater(() -> {
+                    if (finish(key, current)) {
+                        onError.accept(e);
+                    }
+                });
+            }
+        });
+    }
+
+    public void cancel(String key) {
+        Running previous = running.remove(key);
+        if (previous != null) {
+            previous.cancelled = true;
+            previous.future.cancel(true);
+        }
+        refreshStatus();
+    }
+
+    public boolean isBusy() {
+        return !running.isEmpty();
+    }
+
+    private boolean isCurrent(String key, Running task) {
+        Running current = running.get(key);
+        return current != null && current.generation == task.generation;
+    }
+
+    // Returns false for a task that was cancelled or superseded, whose result must be dropped
+    private boolean finish(String key, Running task) {
+        if (!isCurrent(key, task) || task.cancelled) {
+            return false;
+        }
+        running.remove(key);
+        refreshStatus();
+        return true;
+    }
+
+    private void refreshStatus() {
+        if (running.isEmpty()) {
+            statusBar.setVisible(false);
+            owner.setCursor(Cursor.getDefaultCursor());
+        }
+    }
+
+    private void updateStatus(int percent, String message) {
+        statusBar.setIndeterminate(percent < 0);
+        if (percent >= 0) {
+            statusBar.setValue(percent);
+        }
+        statusBar.setString(message);
+        statusBar.setVisible(true);
+        owner.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+    }
+}
@@ -0,0 +1,388 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Micro-benchmarks for the hot paths of a till and the reports, run in-process against
+// synthetic data so they need no database:
+//
+//   javac -d /tmp/bench src/*.java && java -cp /tmp/bench Benchmarks [name-regex] [--out file.json]
+//   java -cp /tmp/bench Benchmarks --compare before.json after.json
+//
+// Each benchmark gets warmup iterations and then measured ones on one thread, timed in ns/op.
+// This is a plain harness, not JMH: there are no forks or blackholes, only the volatile sink
+// below. Results are written as JSON in this harness's own format (bench-results/ by
+// default), recording the commit, so runs can be diffed with --compare. Sizes and timings are set with
+// -Dbench.products, -Dbench.sales, -Dbench.warmup, -Dbench.iterations and -Dbench.iterationMs;
+// -Dbench.mysql=<product id> adds the database benchmarks.
+public class Benchmarks {
+    private static final int PRODUCTS = Integer.getInteger("bench.products", 50_000);
+    private static final int SALES = Integer.getInteger("bench.sales", 1_000_000);
+    private static final int WARMUP_ITERATIONS = Integer.getInteger("bench.warmup", 3);
+    private static final int MEASURED_ITERATIONS = Integer.getInteger("bench.iterations", 5);
+    private static final long ITERATION_NANOS = Long.getLong("bench.iterationMs", 1_000) * 1_000_000;
+    // Fresh journals are big enough that an iteration on fast storage never fills one
+    private static final int JOURNAL_SIZE = 1 << 28;
+
+    // Results are written here so the JIT cannot drop the work that produced them
+    private static volatile Object sink;
+
+    // One unit of work; its return value goes to the sink
+    private interface Operation {
+        Object run() throws Exception;
+    }
+
+    // Builds the state an iteration runs against; close() runs after the iteration, untimed.
+    // Only IOException, so try-with-resources never has to handle an InterruptedException.
+    private interface Fixture extends AutoCloseable {
+        Operation operation();
+
+        @Override
+        default void close() throws IOException {
+        }
+    }
+
+    private interface FixtureFactory {
+        Fixture create() throws Exception;
+    }
+
+    private record Benchmark(String name, String description, FixtureFactory fixtures) {
+    }
+
+    private record Result(String name, double mean, double error, double[] samples) {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 3 && args[0].equals("--compare")) {
+            compare(Paths.get(args[1]), Paths.get(args[2]));
+            return;
+        }
+
+        Pattern filter = Pattern.compile(".*");
+        Path out = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--out") && i + 1 < args.length) {
+                out = Paths.get(args[++i]);
+            } else {
+                filter = Pattern.compile(args[i]);
+            }
+        }
+        if (out == null) {
+            out = Paths.get("bench-results", "results-"
+                    + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".json");
+        }
+
+        System.out.printf("products=%,d  sales=%,d  warmup=%d  iterations=%d x %d ms%n", PRODUCTS, SALES,
+                WARMUP_ITERATIONS, MEASURED_ITERATIONS, ITERATION_NANOS / 1_000_000);
+        List<Result> results = new ArrayList<>();
+        for (Benchmark benchmark : benchmarks()) {
+            if (filter.matcher(benchmark.name()).find()) {
+                results.add(run(benchmark));
+            }
+        }
+
+        writeJson(out, results);
+        System.out.println("Results written to " + out);
+        System.exit(0);
+    }
+
+    private static List<Benchmark> benchmarks() {
+        List<ProductCatalog.Product> products = new ArrayList<>(PRODUCTS);
+        for (int id = 1; id <= PRODUCTS; id++) {
+            products.add(new ProductCatalog.Product(id, "Product " + id, "General", "Synthetic product " + id,
+                    1 + id % 500, 1_000_000_000, 10, 0));
+        }
+        ProductCatalog.getInstance().preload(products);
+
+        List<Benchmark> benchmarks = new ArrayList<>();
+        benchmarks.add(new Benchmark("sale.checkoutJournaled", "one 3-line basket through the sale journal, fsync included",
+                () -> journaledSale(1)));
+        benchmarks.add(new Benchmark("sale.checkoutGroup32", "32 baskets sold together, as SalePipeline groups them",
+                () -> journaledSale(32)));
+        benchmarks.add(new Benchmark("catalog.get", "ProductCatalog lookup of a random product", () -> () -> {
+            ProductCatalog catalog = ProductCatalog.getInstance();
+            return () -> catalog.get(ThreadLocalRandom.current().nextInt(1, PRODUCTS + 1));
+        }));
+        benchmarks.add(new Benchmark("receipt.format", "POSPanel receipt text for a 3-line basket", () -> () -> {
+            SaleService.CheckoutResult result = new SaleService.CheckoutResult(SaleService.Status.OK, 0, List.of(
+                    new SaleService.SaleResult(SaleService.Status.OK, 1, "Product 1", 2, 3.98),
+                    new SaleService.SaleResult(SaleService.Status.OK, 2, "Product 2", 1, 12.50),
+                    new SaleService.SaleResult(SaleService.Status.OK, 3, "Product 3", 5, 0.95)), 17.43);
+            return () -> POSPanel.formatReceipt(result);
+        }));
+
+        SalesColumnStore[] store = new SalesColumnStore[1];
+        long now = System.currentTimeMillis() / 1000;
+        long monthAgo = now - 30L * 24 * 3600;
+        benchmarks.add(new Benchmark("report.totals30d", "sales totals over the last 30 days", () -> {
+            SalesColumnStore sales = salesStore(store, now);
+            return () -> () -> sales.totals(monthAgo, now);
+        }));
+        benchmarks.add(new Benchmark("report.topProducts30d", "top 10 products over the last 30 days", () -> {
+            SalesColumnStore sales = salesStore(store, now);
+            return () -> () -> sales.groupBy(SalesColumnStore.GroupBy.PRODUCT, monthAgo, now, 10);
+        }));
+
+        benchmarks.add(new Benchmark("purchaseOrders.plan",
+                "orders for 15k low products over 300k products and 3k suppliers", () -> {
+                    SupplierIndex.Builder builder = new SupplierIndex.Builder();
+                    for (int productId = 1; productId <= 300_000; productId++) {
+                        builder.add(productId, 1 + productId % 3_000, 1 + productId % 50);
+                        builder.add(productId, 1 + (productId * 7) % 3_000, Double.NaN);
+                    }
+                    SupplierIndex index = builder.build(Map.of());
+                    List<LowStockMonitor.Item> low = new ArrayList<>();
+                    for (int productId = 7; productId <= 300_000; productId += 20) {
+                        low.add(new LowStockMonitor.Item(productId, productId % 10, 10));
+                    }
+                    return () -> () -> PurchaseOrders.plan(low, index, Set.of());
+                }));
+
+        // Opt in with -Dbench.mysql=<product id>: the sale statements against the configured
+        // database, rolled back so no stock or history changes. The pooled variant is how a
+        // sale used to run, borrowing a connection and preparing each statement every time.
+        Integer productId = Integer.getInteger("bench.mysql");
+        if (productId != null) {
+            benchmarks.add(new Benchmark("mysql.salePooledPrepared", "pooled connection, statements prepared per sale",
+                    () -> () -> () -> {
+                        try (Connection conn = DatabaseConnection.getConnection()) {
+                            conn.setAutoCommit(false);
+                            try (PreparedStatement update = conn.prepareStatement(
+                                    "UPDATE products SET quantity = quantity - ? WHERE id = ? AND quantity >= ?");
+                                 PreparedStatement insert = conn.prepareStatement("INSERT INTO sales_history "
+                                         + "(product_id, quantity_sold, sale_date, total_price, customer_id) VALUES (?, ?, NOW(), ?, ?)")) {
+                                update.setInt(1, 1);
+                                update.setInt(2, productId);
+                                update.setInt(3, 1);
+                                update.executeUpdate();
+                                insert.setInt(1, productId);
+                                insert.setInt(2, 1);
+                                insert.setDouble(3, 1.0);
+                                insert.setNull(4, Types.INTEGER);
+                                return insert.executeUpdate();
+                            } finally {
+                                conn.rollback();
+                                conn.setAutoCommit(true);
+                            }
+                        }
+                    }));
+            benchmarks.add(new Benchmark("mysql.saleWorker", "SaleWorker connection and cached statements",
+                    () -> () -> () -> SaleWorker.forCurrentThread().inTransaction(worker -> {
+                        boolean sold = SaleService.decrementStock(worker, productId, 1);
+                        SaleService.logSale(worker, productId, 1, 1.0);
+                        worker.connection().rollback();
+                        return sold;
+                    })));
+        }
+        return benchmarks;
+    }
+
+    // A fresh journal per iteration, deleted afterwards; no drainer runs, so nothing reaches
+    // the database and stock never runs out
+    private static Fixture journaledSale(int basketsPerCall) throws IOException {
+        Path file = Files.createTempFile("bench-journal", ".dat");
+        SaleJournal journal = new SaleJournal(file, JOURNAL_SIZE);
+        SaleService service = new SaleService(journal);
+        return new Fixture() {
+            @Override
+            public Operation operation() {
+                return () -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    List<SaleService.Basket> baskets = new ArrayList<>(basketsPerCall);
+                    for (int i = 0; i < basketsPerCall; i++) {
+                        baskets.add(new SaleService.Basket(null, List.of(
+                                new SaleService.CartLine(random.nextInt(1, PRODUCTS + 1), random.nextInt(1, 4)),
+                                new SaleService.CartLine(random.nextInt(1, PRODUCTS + 1), 1),
+                                new SaleService.CartLine(random.nextInt(1, PRODUCTS + 1), 2))));
+                    }
+                    return service.checkoutAll(baskets);
+                };
+            }
+
+            @Override
+            public void close() throws IOException {
+                Files.deleteIfExists(file);
+            }
+        };
+    }
+
+    // Built once and shared by the report benchmarks
+    private static SalesColumnStore salesStore(SalesColumnStore[] holder, long now) {
+        if (holder[0] == null) {
+            long yearAgo = now - 365L * 24 * 3600;
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            SalesColumnStore store = new SalesColumnStore();
+            for (int i = 0; i < SALES; i++) {
+                store.append(random.nextInt(1, PRODUCTS + 1), yearAgo + random.nextLong(now - yearAgo),
+                        random.nextLong(100, 50_000), random.nextInt(1, 10), random.nextInt(200_000));
+            }
+            holder[0] = store;
+        }
+        return holder[0];
+    }
+
+    private static Result run(Benchmark benchmark) throws Exception {
+        System.out.printf("%n# %s: %s%n", benchmark.name(), benchmark.description());
+        double[] samples = new double[MEASURED_ITERATIONS];
+        for (int i = 0; i < WARMUP_ITERATIONS + MEASURED_ITERATIONS; i++) {
+            boolean warmup = i < WARMUP_ITERATIONS;
+            double nanosPerOp;
+            try (Fixture fixture = benchmark.fixtures().create()) {
+                nanosPerOp = iterate(fixture.operation());
+            }
+            if (warmup) {
+                System.out.printf("  warmup %d: %,.1f ns/op%n", i + 1, nanosPerOp);
+            } else {
+                samples[i - WARMUP_ITERATIONS] = nanosPerOp;
+                System.out.printf("  iteration %d: %,.1f ns/op%n", i - WARMUP_ITERATIONS + 1, nanosPerOp);
+            }
+        }
+
+        double mean = 0;
+        for (double sample : samples) {
+            mean += sample;
+        }
+        mean /= samples.length;
+        double variance = 0;
+        for (double sample : samples) {
+            variance += (sample - mean) * (sample - mean);
+        }
+        double error = samples.length < 2 ? Double.NaN
+                : studentT999(samples.length - 1) * Math.sqrt(variance / (samples.length - 1) / samples.length);
+        System.out.printf("  %s: %,.1f +- %,.1f ns/op (99.9%%)%n", benchmark.name(), mean, error);
+        return new Result(benchmark.name(), mean, error, samples);
+    }
+
+    // Runs the operation in doubling batches until the iteration time is used up, so the
+    // clock is read rarely even for operations that take a few nanoseconds
+    private static double iterate(Operation operation) throws Exception {
+        long ops = 0;
+        long batch = 1;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            for (long i = 0; i < batch; i++) {
+                sink = operation.run();
+            }
+            ops += batch;
+            elapsed = System.nanoTime() - start;
+            if (batch < 1 << 20) {
+                batch <<= 1;
+            }
+        } while (elapsed < ITERATION_NANOS);
+        return (double) elapsed / ops;
+    }
+
+    // Two-sided 99.9% Student's t quantiles for the error; beyond ten degrees of
+    // freedom the normal value is close enough for comparing runs
+    private static double studentT999(int degreesOfFreedom) {
+        double[] quantiles = {636.62, 31.60, 12.92, 8.61, 6.87, 5.96, 5.41, 5.04, 4.78, 4.59};
+        return degreesOfFreedom <= quantiles.length ? quantiles[degreesOfFreedom - 1] : 3.29;
+    }
+
+    // { "format": "smartshop-bench/1", run settings..., "results": [ { "name", "unit",
+    // "mean", "error", "samples" } ] } where error is the 99.9% confidence half-width
+    private static void writeJson(Path out, List<Result> results) throws IOException {
+        if (out.getParent() != null) {
+            Files.createDirectories(out.getParent());
+        }
+        try (Writer writer = Files.newBufferedWriter(out, StandardCharsets.UTF_8)) {
+            writer.write(String.format(Locale.ROOT, """
+                    {
+                        "format" : "smartshop-bench/1",
+                        "commit" : "%s",
+                        "jvm" : "%s",
+                        "jdkVersion" : "%s",
+                        "products" : %d,
+                        "sales" : %d,
+                        "warmupIterations" : %d,
+                        "measuredIterations" : %d,
+                        "iterationMs" : %d,
+                        "results" : [
+                    """, gitCommit(), jsonEscape(System.getProperty("java.home")), System.getProperty("java.version"),
+                    PRODUCTS, SALES, WARMUP_ITERATIONS, MEASURED_ITERATIONS, ITERATION_NANOS / 1_000_000));
+            for (int i = 0; i < results.size(); i++) {
+                Result result = results.get(i);
+                StringBuilder raw = new StringBuilder();
+                for (double sample : result.samples()) {
+                    raw.append(raw.length() == 0 ? "" : ", ").append(number(sample));
+                }
+                writer.write(String.format(Locale.ROOT, """
+                                {
+                                    "name" : "%s",
+                                    "unit" : "ns/op",
+                                    "mean" : %s,
+                                    "error" : %s,
+                                    "samples" : [%s]
+                                }%s
+                        """, result.name(), number(result.mean()), number(result.error()), raw,
+                        i + 1 < results.size() ? "," : ""));
+            }
+            writer.write("    ]\n}\n");
+        }
+    }
+
+    private static String number(double value) {
+        return Double.isNaN(value) ? "\"NaN\"" : String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private static String jsonEscape(String text) {
+        return text.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    // Recorded with the results so runs can be matched to commits; "unknown" outside a checkout
+    private static String gitCommit() {
+        try {
+            Process git = new ProcessBuilder("git", "rev-parse", "--short", "HEAD").redirectErrorStream(true).start();
+            String output = new String(git.getInputStream().readAllBytes(), StandardCharsets.UTF_8).trim();
+            return git.waitFor() == 0 && output.matches("[0-9a-f]+") ? output : "unknown";
+        } catch (IOException e) {
+            return "unknown";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "unknown";
+        }
+    }
+
+    // Reads back the mean of each result that writeJson put in a results file
+    private static Map<String, Double> readScores(Path file) throws IOException {
+        Pattern entry = Pattern.compile("\"name\"\\s*:\\s*\"([^\"]+)\".*?\"mean\"\\s*:\\s*([-0-9.eE]+)", Pattern.DOTALL);
+        Matcher matcher = entry.matcher(Files.readString(file));
+        Map<String, Double> scores = new LinkedHashMap<>();
+        while (matcher.find()) {
+            scores.put(matcher.group(1), Double.parseDouble(matcher.group(2)));
+        }
+        return scores;
+    }
+
+    private static void compare(Path before, Path after) throws IOException {
+        Map<String, Double> base = readScores(before);
+        Map<String, Double> current = readScores(after);
+        System.out.printf("%-28s %16s %16s %9s%n", "benchmark", "before ns/op", "after ns/op", "change");
+        for (Map.Entry<String, Double> entry : current.entrySet()) {
+            Double old = base.get(entry.getKey());
+            if (old == null) {
+                System.out.printf("%-28s %16s %,16.1f %9s%n", entry.getKey(), "-", entry.getValue(), "new");
+            } else {
+                System.out.printf("%-28s %,16.1f %,16.1f %+8.1f%%%n", entry.getKey(), old, entry.getValue(),
+                        (entry.getValue() - old) * 100 / old);
+            }
+        }
+    }
+}
@@ -1,22 +1,32 @@
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.sql.*;
+import java.util.List;
 
 public class CRMPanel extends JPanel {
+    private static final String[] COLUMN_NAMES = {"ID", "Name", "Email", "Phone", "Purchase History"};
+    // Rows shown for a search; enough to pick from, few enough to redraw on every keystroke
+    private static final int SEARCH_LIMIT = 50;
+
     private JTable customerTable;
     private DefaultTableModel tableModel;
     private JTextField nameField, emailField, phoneField, purchaseHistoryField;
     private JButton addButton, updateButton, deleteButton, searchButton;
     private JTextField searchField;
+    private JTextArea statsArea;
+    private final BackgroundLoader loader = new BackgroundLoader(this);
+    private CustomerSearchIndex searchIndex = new CustomerSearchIndex();
 
     public CRMPanel() {
         setLayout(new BorderLayout(10, 10));  // Padding for the main layout
 
         // Initialize the table model with column names
-        tableModel = new DefaultTableModel(new String[]{"ID", "Name", "Email", "Phone", "Purchase History"}, 0);
+        tableModel = new DefaultTableModel(COLUMN_NAMES, 0);
         customerTable = new JTable(tableModel);
 
         // Load the customer data from the database
@@ -28,8 +38,31 @@ public class CRMPanel extends JPanel {
         customerTable.setGridColor(Color.LIGHT_GRAY);  // Light grid color
         customerTable.setIntercellSpacing(new Dimension(0, 1));  // Reduce space between rows
 
+        // Search box above the table; results update as the cashier types
+        JPanel searchPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 10, 5));
+        searchPanel.add(new JLabel("Search:"));
+        searchField = new JTextField(25);
+        searchField.setPreferredSize(new Dimension(250, 30));
+        searchField.setBorder(BorderFactory.createLineBorder(Color.GRAY));
+        searchField.setToolTipText("Part of a name, email or phone number");
+        searchPanel.add(searchField);
+        searchButton = new JButton("Search");
+        styleButton(searchButton);
+        searchPanel.add(searchButton);
+
         // Add the table to a scroll pane and then add it to the panel
-        add(new JScrollPane(customerTable), BorderLayout.CENTER);
+        JPanel tablePanel = new JPanel(new BorderLayout());
+        tablePanel.add(searchPanel, BorderLayout.NORTH);
+        tablePanel.add(new JScrollPane(customerTable), BorderLayout.CENTER);
+
+        // Purchase totals for the selected customer, kept up to date by every sale
+        statsArea = new JTextArea(4, 40);
+        statsArea.setEditable(false);
+        statsArea.setFont(new Font("Monospaced", Font.PLAIN, 13));
+        JScrollPane statsScrollPane = new JScrollPane(statsArea);
+        statsScrollPane.setBorder(BorderFactory.createTitledBorder("Purchases"));
+        tablePanel.add(statsScrollPane, BorderLayout.SOUTH);
+        add(tablePanel, BorderLayout.CENTER);
 
         // Form for adding/updating customers at the top
         JPanel formPanel = new JPanel(new GridBagLayout());
@@ -93,7 +126,10 @@ public class CRMPanel extends JPanel {
 
         // Add form and button panels to the main panel
         add(formPanel, BorderLayout.NORTH);
-        add(buttonPanel, BorderLayout.SOUTH);
+        JPanel southPanel = new JPanel(new BorderLayout());
+        southPanel.add(buttonPanel, BorderLayout.CENTER);
+        southPanel.add(loader.getStatusBar(), BorderLayout.SOUTH);  // Loading status below the buttons
+        add(southPanel, BorderLayout.SOUTH);
 
         // Action Listeners
         addButton.addActionListener(new ActionListener() {
@@ -116,27 +152,108 @@ public class CRMPanel extends JPanel {
                 deleteCustomer();
             }
         });
+
+        customerTable.getSelectionModel().addListSelectionListener(e -> {
+            if (!e.getValueIsAdjusting()) {
+                showCustomerStats();
+            }
+        });
+
+        searchButton.addActionListener(e -> showSearchResults());
+        searchField.addActionListener(e -> showSearchResults());
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                showSearchResults();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                showSearchResults();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                showSearchResults();
+            }
+        });
     }
 
-    private void loadCustomerData() {
-        try (Connection conn = DatabaseConnection.getConnection();
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery("SELECT * FROM customers")) {
-
-            while (rs.next()) {
-                int id = rs.getInt("id");
-                String name = rs.getString("name");
-                String email = rs.getString("email");
-                String phone = rs.getString("phone");
-                String purchaseHistory = rs.getString("purchase_history");
-
-                // Add the customer data to the table
-                tableModel.addRow(new Object[]{id, name, email, phone, purchaseHistory});
+    // An empty search shows the first SEARCH_LIMIT customers by id, not all of them: filling
+    // the table with a million rows would stall the EDT every time the field is cleared
+    private void showSearchResults() {
+        String query = searchField.getText();
+        List<CustomerSearchIndex.Customer> customers = query.isBlank()
+                ? searchIndex.first(SEARCH_LIMIT) : searchIndex.search(query, SEARCH_LIMIT);
+        Object[][] rows = new Object[customers.size()][];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = toRow(customers.get(i));
+        }
+        tableModel.setDataVector(rows, COLUMN_NAMES);
+    }
+
+    // Reads the maintained totals; a later selection supersedes a load still in flight
+    private void showCustomerStats() {
+        int selectedRow = customerTable.getSelectedRow();
+        if (selectedRow < 0) {
+            statsArea.setText("");
+            return;
+        }
+        int id = (int) tableModel.getValueAt(selectedRow, 0);
+        loader.submit("stats", progress -> {
+            try (Connection conn = DatabaseConnection.getConnection()) {
+                return formatStats(CustomerStats.load(conn, id));
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(this, "Error loading customer data.");
+        }, text -> {
+            statsArea.setText(text);
+            statsArea.setCaretPosition(0);
+        }, "Error loading customer purchases.");
+    }
+
+    // Runs off the EDT: product names may need a catalog lookup
+    private static String formatStats(CustomerStats.Summary summary) throws SQLException {
+        if (summary.visits() == 0) {
+            return "No purchases recorded yet.";
         }
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("Lifetime spend: $%.2f   Visits: %d   Items: %d%n",
+                summary.lifetimeSpend(), summary.visits(), summary.itemsBought()));
+        text.append(String.format("First visit: %s   Last visit: %s%n", summary.firstVisit(), summary.lastVisit()));
+        ProductCatalog catalog = ProductCatalog.getInstance();
+        for (CustomerStats.ProductTotal product : summary.topProducts()) {
+            ProductCatalog.Product known = catalog.get(product.productId());
+            String name = known == null ? "Product #" + product.productId() : known.name();
+            text.append(String.format("  %-30s x%-6d $%.2f%n", name, product.quantity(), product.spend()));
+        }
+        return text.toString();
+    }
+
+    private static Object[] toRow(CustomerSearchIndex.Customer customer) {
+        return new Object[]{customer.id(), customer.name(), customer.email(), customer.phone(), customer.purchaseHistory()};
+    }
+
+    private void loadCustomerData() {
+        loader.submit("load", progress -> {
+            // Built off the EDT and swapped in whole, so searches never see a half-built index
+            CustomerSearchIndex index = new CustomerSearchIndex();
+            try (Connection conn = DatabaseConnection.getConnection();
+                 Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT id, name, email, phone, purchase_history FROM customers")) {
+
+                while (rs.next() && !progress.isCancelled()) {
+                    index.put(new CustomerSearchIndex.Customer(rs.getInt("id"), rs.getString("name"),
+                            rs.getString("email"), rs.getString("phone"), rs.getString("purchase_history")));
+                    if (index.size() % 10_000 == 0) {
+                        progress.update(-1, "Loaded " + index.size() + " customers...");
+                    }
+                }
+            }
+            return index;
+        }, index -> {
+            // Add the customer data to the table
+            searchIndex = index;
+            showSearchResults();
+        }, "Error loading customer data.");
     }
 
     private void addCustomer() {
@@ -145,22 +262,30 @@ public class CRMPanel extends JPanel {
         String phone = phoneField.getText();
         String purchaseHistory = purchaseHistoryField.getText();
 
-        try (Connection conn = DatabaseConnection.getConnection()) {
+        loader.execute(progress -> {
             String query = "INSERT INTO customers (name, email, phone, purchase_history) VALUES (?, ?, ?, ?)";
-            try (PreparedStatement pstmt = conn.prepareStatement(query)) {
+            try (Connection conn = DatabaseConnection.getConnection();
+                 PreparedStatement pstmt = conn.prepareStatement(query, Statement.RETURN_GENERATED_KEYS)) {
                 pstmt.setString(1, name);
                 pstmt.setString(2, email);
                 pstmt.setString(3, phone);
                 pstmt.setString(4, purchaseHistory);
                 pstmt.executeUpdate();
-                JOptionPane.showMessageDialog(this, "Customer added successfully.");
-                loadCustomerData(); // Refresh the customer data
-                clearForm();
+                try (ResultSet rs = pstmt.getGeneratedKeys()) {
+                    return rs.next() ? rs.getInt(1) : -1;
+                }
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(this, "Error adding customer.");
-        }
+        }, id -> {
+            JOptionPane.showMessageDialog(this, "Customer added successfully.");
+            CustomerSearchIndex.Customer customer = new CustomerSearchIndex.Customer(id, name, email, phone, purchaseHistory);
+            searchIndex.put(customer);
+            if (searchField.getText().isBlank()) {
+                tableModel.addRow(toRow(customer));
+            } else {
+                showSearchResults();
+            }
+            clearForm();
+        }, "Error adding customer.");
     }
 
     private void updateCustomer() {
@@ -172,26 +297,29 @@ public class CRMPanel extends JPanel {
             String phone = phoneField.getText();
             String purchaseHistory = purchaseHistoryField.getText();
 
-            try (Connection conn = DatabaseConnection.getConnection()) {
+            loader.execute(progress -> {
                 String query = "UPDATE customers SET name = ?, email = ?, phone = ?, purchase_history = ? WHERE id = ?";
-                try (PreparedStatement pstmt = conn.prepareStatement(query)) {
+                try (Connection conn = DatabaseConnection.getConnection();
+                     PreparedStatement pstmt = conn.prepareStatement(query)) {
                     pstmt.setString(1, name);
                     pstmt.setString(2, email);
                     pstmt.setString(3, phone);
                     pstmt.setString(4, purchaseHistory);
                     pstmt.setInt(5, id);
-                    pstmt.executeUpdate();
-                    tableModel.setValueAt(name, selectedRow, 1);
-                    tableModel.setValueAt(email, selectedRow, 2);
-                    tableModel.setValueAt(phone, selectedRow, 3);
-                    tableModel.setValueAt(purchaseHistory, selectedRow, 4);
-                    JOptionPane.showMessageDialog(this, "Customer updated successfully.");
-                    clearForm();
+                    return pstmt.executeUpdate();
                 }
-            } catch (SQLException e) {
-                e.printStackTrace();
-                JOptionPane.showMessageDialog(this, "Error updating customer.");
-            }
+            }, updated -> {
+                searchIndex.put(new CustomerSearchIndex.Customer(id, name, email, phone, purchaseHistory));
+                int row = findRow(id);
+                if (row >= 0) {
+                    tableModel.setValueAt(name, row, 1);
+                    tableModel.setValueAt(email, row, 2);
+                    tableModel.setValueAt(phone, row, 3);
+                    tableModel.setValueAt(purchaseHistory, row, 4);
+                }
+                JOptionPane.showMessageDialog(this, "Customer updated successfully.");
+                clearForm();
+            }, "Error updating customer.");
         } else {
             JOptionPane.showMessageDialog(this, "No customer selected for update.");
         }
@@ -202,23 +330,35 @@ public class CRMPanel extends JPanel {
         if (selectedRow >= 0) {
             int id = (int) tableModel.getValueAt(selectedRow, 0);
 
-            try (Connection conn = DatabaseConnection.getConnection()) {
+            loader.execute(progress -> {
                 String query = "DELETE FROM customers WHERE id = ?";
-                try (PreparedStatement pstmt = conn.prepareStatement(query)) {
+                try (Connection conn = DatabaseConnection.getConnection();
+                     PreparedStatement pstmt = conn.prepareStatement(query)) {
                     pstmt.setInt(1, id);
-                    pstmt.executeUpdate();
-                    tableModel.removeRow(selectedRow);
-                    JOptionPane.showMessageDialog(this, "Customer deleted successfully.");
+                    return pstmt.executeUpdate();
                 }
-            } catch (SQLException e) {
-                e.printStackTrace();
-                JOptionPane.showMessageDialog(this, "Error deleting customer.");
-            }
+            }, deleted -> {
+                searchIndex.remove(id);
+                int row = findRow(id);
+                if (row >= 0) {
+                    tableModel.removeRow(row);
+                }
+                JOptionPane.showMessageDialog(this, "Customer deleted successfully.");
+            }, "Error deleting customer.");
         } else {
             JOptionPane.showMessageDialog(this, "No customer selected for deletion.");
         }
     }
 
+    private int findRow(int id) {
+        for (int row = 0; row < tableModel.getRowCount(); row++) {
+            if ((int) tableModel.getValueAt(row, 0) == id) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
     private void clearForm() {
         nameField.setText("");
         emailField.setText("");
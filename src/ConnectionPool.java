@@ -0,0 +1,322 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// A small JDBC connection pool. Connections handed out are proxies whose close()
+// returns the physical connection to the pool instead of closing the socket.
+public class ConnectionPool implements AutoCloseable {
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int minSize;
+    private final int maxSize;
+    private final long connectionTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final long leakDetectionThresholdMillis;
+    private final long validationIntervalMillis;
+
+    // Most recently returned connections sit at the head so hot connections get reused
+    // and cold ones drift to the tail where the housekeeper evicts them
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Set<PooledConnection> inUse = ConcurrentHashMap.newKeySet();
+    private final Semaphore permits;
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed = false;
+
+    private final AtomicLong totalCreated = new AtomicLong();
+    private final AtomicLong totalBorrowed = new AtomicLong();
+    private final AtomicLong totalTimeouts = new AtomicLong();
+    private final AtomicLong totalEvicted = new AtomicLong();
+    private final AtomicLong totalInvalid = new AtomicLong();
+    private final AtomicLong totalLeaks = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    public ConnectionPool(String url, String user, String password, int minSize, int maxSize,
+                          long connectionTimeoutMillis, long idleTimeoutMillis, long leakDetectionThresholdMillis) {
+        if (minSize < 0 || maxSize <= 0 || minSize > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size: min=" + minSize + ", max=" + maxSize);
+        }
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.connectionTimeoutMillis = connectionTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.leakDetectionThresholdMillis = leakDetectionThresholdMillis;
+        this.validationIntervalMillis = 500;
+        this.permits = new Semaphore(maxSize, true);
+
+        housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, Math.min(idleTimeoutMillis, leakDetectionThresholdMillis) / 2);
+        housekeeper.scheduleWithFixedDelay(this::houseKeep, period, period, TimeUnit.MILLISECONDS);
+        // Warm up in the background so the first sale does not pay for the handshake
+        housekeeper.execute(this::fillToMinimum);
+    }
+
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(connectionTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                totalTimeouts.incrementAndGet();
+                throw new SQLTimeoutException("Timed out after " + connectionTimeoutMillis
+                        + " ms waiting for a database connection (" + getStats() + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+
+        try {
+            PooledConnection pooled = takeIdleConnection();
+            if (pooled == null) {
+                pooled = new PooledConnection(openPhysicalConnection());
+            }
+            pooled.borrowedAt = System.currentTimeMillis();
+            pooled.borrowSite = leakDetectionThresholdMillis > 0 ? new Throwable("Connection borrowed here") : null;
+            pooled.leakReported = false;
+            inUse.add(pooled);
+
+            long waited = System.nanoTime() - start;
+            totalBorrowed.incrementAndGet();
+            totalWaitNanos.addAndGet(waited);
+            maxWaitNanos.accumulateAndGet(waited, Math::max);
+            return pooled.newHandle();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    // Returns a validated idle connection, discarding any that went stale while parked
+    private PooledConnection takeIdleConnection() {
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            long idleFor = System.currentTimeMillis() - pooled.lastReturned;
+            if (idleFor < validationIntervalMillis || isUsable(pooled.physical)) {
+                return pooled;
+            }
+            totalInvalid.incrementAndGet();
+            closeQuietly(pooled.physical);
+        }
+        return null;
+    }
+
+    private Connection openPhysicalConnection() throws SQLException {
+        Connection conn = DriverManager.getConnection(url, user, password);
+        totalCreated.incrementAndGet();
+        return conn;
+    }
+
+    private void release(PooledConnection pooled) {
+        if (!inUse.remove(pooled)) {
+            return;
+        }
+        try {
+            if (closed || pooled.physical.isClosed()) {
+                closeQuietly(pooled.physical);
+                return;
+            }
+            // Never hand the next borrower a half-finished transaction
+            if (!pooled.physical.getAutoCommit()) {
+                pooled.physical.rollback();
+                pooled.physical.setAutoCommit(true);
+            }
+            pooled.lastReturned = System.currentTimeMillis();
+            idle.offerFirst(pooled);
+        } catch (SQLException e) {
+            totalInvalid.incrementAndGet();
+            closeQuietly(pooled.physical);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void houseKeep() {
+        try {
+            evictIdleConnections();
+            detectLeaks();
+            fillToMinimum();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void evictIdleConnections() {
+        long now = System.currentTimeMillis();
+        while (idle.size() + inUse.size() > minSize) {
+            PooledConnection oldest = idle.peekLast();
+            if (oldest == null || now - oldest.lastReturned < idleTimeoutMillis) {
+                break;
+            }
+            if (idle.removeLastOccurrence(oldest)) {
+                totalEvicted.incrementAndGet();
+                closeQuietly(oldest.physical);
+            }
+        }
+    }
+
+    private void detectLeaks() {
+        if (leakDetectionThresholdMillis <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (PooledConnection pooled : inUse) {
+            if (!pooled.leakReported && now - pooled.borrowedAt > leakDetectionThresholdMillis) {
+                pooled.leakReported = true;
+                totalLeaks.incrementAndGet();
+                System.err.println("Possible connection leak: connection held for "
+                        + (now - pooled.borrowedAt) + " ms");
+                if (pooled.borrowSite != null) {
+                    pooled.borrowSite.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void fillToMinimum() {
+        while (!closed && idle.size() + inUse.size() < minSize) {
+            try {
+                PooledConnection pooled = new PooledConnection(openPhysicalConnection());
+                pooled.lastReturned = System.currentTimeMillis();
+                idle.offerLast(pooled);
+            } catch (SQLException e) {
+                // Database not reachable yet; try again on the next housekeeping pass
+                return;
+            }
+        }
+    }
+
+    private boolean isUsable(Connection conn) {
+        try {
+            return conn.isValid(2);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private static void closeQuietly(Connection conn) {
+        try {
+            conn.close();
+        } catch (SQLException ignored) {
+            // Nothing useful to do with a connection that cannot be closed
+        }
+    }
+
+    public Stats getStats() {
+        long borrowed = totalBorrowed.get();
+        return new Stats(minSize, maxSize, idle.size(), inUse.size(), permits.getQueueLength(),
+                totalCreated.get(), borrowed, totalTimeouts.get(), totalEvicted.get(), totalInvalid.get(),
+                totalLeaks.get(),
+                borrowed == 0 ? 0 : totalWaitNanos.get() / borrowed / 1_000,
+                maxWaitNanos.get() / 1_000);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            closeQuietly(pooled.physical);
+        }
+    }
+
+    // Snapshot of pool counters, used to size minSize/maxSize for a till
+    public record Stats(int minSize, int maxSize, int idle, int active, int waiting,
+                        long created, long borrowed, long timeouts, long evicted, long invalidated,
+                        long leaks, long avgWaitMicros, long maxWaitMicros) {
+        @Override
+        public String toString() {
+            return String.format("active=%d, idle=%d, waiting=%d, max=%d, created=%d, borrowed=%d, "
+                            + "timeouts=%d, evicted=%d, invalid=%d, leaks=%d, avgWait=%dus, maxWait=%dus",
+                    active, idle, waiting, maxSize, created, borrowed, timeouts, evicted, invalidated,
+                    leaks, avgWaitMicros, maxWaitMicros);
+        }
+    }
+
+    private class PooledConnection {
+        final Connection physical;
+        volatile long lastReturned;
+        volatile long borrowedAt;
+        volatile Throwable borrowSite;
+        volatile boolean leakReported;
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+        }
+
+        // Each borrow gets its own handle so a stale reference cannot close someone else's lease
+        Connection newHandle() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, new Handle(this));
+        }
+    }
+
+    private class Handle implements InvocationHandler {
+        private PooledConnection pooled;
+
+        Handle(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    synchronized (this) {
+                        if (pooled != null) {
+                            PooledConnection returning = pooled;
+                            pooled = null;
+                            release(returning);
+                        }
+                    }
+                    return null;
+                case "isClosed":
+                    synchronized (this) {
+                        return pooled == null || pooled.physical.isClosed();
+                    }
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + (pooled == null ? "closed" : pooled.physical) + "]";
+                default:
+                    break;
+            }
+
+            PooledConnection current = pooled;
+            if (current == null) {
+                throw new SQLException("Connection has already been returned to the pool");
+            }
+            try {
+                return method.invoke(current.physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,366 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+// In-memory search over customers by any part of their name, email or phone. Each customer's
+// text is broken into trigrams (for substring matches) and each word into its one and two
+// letter prefixes (for the first keystrokes). Names and contact details are indexed
+// separately. A query intersects the posting lists of its grams, shortest first, and checks
+// only the survivors: name matches first, and contact details only if the names did not fill
+// the page. A keystroke therefore costs a few list walks rather than a scan of every
+// customer. Not thread-safe; CRMPanel builds a new index off the EDT and then only touches it
+// on the EDT.
+public class CustomerSearchIndex {
+    private static final char SEPARATOR = '\u0001';
+    // Most candidates checked per field and keystroke; only a query matching a large share
+    // of all customers gets near this, and it is then too vague for ranking to matter much
+    private static final int SCAN_LIMIT = 20_000;
+
+    public record Customer(int id, String name, String email, String phone, String purchaseHistory) {
+    }
+
+    // Posting list of slots, always ascending because slots are only ever appended
+    private static class IntList {
+        int[] values = new int[4];
+        int size = 0;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+
+    // A customer's slot never changes; a deleted or replaced customer leaves a null slot
+    // behind until the next compaction
+    private final List<Customer> slots = new ArrayList<>();
+    private final List<String> texts = new ArrayList<>();
+    // Sorted, so the first page by id is read without visiting everyone
+    private final NavigableMap<Integer, Integer> slotById = new TreeMap<>();
+    private final Map<Long, IntList> namePostings = new HashMap<>();
+    private final Map<Long, IntList> contactPostings = new HashMap<>();
+    private int deleted = 0;
+
+    public void put(Customer customer) {
+        remove(customer.id());
+        int slot = slots.size();
+        String text = searchText(customer);
+        slots.add(customer);
+        texts.add(text);
+        slotById.put(customer.id(), slot);
+        int nameEnd = text.indexOf(SEPARATOR);
+        for (long gram : gramsOf(text.substring(0, nameEnd))) {
+            namePostings.computeIfAbsent(gram, key -> new IntList()).add(slot);
+        }
+        for (long gram : gramsOf(text.substring(nameEnd + 1))) {
+            contactPostings.computeIfAbsent(gram, key -> new IntList()).add(slot);
+        }
+    }
+
+    public void remove(int customerId) {
+        Integer slot = slotById.remove(customerId);
+        if (slot == null) {
+            return;
+        }
+        slots.set(slot, null);
+        texts.set(slot, null);
+        deleted++;
+        if (deleted > 1_000 && deleted > slots.size() / 4) {
+            compact();
+        }
+    }
+
+    public Customer get(int customerId) {
+        Integer slot = slotById.get(customerId);
+        return slot == null ? null : slots.get(slot);
+    }
+
+    public int size() {
+        return slotById.size();
+    }
+
+    // Every customer, by id
+    public List<Customer> all() {
+        return first(slotById.size());
+    }
+
+    // The limit customers with the lowest ids, in id order
+    public List<Customer> first(int limit) {
+        List<Customer> customers = new ArrayList<>(Math.min(limit, slotById.size()));
+        for (int slot : slotById.values()) {
+            if (customers.size() == limit) {
+                break;
+            }
+            customers.add(slots.get(slot));
+        }
+        return customers;
+    }
+
+    // Best matches first: names with a word starting with the query, then names containing
+    // it, then email and phone matches. Ties keep the order customers were added in, which is
+    // id order after a load.
+    public List<Customer> search(String query, int limit) {
+        String q = normalize(query);
+        if (q.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+        if (q.matches("[0-9 ()+.-]+") && q.matches(".*[0-9].*")) {
+            q = digitsOf(q);  // Phone numbers are indexed as bare digits
+        }
+
+        List<Integer> wordMatches = new ArrayList<>();
+        List<Integer> nameMatches = new ArrayList<>();
+        List<Integer> contactMatches = new ArrayList<>();
+        Candidates candidates = new Candidates(namePostings, q);
+        // Stops as soon as the best rank is full; lower ranks can only fill the remainder
+        for (int slot; wordMatches.size() < limit && (slot = candidates.next()) >= 0; ) {
+            String text = texts.get(slot);
+            if (text == null) {
+                continue;
+            }
+            int at = text.indexOf(q);
+            if (at >= 0 && at + q.length() <= text.indexOf(SEPARATOR)) {
+                if (at == 0 || !Character.isLetterOrDigit(text.charAt(at - 1))) {
+                    wordMatches.add(slot);
+                } else if (nameMatches.size() < limit) {
+                    nameMatches.add(slot);
+                }
+            }
+        }
+
+        if (wordMatches.size() + nameMatches.size() < limit) {
+            int wanted = limit - wordMatches.size() - nameMatches.size();
+            candidates = new Candidates(contactPostings, q);
+            for (int slot; contactMatches.size() < wanted && (slot = candidates.next()) >= 0; ) {
+                String text = texts.get(slot);
+                // Customers whose name matched are already listed above
+                if (text != null && text.indexOf(q) > text.indexOf(SEPARATOR)) {
+                    contactMatches.add(slot);
+                }
+            }
+        }
+
+        List<Customer> results = new ArrayList<>(limit);
+        for (List<Integer> rank : List.of(wordMatches, nameMatches, contactMatches)) {
+            for (int slot : rank) {
+                if (results.size() == limit) {
+                    return results;
+                }
+                results.add(slots.get(slot));
+            }
+        }
+        return results;
+    }
+
+    // Lazily yields, in ascending order, the slots whose field has every gram of the query.
+    // Walks the shortest posting list and gallops through the others, so a query that fills
+    // its page early never touches the rest. May yield false positives (grams present but not
+    // contiguous) and deleted slots; callers check the text.
+    private static class Candidates {
+        private final IntList[] lists;
+        private final int[] cursors;
+        private int scanned = 0;
+
+        Candidates(Map<Long, IntList> postings, String q) {
+            List<IntList> found = new ArrayList<>();
+            int gramLength = Math.min(3, q.length());
+            for (int i = 0; i + gramLength <= q.length(); i++) {
+                IntList list = postings.get(encode(q, i, i + gramLength));
+                if (list == null) {
+                    found.clear();
+                    break;
+                }
+                found.add(list);
+            }
+            found.sort(Comparator.comparingInt(list -> list.size));
+            lists = found.toArray(new IntList[0]);
+            cursors = new int[lists.length];
+        }
+
+        // Next candidate slot, or -1 when there are no more
+        int next() {
+            if (lists.length == 0) {
+                return -1;
+            }
+            IntList shortest = lists[0];
+            candidates:
+            while (cursors[0] < shortest.size && scanned < SCAN_LIMIT) {
+                int value = shortest.values[cursors[0]++];
+                scanned++;
+                for (int k = 1; k < lists.length; k++) {
+                    int position = seek(lists[k], cursors[k], value);
+                    cursors[k] = position;
+                    if (position == lists[k].size) {
+                        cursors[0] = shortest.size;
+                        return -1;
+                    }
+                    if (lists[k].values[position] != value) {
+                        continue candidates;
+                    }
+                }
+                return value;
+            }
+            return -1;
+        }
+
+        // First position at or after from holding a value >= target: exponential steps, then
+        // a binary search within the last step
+        private static int seek(IntList list, int from, int target) {
+            int step = 1;
+            int low = from;
+            while (from + step < list.size && list.values[from + step] < target) {
+                low = from + step;
+                step <<= 1;
+            }
+            int high = Math.min(from + step + 1, list.size);
+            if (low < list.size && list.values[low] >= target) {
+                return low;
+            }
+            int found = Arrays.binarySearch(list.values, low, high, target);
+            return found >= 0 ? found : -found - 1;
+        }
+    }
+
+    private void compact() {
+        List<Customer> live = all();
+        slots.clear();
+        texts.clear();
+        slotById.clear();
+        namePostings.clear();
+        contactPostings.clear();
+        deleted = 0;
+        for (Customer customer : live) {
+            put(customer);
+        }
+    }
+
+    private static String searchText(Customer customer) {
+        return normalize(customer.name()) + SEPARATOR + normalize(customer.email()) + SEPARATOR
+                + digitsOf(customer.phone() == null ? "" : customer.phone());
+    }
+
+    // Distinct trigrams of the text, plus the one and two letter prefixes of each word
+    private static long[] gramsOf(String text) {
+        long[] grams = new long[Math.max(0, text.length() - 2) + text.length() * 2];
+        int count = 0;
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            grams[count++] = encode(text, i, i + 3);
+        }
+        int wordStart = 0;
+        for (int i = 0; i <= text.length(); i++) {
+            if (i == text.length() || !Character.isLetterOrDigit(text.charAt(i))) {
+                if (i > wordStart) {
+                    grams[count++] = encode(text, wordStart, wordStart + 1);
+                    if (i - wordStart >= 2) {
+                        grams[count++] = encode(text, wordStart, wordStart + 2);
+                    }
+                }
+                wordStart = i + 1;
+            }
+        }
+        Arrays.sort(grams, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || grams[i] != grams[distinct - 1]) {
+                grams[distinct++] = grams[i];
+            }
+        }
+        return Arrays.copyOf(grams, distinct);
+    }
+
+    // Up to three chars packed with their count, so "ab" and "ab\0" are different keys
+    private static long encode(String s, int start, int end) {
+        long key = end - start;
+        for (int i = start; i < end; i++) {
+            key = (key << 16) | s.charAt(i);
+        }
+        return key;
+    }
+
+    // Lower case with runs of whitespace collapsed to one space
+    private static String normalize(String s) {
+        if (s == null) {
+            return "";
+        }
+        StringBuilder normalized = new StringBuilder(s.length());
+        boolean space = false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = normalized.length() > 0;
+            } else {
+                if (space) {
+                    normalized.append(' ');
+                    space = false;
+                }
+                normalized.append(Character.toLowerCase(c));
+            }
+        }
+        return normalized.toString();
+    }
+
+    private static String digitsOf(String s) {
+        StringBuilder digits = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            if (Character.isDigit(s.charAt(i))) {
+                digits.append(s.charAt(i));
+            }
+        }
+        return digits.toString();
+    }
+
+    // Builds an index of synthetic customers and reports per-keystroke search times.
+    // Usage: java CustomerSearchIndex [customers]
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        String[] first = {"James", "Mary", "John", "Patricia", "Robert", "Jennifer", "Michael", "Linda", "David",
+                "Elizabeth", "William", "Barbara", "Richard", "Susan", "Joseph", "Jessica", "Thomas", "Sarah",
+                "Priya", "Arjun", "Wei", "Fatima", "Carlos", "Yuki", "Olga", "Kwame", "Aisha", "Mateo"};
+        String[] last = {"Smith", "Johnson", "Williams", "Brown", "Jones", "Garcia", "Miller", "Davis", "Rodriguez",
+                "Martinez", "Hernandez", "Lopez", "Gonzalez", "Wilson", "Anderson", "Thomas", "Taylor", "Moore",
+                "Kumar", "Chen", "Nakamura", "Ivanova", "Mensah", "Okafor", "Silva", "Haddad", "Novak", "Rossi"};
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+        long buildStart = System.nanoTime();
+        CustomerSearchIndex index = new CustomerSearchIndex();
+        for (int id = 1; id <= count; id++) {
+            String firstName = first[random.nextInt(first.length)];
+            String lastName = last[random.nextInt(last.length)] + (random.nextInt(4) == 0 ? "-" + last[random.nextInt(last.length)] : "");
+            String email = (firstName + "." + lastName + id).toLowerCase() + "@example.com";
+            String phone = String.format("(%03d) %03d-%04d", random.nextInt(200, 999), random.nextInt(1000), random.nextInt(10000));
+            index.put(new Customer(id, firstName + " " + lastName, email, phone, null));
+        }
+        long buildMillis = (System.nanoTime() - buildStart) / 1_000_000;
+        System.gc();
+        long heapAfter = runtime.totalMemory() - runtime.freeMemory();
+        System.out.printf("customers=%,d  build=%d ms  heap=%.0f MB%n", count, buildMillis, (heapAfter - heapBefore) / 1e6);
+
+        String[] typed = {"Jennifer Rodriguez", "kumar", "okafor-ch", "555-01", "@example", "mary.sm", "Wei N"};
+        for (int round = 0; round < 3; round++) {
+            for (String full : typed) {
+                double worst = 0;
+                double total = 0;
+                int hits = 0;
+                for (int length = 1; length <= full.length(); length++) {
+                    long t0 = System.nanoTime();
+                    hits = index.search(full.substring(0, length), 20).size();
+                    double millis = (System.nanoTime() - t0) / 1e6;
+                    worst = Math.max(worst, millis);
+                    total += millis;
+                }
+                System.out.printf("round %d  %-20s  avg %.2f ms  worst %.2f ms  per keystroke  (%d results)%n",
+                        round, "\"" + full + "\"", total / full.length(), worst, hits);
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+// Per-customer purchase totals kept up to date inside each sale transaction, so CRMPanel
+// reads one row plus a handful of top products instead of scanning sales_history.
+public class CustomerStats {
+    private static final int TOP_PRODUCTS = 5;
+
+    // Till sales prepare these once per SaleWorker connection; the _AT form replays the journal
+    private static final String VISIT_UPSERT_NOW = visitUpsert("NOW()");
+    private static final String VISIT_UPSERT_AT = visitUpsert("?");
+    private static final String PRODUCT_UPSERT = "INSERT INTO customer_product_stats (customer_id, product_id, quantity, spend) "
+            + "VALUES (?, ?, ?, ?) ON DUPLICATE KEY UPDATE quantity = quantity + VALUES(quantity), spend = spend + VALUES(spend)";
+    private static final String CUSTOMER_EXISTS = "SELECT 1 FROM customers WHERE id = ?";
+
+    public record ProductTotal(int productId, long quantity, double spend) {
+    }
+
+    // firstVisit and lastVisit are null for a customer who has never bought anything
+    public record Summary(int customerId, double lifetimeSpend, long visits, long itemsBought,
+                          Timestamp firstVisit, Timestamp lastVisit, List<ProductTotal> topProducts) {
+    }
+
+    // Adds one basket (one visit) for the customer, now by the database clock, with the
+    // worker's prepared statements. Callers run SchemaMigrator.ensureMigrated() before opening
+    // their transaction.
+    public static void recordVisit(SaleWorker worker, int customerId, List<SaleJournal.Line> lines) throws SQLException {
+        PreparedStatement pstmt = worker.statement(VISIT_UPSERT_NOW);
+        bindVisit(pstmt, customerId, null, lines);
+        pstmt.executeUpdate();
+        PreparedStatement productStmt = worker.statement(PRODUCT_UPSERT);
+        bindProducts(productStmt, customerId, lines);
+        productStmt.executeBatch();
+    }
+
+    // Same, for a sale that happened at saleDate (null means now)
+    public static void recordVisit(Connection conn, int customerId, Timestamp saleDate, List<SaleJournal.Line> lines)
+            throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(saleDate == null ? VISIT_UPSERT_NOW : VISIT_UPSERT_AT)) {
+            bindVisit(pstmt, customerId, saleDate, lines);
+            pstmt.executeUpdate();
+        }
+        try (PreparedStatement pstmt = conn.prepareStatement(PRODUCT_UPSERT)) {
+            bindProducts(pstmt, customerId, lines);
+            pstmt.executeBatch();
+        }
+    }
+
+    private static String visitUpsert(String at) {
+        return "INSERT INTO customer_stats (customer_id, lifetime_spend, visit_count, items_bought, first_visit, last_visit) "
+                + "VALUES (?, ?, 1, ?, " + at + ", " + at + ") ON DUPLICATE KEY UPDATE "
+                + "lifetime_spend = lifetime_spend + VALUES(lifetime_spend), visit_count = visit_count + 1, "
+                + "items_bought = items_bought + VALUES(items_bought), first_visit = LEAST(first_visit, VALUES(first_visit)), "
+                + "last_visit = GREATEST(last_visit, VALUES(last_visit))";
+    }
+
+    private static void bindVisit(PreparedStatement pstmt, int customerId, Timestamp saleDate, List<SaleJournal.Line> lines)
+            throws SQLException {
+        double spend = 0;
+        int items = 0;
+        for (SaleJournal.Line line : lines) {
+            spend += line.totalPrice();
+            items += line.quantity();
+        }
+        pstmt.setInt(1, customerId);
+        pstmt.setDouble(2, spend);
+        pstmt.setInt(3, items);
+        if (saleDate != null) {
+            pstmt.setTimestamp(4, saleDate);
+            pstmt.setTimestamp(5, saleDate);
+        }
+    }
+
+    private static void bindProducts(PreparedStatement pstmt, int customerId, List<SaleJournal.Line> lines)
+            throws SQLException {
+        for (SaleJournal.Line line : lines) {
+            pstmt.setInt(1, customerId);
+            pstmt.setInt(2, line.productId());
+            pstmt.setInt(3, line.quantity());
+            pstmt.setDouble(4, line.totalPrice());
+            pstmt.addBatch();
+        }
+    }
+
+    // A sale may name a customer typed at the till; unknown ids are recorded as anonymous
+    public static boolean customerExists(SaleWorker worker, int customerId) throws SQLException {
+        PreparedStatement pstmt = worker.statement(CUSTOMER_EXISTS);
+        pstmt.setInt(1, customerId);
+        try (ResultSet rs = pstmt.executeQuery()) {
+            return rs.next();
+        }
+    }
+
+    public static boolean customerExists(Connection conn, int customerId) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(CUSTOMER_EXISTS)) {
+            pstmt.setInt(1, customerId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    // One primary-key read and one short index range, however long the customer's history
+    public static Summary load(Connection conn, int customerId) throws SQLException {
+        SchemaMigrator.ensureMigrated();
+        List<ProductTotal> topProducts = new ArrayList<>();
+        String topQuery = "SELECT product_id, quantity, spend FROM customer_product_stats WHERE customer_id = ? "
+                + "ORDER BY spend DESC LIMIT " + TOP_PRODUCTS;
+        try (PreparedStatement pstmt = conn.prepareStatement(topQuery)) {
+            pstmt.setInt(1, customerId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    topProducts.add(new ProductTotal(rs.getInt("product_id"), rs.getLong("quantity"), rs.getDouble("spend")));
+                }
+            }
+        }
+
+        String query = "SELECT lifetime_spend, visit_count, items_bought, first_visit, last_visit FROM customer_stats WHERE customer_id = ?";
+        try (PreparedStatement pstmt = conn.prepareStatement(query)) {
+            pstmt.setInt(1, customerId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {
+                    return new Summary(customerId, 0, 0, 0, null, null, topProducts);
+                }
+                return new Summary(customerId, rs.getDouble("lifetime_spend"), rs.getLong("visit_count"),
+                        rs.getLong("items_bought"), rs.getTimestamp("first_visit"), rs.getTimestamp("last_visit"), topProducts);
+            }
+        }
+    }
+}
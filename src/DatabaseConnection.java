@@ -3,11 +3,50 @@ import java.sql.DriverManager;
 import java.sql.SQLException;
 
 public class DatabaseConnection {
-    private static final String DB_URL = "jdbc:mysql://localhost:3306/shopping_system";  // Update your database name
+    private static final String DB_URL = "jdbc:mysql://localhost:3306/shopping_system"  // Update your database name
+            + "?rewriteBatchedStatements=true"  // Send JDBC batches as multi-row statements
+            + "&useServerPrepStmts=true&cachePrepStmts=true"  // Parse each statement once per connection
+            + "&prepStmtCacheSize=256&prepStmtCacheSqlLimit=4096";
     private static final String USER = "root";  // Your MySQL username
     private static final String PASSWORD = "";  // Your MySQL password
 
+    // Pool sizing; check getPoolStats() under load before changing these
+    private static final int POOL_MIN_SIZE = 2;
+    private static final int POOL_MAX_SIZE = 10;
+    private static final long CONNECTION_TIMEOUT_MS = 5_000;
+    private static final long IDLE_TIMEOUT_MS = 5 * 60_000;
+    private static final long LEAK_DETECTION_THRESHOLD_MS = 30_000;
+
+    private static final ConnectionPool POOL = createPool();
+
+    private static ConnectionPool createPool() {
+        ConnectionPool pool = new ConnectionPool(DB_URL, USER, PASSWORD, POOL_MIN_SIZE, POOL_MAX_SIZE,
+                CONNECTION_TIMEOUT_MS, IDLE_TIMEOUT_MS, LEAK_DETECTION_THRESHOLD_MS);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            System.out.println("Connection pool stats: " + pool.getStats());
+            pool.close();
+        }, "connection-pool-shutdown"));
+        return pool;
+    }
+
+    private static final SqlMonitor MONITOR = SqlMonitor.getInstance();
+
+    // Borrows a pooled connection; closing it hands it back to the pool. Statements run on it
+    // are timed by SqlMonitor unless that is switched off.
     public static Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(DB_URL, USER, PASSWORD);
+        long start = System.nanoTime();
+        Connection conn = POOL.getConnection();
+        MONITOR.recordAcquire(System.nanoTime() - start);
+        return MONITOR.wrap(conn);
+    }
+
+    // A connection of its own for a long-lived worker thread (see SaleWorker); not taken
+    // from the pool, so it never holds up the panels. The caller closes it.
+    public static Connection openDedicated() throws SQLException {
+        return MONITOR.wrap(DriverManager.getConnection(DB_URL, USER, PASSWORD));
+    }
+
+    public static ConnectionPool.Stats getPoolStats() {
+        return POOL.getStats();
     }
 }
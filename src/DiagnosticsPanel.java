@@ -0,0 +1,171 @@
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+
+// Live view of what the database is doing: latency per statement from SqlMonitor, the
+// connection pool, and the sale queue and journal. Refreshed every second while visible.
+public class DiagnosticsPanel extends JPanel {
+    private static final int REFRESH_MS = 1_000;
+
+    private final QueryTableModel tableModel = new QueryTableModel();
+    private final JLabel poolLabel = new JLabel(" ");
+    private final JLabel acquireLabel = new JLabel(" ");
+    private final JLabel salesLabel = new JLabel(" ");
+    private final JTextArea slowArea = new JTextArea(6, 40);
+    private final BackgroundLoader loader = new BackgroundLoader(this);
+
+    public DiagnosticsPanel() {
+        setLayout(new BorderLayout());
+
+        SqlMonitor monitor = SqlMonitor.getInstance();
+        JLabel titleLabel = new JLabel(monitor.isEnabled() ? "Database Diagnostics"
+                : "Database Diagnostics (statement timing is off: -Dsmartshop.sqlMonitor=false)", JLabel.CENTER);
+        titleLabel.setFont(new Font("Arial", Font.BOLD, 18));
+        titleLabel.setForeground(new Color(70, 130, 180));
+
+        JPanel statusPanel = new JPanel(new GridLayout(3, 1));
+        statusPanel.setBorder(BorderFactory.createEmptyBorder(5, 10, 5, 10));
+        statusPanel.add(poolLabel);
+        statusPanel.add(acquireLabel);
+        statusPanel.add(salesLabel);
+
+        JButton dumpButton = new JButton("Dump Flight Recording");
+        dumpButton.setEnabled(FlightEvents.isRecording());
+        dumpButton.addActionListener(e -> dumpRecording());
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttonPanel.add(dumpButton);
+        buttonPanel.add(loader.getStatusBar());
+
+        JPanel topPanel = new JPanel(new BorderLayout());
+        topPanel.add(titleLabel, BorderLayout.NORTH);
+        topPanel.add(statusPanel, BorderLayout.CENTER);
+        topPanel.add(buttonPanel, BorderLayout.EAST);
+        add(topPanel, BorderLayout.NORTH);
+
+        JTable queryTable = new JTable(tableModel);
+        queryTable.setFillsViewportHeight(true);
+        queryTable.setAutoResizeMode(JTable.AUTO_RESIZE_LAST_COLUMN);
+        queryTable.getColumnModel().getColumn(0).setPreferredWidth(420);
+        add(new JScrollPane(queryTable), BorderLayout.CENTER);
+
+        slowArea.setEditable(false);
+        slowArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        JScrollPane slowPane = new JScrollPane(slowArea);
+        slowPane.setBorder(BorderFactory.createTitledBorder(
+                "Slow queries (over " + monitor.slowQueryMillis() + " ms), newest first"));
+        add(slowPane, BorderLayout.SOUTH);
+
+        Timer timer = new Timer(REFRESH_MS, e -> {
+            if (isShowing()) {
+                refresh();
+            }
+        });
+        timer.start();
+        refresh();
+    }
+
+    private void refresh() {
+        ConnectionPool.Stats pool = DatabaseConnection.getPoolStats();
+        poolLabel.setText(String.format("Pool: %d active, %d idle, %d waiting (size %d-%d)  |  borrowed %,d, "
+                        + "timeouts %d, leaks %d, evicted %d, invalidated %d", pool.active(), pool.idle(), pool.waiting(),
+                pool.minSize(), pool.maxSize(), pool.borrowed(), pool.timeouts(), pool.leaks(), pool.evicted(),
+                pool.invalidated()));
+        LatencyHistogram.Window acquire = SqlMonitor.getInstance().acquireLatency();
+        acquireLabel.setText("Connection acquire (last " + acquire.spanSeconds() + " s at most): " + acquire.summary());
+
+        SalePipeline pipeline = SalePipeline.ifStarted();
+        SaleJournal journal = SaleJournal.ifOpen();
+        salesLabel.setText("Sale queue: " + (pipeline == null ? "not started" : pipeline.queuedSales() + " waiting")
+                + "  |  Journal: " + (journal == null ? "not open" : String.format("%,d bytes not yet applied",
+                journal.pendingBytes())));
+
+        tableModel.setRows(SqlMonitor.getInstance().snapshot());
+
+        StringBuilder slow = new StringBuilder();
+        for (SqlMonitor.SlowQuery query : SqlMonitor.getInstance().slowQueries()) {
+            slow.append(query).append('\n');
+        }
+        if (!slow.toString().equals(slowArea.getText())) {
+            slowArea.setText(slow.toString());
+            slowArea.setCaretPosition(0);
+        }
+    }
+
+    // Saves the last minutes of the continuous recording, to open in JDK Mission Control. The
+    // file can be tens of MB, so it is written off the EDT.
+    private void dumpRecording() {
+        loader.submit("dump", progress -> FlightEvents.dump(),
+                file -> JOptionPane.showMessageDialog(this, "Flight recording saved to\n" + file),
+                e -> {
+                    e.printStackTrace();
+                    JOptionPane.showMessageDialog(this, "Could not save the flight recording: " + e.getMessage(), "Error",
+                            JOptionPane.ERROR_MESSAGE);
+                });
+    }
+
+    // Percentiles are read once per refresh, not on every repaint
+    private static class QueryTableModel extends AbstractTableModel {
+        // Percentiles and max are over the recent window, the rest since startup
+        private static final String[] COLUMN_NAMES = {"Statement", "Calls", "Recent p50 ms", "Recent p99 ms",
+                "Recent max ms", "Total s", "Rows", "Errors"};
+
+        private record Row(String sql, long calls, double p50, double p99, double max, double totalSeconds,
+                           long rows, long errors) {
+        }
+
+        private List<Row> rows = new ArrayList<>();
+
+        void setRows(List<SqlMonitor.QueryStats> queries) {
+            List<Row> next = new ArrayList<>(queries.size());
+            for (SqlMonitor.QueryStats query : queries) {
+                LatencyHistogram.Window latency = query.latency();
+                next.add(new Row(query.sql(), query.calls(), latency.percentileNanos(50) / 1e6,
+                        latency.percentileNanos(99) / 1e6, latency.maxNanos() / 1e6, query.totalMillis() / 1e3,
+                        query.rows(), query.errors()));
+            }
+            rows = next;
+            fireTableDataChanged();
+        }
+
+        @Override
+        public int getRowCount() {
+            return rows.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMN_NAMES.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMN_NAMES[column];
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column) {
+            return switch (column) {
+                case 0 -> String.class;
+                case 1, 6, 7 -> Long.class;
+                default -> Double.class;
+            };
+        }
+
+        @Override
+        public Object getValueAt(int rowIndex, int columnIndex) {
+            Row row = rows.get(rowIndex);
+            return switch (columnIndex) {
+                case 0 -> row.sql();
+                case 1 -> row.calls();
+                case 2 -> row.p50();
+                case 3 -> row.p99();
+                case 4 -> row.max();
+                case 5 -> row.totalSeconds();
+                case 6 -> row.rows();
+                default -> row.errors();
+            };
+        }
+    }
+}
@@ -0,0 +1,149 @@
+import javax.swing.*;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// In-process bus for "something changed" notifications between tills and panels. Events may
+// be published from any thread. Each subscriber gets at most one delivery per debounce
+// window, on the EDT, carrying everything published since its last delivery merged together,
+// so a burst of sales costs a subscriber one refresh, not one per sale.
+public class EventBus {
+    private static final EventBus INSTANCE = new EventBus();
+
+    // Debounce for panels: two refreshes a second is plenty for someone watching a table
+    public static final long UI_REFRESH_MS = 500;
+
+    public sealed interface Event permits SaleCompleted, StockChanged, ProductEdited, LowStockReached {
+    }
+
+    // A basket was sold at a till in this process
+    public record SaleCompleted(Set<Integer> productIds, double total) implements Event {
+    }
+
+    // Stock levels moved (a sale, or a sale applied from the journal)
+    public record StockChanged(Set<Integer> productIds) implements Event {
+    }
+
+    // Product rows were added, edited or deleted, here or on another till
+    public record ProductEdited(Set<Integer> changedIds, Set<Integer> removedIds) implements Event {
+    }
+
+    // Products fell to or below their reorder level (see LowStockMonitor)
+    public record LowStockReached(Set<Integer> productIds) implements Event {
+    }
+
+    // Everything a subscriber missed since its last delivery. An id is in at most one of the
+    // two sets: once removed it is no longer reported as changed
+    public record Batch(int events, Set<Integer> changedIds, Set<Integer> removedIds, int sales, double salesTotal) {
+    }
+
+    public interface Subscriber {
+        void deliver(Batch batch);
+    }
+
+    public final class Subscription {
+        private final Set<Class<? extends Event>> types;
+        private final long debounceMillis;
+        private final Subscriber subscriber;
+        // Pending state; guarded by this
+        private int events = 0;
+        private Set<Integer> changedIds = new HashSet<>();
+        private Set<Integer> removedIds = new HashSet<>();
+        private int sales = 0;
+        private double salesTotal = 0;
+        private boolean scheduled = false;
+
+        private Subscription(Set<Class<? extends Event>> types, long debounceMillis, Subscriber subscriber) {
+            this.types = types;
+            this.debounceMillis = debounceMillis;
+            this.subscriber = subscriber;
+        }
+
+        private void accept(Event event) {
+            synchronized (this) {
+                events++;
+                if (event instanceof SaleCompleted sale) {
+                    sales++;
+                    salesTotal += sale.total();
+                    addChanged(sale.productIds());
+                } else if (event instanceof StockChanged stock) {
+                    addChanged(stock.productIds());
+                } else if (event instanceof LowStockReached lowStock) {
+                    addChanged(lowStock.productIds());
+                } else if (event instanceof ProductEdited edit) {
+                    addChanged(edit.changedIds());
+                    changedIds.removeAll(edit.removedIds());
+                    removedIds.addAll(edit.removedIds());
+                }
+                if (scheduled) {
+                    return;
+                }
+                scheduled = true;
+            }
+            scheduler.schedule(this::flush, debounceMillis, TimeUnit.MILLISECONDS);
+        }
+
+        private void addChanged(Set<Integer> ids) {
+            for (Integer id : ids) {
+                if (!removedIds.contains(id)) {
+                    changedIds.add(id);
+                }
+            }
+        }
+
+        private void flush() {
+            Batch batch;
+            synchronized (this) {
+                batch = new Batch(events, changedIds, removedIds, sales, salesTotal);
+                events = 0;
+                changedIds = new HashSet<>();
+                removedIds = new HashSet<>();
+                sales = 0;
+                salesTotal = 0;
+                scheduled = false;
+            }
+            SwingUtilities.invokeLater(() -> {
+                if (subscriptions.contains(this)) {
+                    subscriber.deliver(batch);
+                }
+            });
+        }
+
+        public void cancel() {
+            subscriptions.remove(this);
+        }
+    }
+
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "event-bus");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public static EventBus getInstance() {
+        return INSTANCE;
+    }
+
+    private EventBus() {
+    }
+
+    // The subscriber is called on the EDT with at most one batch per debounceMillis
+    public Subscription subscribe(Set<Class<? extends Event>> types, long debounceMillis, Subscriber subscriber) {
+        Subscription subscription = new Subscription(Set.copyOf(types), debounceMillis, subscriber);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    public void publish(Event event) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.types.contains(event.getClass())) {
+                subscription.accept(event);
+            }
+        }
+    }
+}
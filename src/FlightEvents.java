@@ -0,0 +1,156 @@
+import jdk.jfr.Category;
+import jdk.jfr.Configuration;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.Timespan;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+
+// Java Flight Recorder events for the operations a cashier or manager waits on, and the
+// continuous recording that keeps the last few minutes of them next to the JVM's own GC,
+// lock and I/O events. A recording dumped after a stall shows what the till was doing.
+//
+// The recording starts with the application (-Dsmartshop.jfr=false to skip it) using the
+// JDK's default profile plus smartshop.jfc, and can be dumped from the Diagnostics tab or
+// with: jcmd <pid> JFR.dump name=smartshop filename=stall.jfr
+// An event that is not being recorded costs a field store or two.
+public final class FlightEvents {
+    public static final String RECORDING_NAME = "smartshop";
+    private static final Duration MAX_AGE = Duration.ofMinutes(15);
+    private static final long MAX_SIZE_BYTES = 64L * 1024 * 1024;
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    private static Recording recording;
+
+    // From submit at the till to the result, so the duration is what the cashier waited
+    @Name("smartshop.Sale")
+    @Label("Sale")
+    @Category({"SmartShop", "Sales"})
+    @Description("One basket checked out through the sale pipeline")
+    public static final class Sale extends Event {
+        @Label("Customer Id")
+        @Description("-1 for an anonymous sale")
+        public int customerId = -1;
+
+        @Label("Lines")
+        public int lines;
+
+        @Label("Items")
+        @Description("Total quantity over all lines")
+        public int items;
+
+        @Label("Products")
+        @Description("product id x quantity for each line")
+        public String products;
+
+        @Label("Outcome")
+        public String outcome;
+
+        @Label("Group Size")
+        @Description("Baskets committed in the same transaction")
+        public int groupSize;
+
+        @Label("Queue Wait")
+        @Timespan
+        public long queueWait;
+
+        @Label("Database Time")
+        @Timespan
+        public long dbTime;
+    }
+
+    // From the reload being asked for to its rows being in the table
+    @Name("smartshop.ProductReload")
+    @Label("Product Reload")
+    @Category({"SmartShop", "UI"})
+    public static final class ProductReload extends Event {
+        @Label("Panel")
+        public String panel;
+
+        @Label("Part")
+        @Description("What was loaded: the catalog, the row count or a page")
+        public String part;
+
+        @Label("Rows")
+        public int rows;
+
+        @Label("Load Time")
+        @Description("Time spent off the event thread reading the rows")
+        @Timespan
+        public long loadTime;
+    }
+
+    @Name("smartshop.Report")
+    @Label("Report")
+    @Category({"SmartShop", "UI"})
+    public static final class Report extends Event {
+        @Label("Report")
+        public String report;
+
+        @Label("Source")
+        @Description("Where the figures came from: rollups or the in-memory column store")
+        public String source;
+
+        @Label("Succeeded")
+        public boolean succeeded;
+    }
+
+    private FlightEvents() {
+    }
+
+    // Starts the continuous recording once; failures are reported and otherwise ignored, as
+    // the till works the same without it
+    public static synchronized void startContinuous() {
+        if (recording != null || "false".equalsIgnoreCase(System.getProperty("smartshop.jfr"))) {
+            return;
+        }
+        try {
+            Map<String, String> settings = new HashMap<>(Configuration.getConfiguration("default").getSettings());
+            Path profile = Paths.get(System.getProperty("smartshop.jfr.settings", "smartshop.jfc"));
+            if (Files.exists(profile)) {
+                settings.putAll(Configuration.create(profile).getSettings());
+            } else {
+                // Without the profile our events still record with their built-in defaults
+                System.err.println("Flight recording: " + profile.toAbsolutePath() + " not found, using JDK defaults");
+            }
+            Recording continuous = new Recording(settings);
+            continuous.setName(RECORDING_NAME);
+            continuous.setToDisk(true);
+            continuous.setMaxAge(MAX_AGE);
+            continuous.setMaxSize(MAX_SIZE_BYTES);
+            continuous.start();
+            recording = continuous;
+        } catch (IOException | ParseException | RuntimeException e) {
+            System.err.println("Flight recording not started: " + e);
+        }
+    }
+
+    public static synchronized boolean isRecording() {
+        return recording != null;
+    }
+
+    // Writes what the continuous recording holds (up to MAX_AGE back) to recordings/ and
+    // returns the file
+    public static synchronized Path dump() throws IOException {
+        if (recording == null) {
+            throw new IOException("No flight recording is running (started with -Dsmartshop.jfr=false?)");
+        }
+        Path dir = Paths.get(System.getProperty("smartshop.jfr.dir", "recordings"));
+        Files.createDirectories(dir);
+        Path file = dir.resolve("smartshop-" + LocalDateTime.now().format(FILE_TIME) + ".jfr");
+        recording.dump(file);
+        return file.toAbsolutePath();
+    }
+}
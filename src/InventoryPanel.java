@@ -1,24 +1,25 @@
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.filechooser.FileNameExtensionFilter;
 import java.awt.*;
+import java.nio.file.Path;
 import java.sql.*;
+import java.util.List;
+import java.util.Set;
 
 public class InventoryPanel extends JPanel {
     private JTable inventoryTable;
-    private DefaultTableModel tableModel;
+    private PagedProductTableModel tableModel;
+    private final BackgroundLoader loader = new BackgroundLoader(this);
+    private final JLabel lowStockLabel = new JLabel(" ");
 
     public InventoryPanel() {
         setLayout(new BorderLayout());
         setBackground(new Color(240, 240, 240)); // Light background color for the panel
 
         // Table Model and Table
-        tableModel = new DefaultTableModel(new String[]{"ID", "Name", "Description", "Price", "Quantity", "Reorder Level"}, 0);
-        inventoryTable = new JTable(tableModel) {
-            // Customize the table for better visuals
-            public boolean isCellEditable(int row, int column) {
-                return false; // Make cells non-editable
-            }
-        };
+        // Rows are paged in from the database as they scroll into view
+        tableModel = new PagedProductTableModel();
+        inventoryTable = new JTable(tableModel);
 
         inventoryTable.setFont(new Font("Arial", Font.PLAIN, 14));
         inventoryTable.setRowHeight(30);
@@ -27,8 +28,27 @@ public class InventoryPanel extends JPanel {
         inventoryTable.getTableHeader().setForeground(Color.WHITE); // Header text color
         inventoryTable.setSelectionBackground(new Color(173, 216, 230)); // Selection background color
 
-        // Load data on initialization
-        loadInventoryData();
+        // Sales and edits, from this till or others, patch the rows already on screen
+        EventBus.getInstance().subscribe(Set.of(EventBus.StockChanged.class, EventBus.ProductEdited.class),
+                EventBus.UI_REFRESH_MS, batch -> {
+                    tableModel.applyDelta(batch.changedIds(), batch.removedIds());
+                    updateLowStockLabel(Set.of());
+                });
+        // Products that just fell to their reorder level are named until the next change
+        EventBus.getInstance().subscribe(Set.of(EventBus.LowStockReached.class), EventBus.UI_REFRESH_MS,
+                batch -> updateLowStockLabel(batch.changedIds()));
+
+        lowStockLabel.setFont(new Font("Arial", Font.BOLD, 14));
+        lowStockLabel.setForeground(new Color(178, 34, 34));
+        lowStockLabel.setBorder(BorderFactory.createEmptyBorder(5, 10, 5, 10));
+        updateLowStockLabel(Set.of());
+
+        // Sorting is done by the database, so clicking a header re-pages in that order
+        inventoryTable.getTableHeader().addMouseListener(new java.awt.event.MouseAdapter() {
+            public void mouseClicked(java.awt.event.MouseEvent evt) {
+                tableModel.sortBy(inventoryTable.columnAtPoint(evt.getPoint()));
+            }
+        });
 
         // Buttons for actions
         JPanel buttonPanel = new JPanel();
@@ -37,22 +57,84 @@ public class InventoryPanel extends JPanel {
         JButton addButton = new JButton("Add Product");
         JButton deleteButton = new JButton("Delete Product");
         JButton updateButton = new JButton("Update Product");
+        JButton importButton = new JButton("Import CSV");
+        JButton lowStockButton = new JButton("Low Stock");
 
         // Style buttons
         styleButton(addButton);
         styleButton(deleteButton);
         styleButton(updateButton);
+        styleButton(importButton);
+        styleButton(lowStockButton);
 
         addButton.addActionListener(e -> addProduct());
         deleteButton.addActionListener(e -> deleteProduct());
         updateButton.addActionListener(e -> updateProduct());
+        importButton.addActionListener(e -> importProducts());
+        lowStockButton.addActionListener(e -> showLowStock());
 
         buttonPanel.add(addButton);
         buttonPanel.add(deleteButton);
         buttonPanel.add(updateButton);
+        buttonPanel.add(importButton);
+        buttonPanel.add(lowStockButton);
 
+        JPanel southPanel = new JPanel(new BorderLayout());
+        southPanel.add(buttonPanel, BorderLayout.CENTER);
+        southPanel.add(loader.getStatusBar(), BorderLayout.SOUTH); // Saving status below the buttons
+
+        add(lowStockLabel, BorderLayout.NORTH);
         add(new JScrollPane(inventoryTable), BorderLayout.CENTER);
-        add(buttonPanel, BorderLayout.SOUTH);
+        add(southPanel, BorderLayout.SOUTH);
+    }
+
+    // The low-stock set is kept current by LowStockMonitor, so this is cheap to call often
+    private void updateLowStockLabel(Set<Integer> newlyLow) {
+        List<LowStockMonitor.Item> low = LowStockMonitor.getInstance().lowStock();
+        if (low.isEmpty()) {
+            lowStockLabel.setText("No products at or below their reorder level");
+            return;
+        }
+        StringBuilder text = new StringBuilder(low.size() + " product(s) at or below their reorder level");
+        if (!newlyLow.isEmpty()) {
+            text.append(" - just reached: ");
+            int shown = 0;
+            for (Integer productId : newlyLow) {
+                if (shown++ == 5) {
+                    text.append(", ...");
+                    break;
+                }
+                text.append(shown > 1 ? ", " : "").append(productName(productId));
+            }
+        }
+        lowStockLabel.setText(text.toString());
+    }
+
+    private void showLowStock() {
+        List<LowStockMonitor.Item> low = LowStockMonitor.getInstance().lowStock();
+        if (low.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "No products are at or below their reorder level.");
+            return;
+        }
+        StringBuilder report = new StringBuilder();
+        for (LowStockMonitor.Item item : low) {
+            report.append(String.format("%-30s available %5d  reorder level %5d%n", productName(item.productId()),
+                    item.available(), item.reorderLevel()));
+        }
+        JTextArea area = new JTextArea(report.toString(), Math.min(20, low.size() + 1), 70);
+        area.setEditable(false);
+        area.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        JOptionPane.showMessageDialog(this, new JScrollPane(area), "Low Stock (most urgent first)",
+                JOptionPane.WARNING_MESSAGE);
+    }
+
+    private static String productName(int productId) {
+        try {
+            ProductCatalog.Product product = ProductCatalog.getInstance().get(productId);
+            return product != null ? product.name() : "Product #" + productId;
+        } catch (SQLException e) {
+            return "Product #" + productId;  // Only reached before the catalog has loaded
+        }
     }
 
     private void styleButton(JButton button) {
@@ -73,25 +155,10 @@ public class InventoryPanel extends JPanel {
         });
     }
 
+    // The catalog picks the edit up at once and announces it, which updates this table and
+    // every till without waiting for the next poll
     private void loadInventoryData() {
-        try (Connection conn = DatabaseConnection.getConnection();
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery("SELECT * FROM products")) {
-
-            while (rs.next()) {
-                int id = rs.getInt("id");
-                String name = rs.getString("name");
-                String description = rs.getString("description");
-                double price = rs.getDouble("price");
-                int quantity = rs.getInt("quantity");
-                int reorderLevel = rs.getInt("reorder_level");
-
-                tableModel.addRow(new Object[]{id, name, description, price, quantity, reorderLevel});
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(this, "Error loading inventory data.");
-        }
+        ProductCatalog.getInstance().requestRefresh();
     }
 
     private void addProduct() {
@@ -101,25 +168,22 @@ public class InventoryPanel extends JPanel {
         String quantityStr = JOptionPane.showInputDialog(this, "Enter product quantity:");
         String reorderLevelStr = JOptionPane.showInputDialog(this, "Enter reorder level:");
 
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(
-                     "INSERT INTO products (name, description, price, quantity, reorder_level) VALUES (?, ?, ?, ?, ?)")) {
-
-            pstmt.setString(1, name);
-            pstmt.setString(2, description);
-            pstmt.setDouble(3, Double.parseDouble(priceStr));
-            pstmt.setInt(4, Integer.parseInt(quantityStr));
-            pstmt.setInt(5, Integer.parseInt(reorderLevelStr));
-            pstmt.executeUpdate();
-
+        loader.execute(progress -> {
+            try (Connection conn = DatabaseConnection.getConnection();
+                 PreparedStatement pstmt = conn.prepareStatement(
+                         "INSERT INTO products (name, description, price, quantity, reorder_level) VALUES (?, ?, ?, ?, ?)")) {
+
+                pstmt.setString(1, name);
+                pstmt.setString(2, description);
+                pstmt.setDouble(3, Double.parseDouble(priceStr));
+                pstmt.setInt(4, Integer.parseInt(quantityStr));
+                pstmt.setInt(5, Integer.parseInt(reorderLevelStr));
+                return pstmt.executeUpdate();
+            }
+        }, added -> {
             JOptionPane.showMessageDialog(this, "Product added successfully!");
-            tableModel.setRowCount(0); // Clear the table
             loadInventoryData(); // Reload data
-
-        } catch (SQLException e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(this, "Error adding product.");
-        }
+        }, "Error adding product.");
     }
 
     private void deleteProduct() {
@@ -129,21 +193,23 @@ public class InventoryPanel extends JPanel {
             return;
         }
 
+        if (!tableModel.isRowLoaded(selectedRow)) {
+            return;
+        }
         int productId = (int) tableModel.getValueAt(selectedRow, 0);
 
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement("DELETE FROM products WHERE id = ?")) {
-
-            pstmt.setInt(1, productId);
-            pstmt.executeUpdate();
+        loader.execute(progress -> {
+            try (Connection conn = DatabaseConnection.getConnection();
+                 PreparedStatement pstmt = conn.prepareStatement("DELETE FROM products WHERE id = ?")) {
 
+                pstmt.setInt(1, productId);
+                return pstmt.executeUpdate();
+            }
+        }, deleted -> {
             JOptionPane.showMessageDialog(this, "Product deleted successfully!");
-            tableModel.removeRow(selectedRow);
-
-        } catch (SQLException e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(this, "Error deleting product.");
-        }
+            ProductCatalog.getInstance().remove(productId);
+            loadInventoryData(); // Reload data
+        }, "Error deleting product.");
     }
 
     private void updateProduct() {
@@ -153,6 +219,9 @@ public class InventoryPanel extends JPanel {
             return;
         }
 
+        if (!tableModel.isRowLoaded(selectedRow)) {
+            return;
+        }
         int productId = (int) tableModel.getValueAt(selectedRow, 0);
         String name = JOptionPane.showInputDialog(this, "Enter new product name:", tableModel.getValueAt(selectedRow, 1));
         String description = JOptionPane.showInputDialog(this, "Enter new product description:", tableModel.getValueAt(selectedRow, 2));
@@ -160,25 +229,43 @@ public class InventoryPanel extends JPanel {
         String quantityStr = JOptionPane.showInputDialog(this, "Enter new product quantity:", tableModel.getValueAt(selectedRow, 4));
         String reorderLevelStr = JOptionPane.showInputDialog(this, "Enter new reorder level:", tableModel.getValueAt(selectedRow, 5));
 
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(
-                     "UPDATE products SET name = ?, description = ?, price = ?, quantity = ?, reorder_level = ? WHERE id = ?")) {
-
-            pstmt.setString(1, name);
-            pstmt.setString(2, description);
-            pstmt.setDouble(3, Double.parseDouble(priceStr));
-            pstmt.setInt(4, Integer.parseInt(quantityStr));
-            pstmt.setInt(5, Integer.parseInt(reorderLevelStr));
-            pstmt.setInt(6, productId);
-            pstmt.executeUpdate();
-
+        loader.execute(progress -> {
+            try (Connection conn = DatabaseConnection.getConnection();
+                 PreparedStatement pstmt = conn.prepareStatement(
+                         "UPDATE products SET name = ?, description = ?, price = ?, quantity = ?, reorder_level = ? WHERE id = ?")) {
+
+                pstmt.setString(1, name);
+                pstmt.setString(2, description);
+                pstmt.setDouble(3, Double.parseDouble(priceStr));
+                pstmt.setInt(4, Integer.parseInt(quantityStr));
+                pstmt.setInt(5, Integer.parseInt(reorderLevelStr));
+                pstmt.setInt(6, productId);
+                return pstmt.executeUpdate();
+            }
+        }, updated -> {
             JOptionPane.showMessageDialog(this, "Product updated successfully!");
-            tableModel.setRowCount(0); // Clear the table
             loadInventoryData(); // Reload data
+        }, "Error updating product.");
+    }
 
-        } catch (SQLException e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(this, "Error updating product.");
+    // Supplier catalogs: streamed in batches, so file size does not matter. Rows that fail
+    // validation are written next to the file instead of stopping the import.
+    private void importProducts() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setFileFilter(new FileNameExtensionFilter("CSV files", "csv"));
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
         }
+        Path csv = chooser.getSelectedFile().toPath();
+
+        loader.execute(progress -> new ProductImporter().importFile(csv, progress), result -> {
+            StringBuilder message = new StringBuilder(String.format("Imported %,d products in %.1f s.",
+                    result.imported(), result.millis() / 1000.0));
+            if (result.rejected() > 0) {
+                message.append(String.format("%n%,d rows were rejected; see %s", result.rejected(), result.rejectFile()));
+            }
+            JOptionPane.showMessageDialog(this, message.toString());
+            loadInventoryData(); // Reload data
+        }, "Error importing products.");
     }
 }
@@ -0,0 +1,258 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Drives the till's sale logic from N simulated terminals without any Swing, to find out how
+// many tills the system sustains. Each terminal builds a basket (product popularity Zipfian,
+// size uniform), checks it out exactly as POSPanel does, waits its think time and repeats.
+//
+//   java LoadGenerator [--terminals 16] [--duration 30] [--products 10000] [--zipf 1.0]
+//                      [--basket 1-5] [--think 0] [--stock 1000] [--pipeline] [--mysql]
+//
+// By default everything is local: a synthetic catalog and a private sale journal with no
+// drainer, so nothing needs a database. --mysql sells straight against the configured
+// database using its real products instead. --pipeline puts SalePipeline's group commit in
+// front, as the tills use it. Think time is exponential around the given mean in ms.
+public class LoadGenerator {
+    private static final long REPORT_INTERVAL_MS = 5_000;
+    private static final int LOCAL_JOURNAL_SIZE = 1 << 30;
+
+    private int terminals = 16;
+    private int durationSeconds = 30;
+    private int productCount = 10_000;
+    private double zipfExponent = 1.0;
+    private int minBasket = 1;
+    private int maxBasket = 5;
+    private double thinkMillis = 0;
+    private int stock = 1_000;
+    private boolean pipeline = false;
+    private boolean mysql = false;
+
+    // Counted by every terminal
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder sold = new LongAdder();
+    private final LongAdder outOfStock = new LongAdder();
+    private final LongAdder notFound = new LongAdder();
+    private final LongAdder busy = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder itemsSold = new LongAdder();
+
+    private int[] productIds;
+    private int[] initialStock;
+    // Quantity sold per product index, to check nothing was sold beyond the starting stock
+    private AtomicLongArray soldQuantity;
+    private double[] popularity;
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        generator.parse(args);
+        generator.run();
+        System.exit(0);
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String value = i + 1 < args.length ? args[i + 1] : "";
+            switch (args[i]) {
+                case "--terminals" -> { terminals = Integer.parseInt(value); i++; }
+                case "--duration" -> { durationSeconds = Integer.parseInt(value); i++; }
+                case "--products" -> { productCount = Integer.parseInt(value); i++; }
+                case "--zipf" -> { zipfExponent = Double.parseDouble(value); i++; }
+                case "--basket" -> {
+                    String[] range = value.split("-");
+                    minBasket = Integer.parseInt(range[0]);
+                    maxBasket = Integer.parseInt(range[range.length - 1]);
+                    i++;
+                }
+                case "--think" -> { thinkMillis = Double.parseDouble(value); i++; }
+                case "--stock" -> { stock = Integer.parseInt(value); i++; }
+                case "--pipeline" -> pipeline = true;
+                case "--mysql" -> mysql = true;
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        if (terminals < 1 || durationSeconds < 1 || minBasket < 1 || maxBasket < minBasket) {
+            throw new IllegalArgumentException("Invalid settings");
+        }
+    }
+
+    private void run() throws Exception {
+        SaleService service = mysql ? prepareMysql() : prepareLocal();
+        SalePipeline salePipeline = pipeline ? new SalePipeline(service, 32, 5, Math.max(256, terminals * 2)) : null;
+        soldQuantity = new AtomicLongArray(productIds.length);
+        popularity = zipfCdf(productIds.length, zipfExponent);
+
+        System.out.printf("terminals=%d  duration=%ds  products=%,d  zipf=%.2f  basket=%d-%d  think=%.1f ms  %s%s%n",
+                terminals, durationSeconds, productIds.length, zipfExponent, minBasket, maxBasket, thinkMillis,
+                mysql ? "mysql" : "local journal, stock " + stock, pipeline ? "  via pipeline" : "");
+
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(durationSeconds);
+        CountDownLatch done = new CountDownLatch(terminals);
+        for (int t = 0; t < terminals; t++) {
+            Thread terminal = new Thread(() -> {
+                try {
+                    terminalLoop(service, salePipeline, end);
+                } finally {
+                    done.countDown();
+                }
+            }, "terminal-" + (t + 1));
+            terminal.setDaemon(true);
+            terminal.start();
+        }
+
+        long lastSold = 0;
+        while (!done.await(REPORT_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+            long total = sold.sum();
+            System.out.printf("  %4.0fs  %,8.0f sales/s  %s%n", (System.nanoTime() - start) / 1e9,
+                    (total - lastSold) * 1000.0 / REPORT_INTERVAL_MS, latency.summary());
+            lastSold = total;
+        }
+        report((System.nanoTime() - start) / 1e9);
+    }
+
+    private SaleService prepareLocal() throws Exception {
+        productIds = new int[productCount];
+        initialStock = new int[productCount];
+        List<ProductCatalog.Product> products = new ArrayList<>(productCount);
+        for (int i = 0; i < productCount; i++) {
+            productIds[i] = i + 1;
+            initialStock[i] = stock;
+            products.add(new ProductCatalog.Product(i + 1, "Product " + (i + 1), "General", null, 1 + i % 100, stock, 10, 0));
+        }
+        ProductCatalog.getInstance().preload(products);
+
+        Path journalFile = Files.createTempFile("load-journal", ".dat");
+        journalFile.toFile().deleteOnExit();
+        return new SaleService(new SaleJournal(journalFile, LOCAL_JOURNAL_SIZE));
+    }
+
+    private SaleService prepareMysql() throws Exception {
+        List<ProductCatalog.Product> products = ProductCatalog.getInstance().getAll();
+        if (products.isEmpty()) {
+            throw new IllegalStateException("The products table is empty");
+        }
+        int count = Math.min(productCount, products.size());
+        productIds = new int[count];
+        initialStock = new int[count];
+        for (int i = 0; i < count; i++) {
+            productIds[i] = products.get(i).id();
+            initialStock[i] = products.get(i).quantity();
+        }
+        return new SaleService();
+    }
+
+    private void terminalLoop(SaleService service, SalePipeline salePipeline, long end) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (System.nanoTime() < end) {
+            int lines = random.nextInt(minBasket, maxBasket + 1);
+            List<SaleService.CartLine> basket = new ArrayList<>(lines);
+            for (int i = 0; i < lines; i++) {
+                basket.add(new SaleService.CartLine(productIds[pickProduct(random)], random.nextInt(1, 4)));
+            }
+
+            long t0 = System.nanoTime();
+            try {
+                SaleService.CheckoutResult result;
+                if (salePipeline == null) {
+                    result = service.checkout(basket);
+                } else {
+                    CompletableFuture<SaleService.CheckoutResult> sale = salePipeline.submit(null, basket);
+                    if (sale == null) {
+                        // Refused like at a real till; back off briefly instead of spinning
+                        busy.increment();
+                        TimeUnit.MILLISECONDS.sleep(1);
+                        continue;
+                    }
+                    result = sale.get();
+                }
+                latency.record(System.nanoTime() - t0);
+                count(result);
+            } catch (Exception e) {
+                latency.record(System.nanoTime() - t0);
+                errors.increment();
+            }
+
+            if (thinkMillis > 0) {
+                long pause = (long) (-Math.log(1 - random.nextDouble()) * thinkMillis * 1_000_000);
+                try {
+                    TimeUnit.NANOSECONDS.sleep(Math.min(pause, end - System.nanoTime()));
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void count(SaleService.CheckoutResult result) {
+        switch (result.status()) {
+            case OK -> {
+                sold.increment();
+                for (SaleService.SaleResult line : result.lines()) {
+                    itemsSold.add(line.quantity());
+                    int index = Arrays.binarySearch(productIds, line.productId());
+                    if (index >= 0) {
+                        soldQuantity.addAndGet(index, line.quantity());
+                    }
+                }
+            }
+            case INSUFFICIENT_STOCK -> outOfStock.increment();
+            case NOT_FOUND -> notFound.increment();
+        }
+    }
+
+    private void report(double seconds) throws Exception {
+        long oversold = 0;
+        for (int i = 0; i < productIds.length; i++) {
+            oversold += Math.max(0, soldQuantity.get(i) - initialStock[i]);
+        }
+        long attempts = sold.sum() + outOfStock.sum() + notFound.sum() + errors.sum() + busy.sum();
+
+        System.out.println();
+        System.out.printf("Throughput:   %,.0f sales/s  (%,.0f items/s) over %.1f s%n", sold.sum() / seconds,
+                itemsSold.sum() / seconds, seconds);
+        System.out.printf("Latency:      %s%n", latency.summary());
+        System.out.printf("Checkouts:    %,d sold, %,d out of stock, %,d not found, %,d busy, %,d failed%n",
+                sold.sum(), outOfStock.sum(), notFound.sum(), busy.sum(), errors.sum());
+        System.out.printf("Error rate:   %.3f%%%n", attempts == 0 ? 0 : errors.sum() * 100.0 / attempts);
+        System.out.printf("Oversold:     %,d items beyond starting stock%n", oversold);
+        if (mysql) {
+            try (Connection conn = DatabaseConnection.getConnection();
+                 Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM products WHERE quantity < 0")) {
+                rs.next();
+                System.out.printf("Negative stock rows in products: %d%n", rs.getInt(1));
+            }
+        }
+    }
+
+    // Product productIds[i] is picked with probability proportional to 1 / (i + 1)^s
+    private int pickProduct(ThreadLocalRandom random) {
+        int index = Arrays.binarySearch(popularity, random.nextDouble());
+        return Math.min(index >= 0 ? index : -index - 1, popularity.length - 1);
+    }
+
+    private static double[] zipfCdf(int n, double exponent) {
+        double[] cdf = new double[n];
+        double total = 0;
+        for (int i = 0; i < n; i++) {
+            total += 1 / Math.pow(i + 1, exponent);
+            cdf[i] = total;
+        }
+        for (int i = 0; i < n; i++) {
+            cdf[i] /= total;
+        }
+        return cdf;
+    }
+}
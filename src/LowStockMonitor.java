@@ -0,0 +1,329 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+// Keeps every product's reorder margin, available - reorder_level, in an indexed min-heap,
+// so a stock change costs O(log n) and the low-stock set (margin <= 0, i.e. at or below the
+// reorder level) is read off the top of the heap without scanning the catalog. Available is
+// products.quantity less the units sold through the sale journal but not yet applied, so a
+// till's sale counts the moment it is journaled.
+//
+// Fed by ProductCatalog (quantity and reorder level) and SaleJournal (pending units). A
+// product crossing the threshold in either direction is reported to the listeners on the
+// thread that made the change, and newly low products are announced on the EventBus.
+public class LowStockMonitor {
+    private static final LowStockMonitor INSTANCE = new LowStockMonitor();
+
+    public record Item(int productId, int available, int reorderLevel) {
+        public int margin() {
+            return available - reorderLevel;
+        }
+    }
+
+    // One product crossing its reorder level: low is true when it fell to or below it, false
+    // when it was restocked above it
+    public record Alert(Item item, boolean low) {
+    }
+
+    private static final class Slot {
+        final int productId;
+        int quantity;
+        int pending;
+        int reorderLevel;
+        int index;
+
+        Slot(int productId) {
+            this.productId = productId;
+        }
+
+        int margin() {
+            return quantity - pending - reorderLevel;
+        }
+
+        Item item() {
+            return new Item(productId, quantity - pending, reorderLevel);
+        }
+    }
+
+    // All guarded by this
+    private final Map<Integer, Slot> slots = new HashMap<>();
+    private Slot[] heap = new Slot[64];
+    private int size = 0;
+    // Units journaled for products the catalog has not loaded yet
+    private final Map<Integer, Integer> orphanPending = new HashMap<>();
+    private int holds = 0;
+    // While alerts are held: whether each touched product was low before the hold
+    private final Map<Integer, Boolean> heldFrom = new LinkedHashMap<>();
+
+    private final List<Consumer<List<Alert>>> listeners = new CopyOnWriteArrayList<>();
+
+    public static LowStockMonitor getInstance() {
+        return INSTANCE;
+    }
+
+    private LowStockMonitor() {
+    }
+
+    // Called with the alerts of one change, never while the monitor is locked
+    public void addListener(Consumer<List<Alert>> listener) {
+        listeners.add(listener);
+    }
+
+    // Replaces everything with the catalog's rows in O(n), without alerts: on a full reload
+    // there is no previous state to have crossed from. Journaled units are kept.
+    public void reset(Collection<ProductCatalog.Product> products) {
+        synchronized (this) {
+            Map<Integer, Integer> pending = new HashMap<>(orphanPending);
+            for (Slot slot : slots.values()) {
+                if (slot.pending != 0) {
+                    pending.put(slot.productId, slot.pending);
+                }
+            }
+            slots.clear();
+            orphanPending.clear();
+            heldFrom.clear();
+            heap = new Slot[Math.max(64, Integer.highestOneBit(Math.max(1, products.size())) << 1)];
+            size = 0;
+            for (ProductCatalog.Product product : products) {
+                Slot slot = new Slot(product.id());
+                slot.quantity = product.quantity();
+                slot.reorderLevel = product.reorderLevel();
+                Integer units = pending.remove(product.id());
+                slot.pending = units == null ? 0 : units;
+                slot.index = size;
+                heap[size++] = slot;
+                slots.put(slot.productId, slot);
+            }
+            orphanPending.putAll(pending);
+            for (int i = size / 2 - 1; i >= 0; i--) {
+                siftDown(i);
+            }
+        }
+    }
+
+    // A product row was loaded or changed
+    public void productChanged(ProductCatalog.Product product) {
+        List<Alert> alerts = new ArrayList<>(1);
+        synchronized (this) {
+            Slot slot = slots.get(product.id());
+            if (slot == null) {
+                slot = new Slot(product.id());
+                Integer units = orphanPending.remove(product.id());
+                slot.pending = units == null ? 0 : units;
+                slot.quantity = product.quantity();
+                slot.reorderLevel = product.reorderLevel();
+                insert(slot);
+                // A product that arrives already low is as actionable as one that fell there
+                check(slot, false, alerts);
+            } else {
+                boolean wasLow = slot.margin() <= 0;
+                int before = slot.margin();
+                slot.quantity = product.quantity();
+                slot.reorderLevel = product.reorderLevel();
+                reposition(slot, before);
+                check(slot, wasLow, alerts);
+            }
+        }
+        fire(alerts);
+    }
+
+    public void productRemoved(int productId) {
+        synchronized (this) {
+            Slot slot = slots.remove(productId);
+            if (slot == null) {
+                return;
+            }
+            heldFrom.remove(productId);
+            Slot last = heap[--size];
+            heap[size] = null;
+            if (last != slot) {
+                heap[slot.index] = last;
+                last.index = slot.index;
+                // The moved slot may belong above or below the hole; at most one of these moves it
+                siftUp(last.index);
+                siftDown(last.index);
+            }
+        }
+    }
+
+    // Units of the product went into (positive) or out of (negative) the sale journal
+    public void pendingChanged(int productId, int delta) {
+        List<Alert> alerts = new ArrayList<>(1);
+        synchronized (this) {
+            Slot slot = slots.get(productId);
+            if (slot == null) {
+                orphanPending.merge(productId, delta, (a, b) -> a + b == 0 ? null : a + b);
+                return;
+            }
+            boolean wasLow = slot.margin() <= 0;
+            int before = slot.margin();
+            slot.pending += delta;
+            reposition(slot, before);
+            check(slot, wasLow, alerts);
+        }
+        fire(alerts);
+    }
+
+    // Alerts for changes made until the matching releaseAlerts() are decided only then, on the
+    // net change. Used where one logical update arrives in two steps, such as the journal
+    // drainer refreshing quantities before releasing the pending units they replace, so the
+    // moment in between does not raise and clear an alert.
+    public synchronized void holdAlerts() {
+        holds++;
+    }
+
+    public void releaseAlerts() {
+        List<Alert> alerts = new ArrayList<>();
+        synchronized (this) {
+            if (holds == 0 || --holds > 0) {
+                return;
+            }
+            for (Map.Entry<Integer, Boolean> touched : heldFrom.entrySet()) {
+                Slot slot = slots.get(touched.getKey());
+                if (slot != null) {
+                    check(slot, touched.getValue(), alerts);
+                }
+            }
+            heldFrom.clear();
+        }
+        fire(alerts);
+    }
+
+    // Everything at or below its reorder level, most urgent (lowest margin) first. Only the
+    // low part of the heap is visited, so this costs O(k log k) for k low products.
+    public synchronized List<Item> lowStock() {
+        List<Slot> low = new ArrayList<>();
+        int[] stack = new int[32];
+        int top = 0;
+        if (size > 0) {
+            stack[top++] = 0;
+        }
+        while (top > 0) {
+            int i = stack[--top];
+            if (heap[i].margin() > 0) {
+                continue;  // Nothing below a slot with a positive margin can be low
+            }
+            low.add(heap[i]);
+            for (int child = 2 * i + 1; child <= 2 * i + 2 && child < size; child++) {
+                if (top == stack.length) {
+                    stack = Arrays.copyOf(stack, top * 2);
+                }
+                stack[top++] = child;
+            }
+        }
+        low.sort((a, b) -> a.margin() != b.margin() ? Integer.compare(a.margin(), b.margin())
+                : Integer.compare(a.productId, b.productId));
+        List<Item> items = new ArrayList<>(low.size());
+        for (Slot slot : low) {
+            items.add(slot.item());
+        }
+        return items;
+    }
+
+    // The product closest to (or furthest below) its reorder level, or null if none is known
+    public synchronized Item mostUrgent() {
+        return size == 0 ? null : heap[0].item();
+    }
+
+    public synchronized Item get(int productId) {
+        Slot slot = slots.get(productId);
+        return slot == null ? null : slot.item();
+    }
+
+    private void check(Slot slot, boolean wasLow, List<Alert> alerts) {
+        if (holds > 0) {
+            heldFrom.putIfAbsent(slot.productId, wasLow);
+            return;
+        }
+        boolean low = slot.margin() <= 0;
+        if (low != wasLow) {
+            alerts.add(new Alert(slot.item(), low));
+        }
+    }
+
+    private void fire(List<Alert> alerts) {
+        if (alerts.isEmpty()) {
+            return;
+        }
+        Set<Integer> newlyLow = new HashSet<>();
+        for (Alert alert : alerts) {
+            if (alert.low()) {
+                newlyLow.add(alert.item().productId());
+            }
+        }
+        if (!newlyLow.isEmpty()) {
+            EventBus.getInstance().publish(new EventBus.LowStockReached(newlyLow));
+        }
+        for (Consumer<List<Alert>> listener : listeners) {
+            listener.accept(alerts);
+        }
+    }
+
+    private void insert(Slot slot) {
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, size * 2);
+        }
+        slot.index = size;
+        heap[size++] = slot;
+        slots.put(slot.productId, slot);
+        siftUp(slot.index);
+    }
+
+    private void reposition(Slot slot, int marginBefore) {
+        if (slot.margin() < marginBefore) {
+            siftUp(slot.index);
+        } else if (slot.margin() > marginBefore) {
+            siftDown(slot.index);
+        }
+    }
+
+    private boolean less(Slot a, Slot b) {
+        int ma = a.margin();
+        int mb = b.margin();
+        return ma != mb ? ma < mb : a.productId < b.productId;
+    }
+
+    private void siftUp(int i) {
+        Slot slot = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!less(slot, heap[parent])) {
+                break;
+            }
+            heap[i] = heap[parent];
+            heap[i].index = i;
+            i = parent;
+        }
+        heap[i] = slot;
+        slot.index = i;
+    }
+
+    private void siftDown(int i) {
+        Slot slot = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && less(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!less(heap[child], slot)) {
+                break;
+            }
+            heap[i] = heap[child];
+            heap[i].index = i;
+            i = child;
+        }
+        heap[i] = slot;
+        slot.index = i;
+    }
+}
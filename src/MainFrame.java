@@ -1,7 +1,43 @@
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
 
 public class MainFrame extends JFrame {
+    // Started when login succeeds; startup times below are measured from here
+    private final long startNanos = System.nanoTime();
+    private final JTabbedPane tabbedPane;
+    private final List<LazyTab> lazyTabs = new ArrayList<>();
+    private final JLabel statusLabel = new JLabel(" ");
+
+    // A tab whose panel is only constructed the first time it is needed
+    private static class LazyTab extends JPanel {
+        private final Supplier<? extends JComponent> factory;
+        private boolean built = false;
+
+        LazyTab(Supplier<? extends JComponent> factory) {
+            super(new BorderLayout());
+            this.factory = factory;
+        }
+
+        void build() {
+            if (built) {
+                return;
+            }
+            built = true;
+            add(factory.get(), BorderLayout.CENTER);
+            revalidate();
+            repaint();
+        }
+    }
 
     public MainFrame(String role) {
         // Set the title and default close operation
@@ -13,7 +49,7 @@ public class MainFrame extends JFrame {
         setLocationRelativeTo(null);
 
         // Create a tabbed pane to switch between different panels
-        JTabbedPane tabbedPane = new JTabbedPane();
+        tabbedPane = new JTabbedPane();
 
         // Customize the tab appearance
         tabbedPane.setFont(new Font("Arial", Font.BOLD, 16));
@@ -23,25 +59,101 @@ public class MainFrame extends JFrame {
         // Role-specific panel assignment
         configureRolePanels(role, tabbedPane);
 
+        // A tab's panel, and whatever it loads, is only built when the tab is first selected
+        tabbedPane.addChangeListener(e -> buildTab(tabbedPane.getSelectedIndex()));
+        buildTab(tabbedPane.getSelectedIndex());
+
         // Add the tabbed pane to the main frame
         add(tabbedPane);
+
+        statusLabel.setBorder(BorderFactory.createEmptyBorder(2, 8, 2, 8));
+        statusLabel.setFont(new Font("Arial", Font.PLAIN, 12));
+        add(statusLabel, BorderLayout.SOUTH);
+
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowOpened(WindowEvent e) {
+                long firstWindowMillis = elapsedMillis();
+                System.out.println("Startup: first usable window after " + firstWindowMillis + " ms");
+                statusLabel.setText("Ready in " + firstWindowMillis + " ms, loading data...");
+                prefetch(firstWindowMillis);
+            }
+        });
+    }
+
+    private void buildTab(int index) {
+        if (index >= 0 && index < lazyTabs.size()) {
+            lazyTabs.get(index).build();
+        }
+    }
+
+    private void addLazyTab(String title, Supplier<? extends JComponent> factory) {
+        LazyTab tab = new LazyTab(factory);
+        lazyTabs.add(tab);
+        tabbedPane.addTab(title, tab);
+    }
+
+    // Right after the window is up: warm the shared catalog and report caches in parallel.
+    // Only data is prefetched; hidden tabs stay unbuilt, so a tab nobody opens (the customer
+    // index behind CRM, say) costs nothing. The report query waits for the schema migration
+    // itself, so it can start alongside it.
+    private void prefetch(long firstWindowMillis) {
+        ExecutorService prefetchPool = Executors.newFixedThreadPool(2, r -> {
+            Thread t = new Thread(r, "startup-prefetch");
+            t.setDaemon(true);
+            return t;
+        });
+        CompletableFuture<Void> warmup = CompletableFuture.allOf(
+                CompletableFuture.runAsync(this::warmSchemaAndCatalog, prefetchPool),
+                CompletableFuture.runAsync(this::warmReports, prefetchPool));
+        warmup.whenComplete((ignored, error) -> {
+            prefetchPool.shutdown();
+            long allLoadedMillis = elapsedMillis();
+            System.out.println("Startup: data prefetched after " + allLoadedMillis + " ms");
+            SwingUtilities.invokeLater(() -> statusLabel.setText("Ready in " + firstWindowMillis
+                    + " ms, all data loaded in " + allLoadedMillis + " ms"));
+        });
+    }
+
+    private void warmSchemaAndCatalog() {
+        try {
+            // Bring the database schema up to date before the caches read it
+            SchemaMigrator.ensureMigrated();
+            ProductCatalog.getInstance().refresh();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this,
+                    "Database startup failed: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE));
+        }
+        // Keep the shared product catalog current in the background
+        ProductCatalog.getInstance().startPolling();
+    }
+
+    private void warmReports() {
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            SalesRollups.query(conn, SalesRollups.Period.ALL_TIME);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private long elapsedMillis() {
+        return (System.nanoTime() - startNanos) / 1_000_000;
     }
 
     private void configureRolePanels(String role, JTabbedPane tabbedPane) {
         if (role.equalsIgnoreCase("Manager")) {
-            tabbedPane.addTab("Inventory Management", new InventoryPanel());
-            tabbedPane.addTab("Supplier Management", new SupplierPanel());
-            tabbedPane.addTab("Analytics & Reporting", new AnalyticsPanel());
-            tabbedPane.addTab("Staff Management", new StaffPanel());
+            addLazyTab("Inventory Management", InventoryPanel::new);
+            addLazyTab("Supplier Management", SupplierPanel::new);
+            addLazyTab("Analytics & Reporting", AnalyticsPanel::new);
+            addLazyTab("Staff Management", StaffPanel::new);
+            addLazyTab("Diagnostics", DiagnosticsPanel::new);
         } else if (role.equalsIgnoreCase("Seller")) {
-            // Create shared panels for better integration
-            ProductListPanel productListPanel = new ProductListPanel();
-            AnalyticsPanel analyticsPanel = new AnalyticsPanel();
-
-            tabbedPane.addTab("Available Products", productListPanel);
-            tabbedPane.addTab("POS System", new POSPanel(productListPanel, analyticsPanel));
-            tabbedPane.addTab("Sales Analytics", analyticsPanel);
-            tabbedPane.addTab("Customer Management", new CRMPanel());
+            addLazyTab("Available Products", ProductListPanel::new);
+            addLazyTab("POS System", POSPanel::new);
+            addLazyTab("Sales Analytics", AnalyticsPanel::new);
+            addLazyTab("Customer Management", CRMPanel::new);
+            addLazyTab("Diagnostics", DiagnosticsPanel::new);
         } else {
             JOptionPane.showMessageDialog(this, "Invalid role: " + role, "Error", JOptionPane.ERROR_MESSAGE);
             System.exit(0); // Exit if an invalid role is detected
@@ -49,6 +161,9 @@ public class MainFrame extends JFrame {
     }
 
     public static void main(String[] args) {
+        // Keep the last minutes of flight recorder data in case a till stalls
+        FlightEvents.startContinuous();
+
         SwingUtilities.invokeLater(() -> {
             // Display login screen
             showLoginScreen();
@@ -1,27 +1,28 @@
 import javax.swing.*;
 import java.awt.*;
-import java.sql.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 public class POSPanel extends JPanel {
     private JTextField productIdField;
     private JTextField quantityField;
+    private JTextField customerIdField;
     private JTextArea receiptArea;
-    private ExecutorService executorService;
-    private ProductListPanel productListPanel;
-    private AnalyticsPanel analyticsPanel;
-
-    public POSPanel(ProductListPanel productListPanel, AnalyticsPanel analyticsPanel) {
-        this.productListPanel = productListPanel;
-        this.analyticsPanel = analyticsPanel;
+    private DefaultListModel<String> cartListModel;
+    private final List<SaleService.CartLine> cartLines = new ArrayList<>();
+    private JButton checkoutButton;
+    private final SalePipeline salePipeline = SalePipeline.getInstance();
 
+    // Product and analytics tabs update themselves from the sale events this till publishes
+    public POSPanel() {
         setLayout(new BorderLayout());
         setBackground(new Color(240, 240, 240));
 
-        // Initialize executor service
-        executorService = Executors.newSingleThreadExecutor();
-
         // Input Panel
         JPanel inputPanel = createInputPanel();
 
@@ -33,16 +34,29 @@ public class POSPanel extends JPanel {
         receiptArea.setBorder(BorderFactory.createLineBorder(new Color(200, 200, 200)));
 
         JScrollPane scrollPane = new JScrollPane(receiptArea);
-        scrollPane.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        scrollPane.setBorder(BorderFactory.createTitledBorder("Receipt"));
+
+        // Cart Area: lines scanned so far, sold together on checkout
+        cartListModel = new DefaultListModel<>();
+        JList<String> cartList = new JList<>(cartListModel);
+        cartList.setFont(new Font("Monospaced", Font.PLAIN, 14));
+        JScrollPane cartScrollPane = new JScrollPane(cartList);
+        cartScrollPane.setBorder(BorderFactory.createTitledBorder("Cart"));
+
+        JPanel centerPanel = new JPanel(new GridLayout(1, 2, 10, 10));
+        centerPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        centerPanel.setOpaque(false);
+        centerPanel.add(cartScrollPane);
+        centerPanel.add(scrollPane);
 
         // Add components to the main panel
         add(inputPanel, BorderLayout.NORTH);
-        add(scrollPane, BorderLayout.CENTER);
+        add(centerPanel, BorderLayout.CENTER);
     }
 
     private JPanel createInputPanel() {
         JPanel inputPanel = new JPanel();
-        inputPanel.setLayout(new GridLayout(3, 2, 10, 10));
+        inputPanel.setLayout(new GridLayout(5, 2, 10, 10));
         inputPanel.setBackground(Color.WHITE);
         inputPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
 
@@ -52,18 +66,35 @@ public class POSPanel extends JPanel {
         JLabel quantityLabel = new JLabel("Quantity:");
         quantityLabel.setFont(new Font("Arial", Font.PLAIN, 14));
 
+        // Optional: leave blank for a walk-in customer
+        JLabel customerIdLabel = new JLabel("Customer ID:");
+        customerIdLabel.setFont(new Font("Arial", Font.PLAIN, 14));
+
         productIdField = new JTextField();
         quantityField = new JTextField();
+        customerIdField = new JTextField();
 
-        JButton addToCartButton = new JButton("Sell Product");
+        JButton addToCartButton = new JButton("Add to Cart");
         styleButton(addToCartButton);
         addToCartButton.addActionListener(e -> addToCart());
 
+        JButton clearCartButton = new JButton("Clear Cart");
+        styleButton(clearCartButton);
+        clearCartButton.addActionListener(e -> clearCart());
+
+        checkoutButton = new JButton("Checkout");
+        styleButton(checkoutButton);
+        checkoutButton.addActionListener(e -> checkout());
+
         inputPanel.add(productIdLabel);
         inputPanel.add(productIdField);
         inputPanel.add(quantityLabel);
         inputPanel.add(quantityField);
+        inputPanel.add(customerIdLabel);
+        inputPanel.add(customerIdField);
         inputPanel.add(addToCartButton);
+        inputPanel.add(clearCartButton);
+        inputPanel.add(checkoutButton);
 
         return inputPanel;
     }
@@ -82,7 +113,60 @@ public class POSPanel extends JPanel {
 
         if (!validateInput(productId, quantity)) return;
 
-        executorService.submit(() -> processSale(Integer.parseInt(productId), Integer.parseInt(quantity)));
+        SaleService.CartLine line = new SaleService.CartLine(Integer.parseInt(productId), Integer.parseInt(quantity));
+
+        // Scanning is a catalog lookup only; stock is checked atomically at checkout
+        ProductCatalog.Product product;
+        try {
+            product = ProductCatalog.getInstance().get(line.productId());
+        } catch (SQLException e) {
+            e.printStackTrace();
+            showErrorMessage("Database error: " + e.getMessage());
+            return;
+        }
+        if (product == null) {
+            JOptionPane.showMessageDialog(this, "Product not found.", "Validation Error", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+
+        cartLines.add(line);
+        cartListModel.addElement(String.format("%s  x%d  $%.2f", product.name(), line.quantity(), product.price() * line.quantity()));
+
+        productIdField.setText("");
+        quantityField.setText("");
+        productIdField.requestFocusInWindow();
+    }
+
+    private void clearCart() {
+        cartLines.clear();
+        cartListModel.clear();
+        customerIdField.setText("");
+    }
+
+    private void checkout() {
+        if (cartLines.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "The cart is empty.", "Validation Error", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+
+        String customerId = customerIdField.getText().trim();
+        if (!customerId.isEmpty() && !isNumeric(customerId)) {
+            JOptionPane.showMessageDialog(this, "Customer ID must be numeric.", "Validation Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        // Sell a snapshot so scanning can't change the basket while it is being committed
+        List<SaleService.CartLine> basket = List.copyOf(cartLines);
+        CompletableFuture<SaleService.CheckoutResult> sale = salePipeline.submit(
+                customerId.isEmpty() ? null : Integer.valueOf(customerId), basket);
+        if (sale == null) {
+            // Every till is checking out at once; keep the cart and let the cashier retry
+            JOptionPane.showMessageDialog(this, "The system is busy, please try again in a moment.",
+                    "Busy", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        checkoutButton.setEnabled(false);
+        sale.whenComplete((result, error) -> processCheckout(basket, customerId, result, error));
     }
 
     private boolean validateInput(String productId, String quantity) {
@@ -96,87 +180,77 @@ public class POSPanel extends JPanel {
             return false;
         }
 
+        if (Integer.parseInt(quantity) < 1) {
+            JOptionPane.showMessageDialog(this, "Quantity must be at least 1.", "Validation Error", JOptionPane.ERROR_MESSAGE);
+            return false;
+        }
+
         return true;
     }
 
-    private void processSale(int productId, int quantity) {
-        try (Connection conn = DatabaseConnection.getConnection()) {
-            conn.setAutoCommit(false);
-
-            String query = "SELECT * FROM products WHERE id = ?";
-            try (PreparedStatement pstmt = conn.prepareStatement(query)) {
-                pstmt.setInt(1, productId);
-                ResultSet rs = pstmt.executeQuery();
-
-                if (rs.next()) {
-                    String name = rs.getString("name");
-                    double price = rs.getDouble("price");
-                    int availableQuantity = rs.getInt("quantity");
-
-                    if (quantity > availableQuantity) {
-                        showErrorMessage("Not enough stock available.");
-                        conn.rollback();
-                        return;
-                    }
-
-                    double totalPrice = price * quantity;
-
-                    // Update receipt
-                    SwingUtilities.invokeLater(() -> updateReceipt(name, quantity, totalPrice));
-
-                    // Reduce stock in the database
-                    updateStock(conn, productId, quantity);
-
-                    // Log sale in sales_history
-                    logSale(conn, productId, quantity, totalPrice);
-
-                    // Commit transaction
-                    conn.commit();
+    private void processCheckout(List<SaleService.CartLine> basket, String customerId,
+                                 SaleService.CheckoutResult result, Throwable error) {
+        try {
+            if (error instanceof SaleService.OutcomeUnknownException) {
+                // The cart is kept, but selling it again could charge the customer twice
+                error.printStackTrace();
+                showErrorMessage("The sale may or may not have been recorded: " + error.getMessage()
+                        + "\nCheck the sales history before checking this cart out again.");
+                return;
+            }
+            if (error != null) {
+                error.printStackTrace();
+                showErrorMessage("Database error: " + error.getMessage());
+                return;
+            }
 
+            switch (result.status()) {
+                case OK:
                     SwingUtilities.invokeLater(() -> {
-                        JOptionPane.showMessageDialog(this, "Sale processed successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
-                        if (productListPanel != null) {
-                            productListPanel.refreshProductData();
-                        }
-                        if (analyticsPanel != null) {
-                            analyticsPanel.refreshReport();
-                        }
+                        updateReceipt(result);
+                        removeSold(basket, customerId);
                     });
-                } else {
-                    showErrorMessage("Product not found.");
-                    conn.rollback();
-                }
+                    break;
+                case INSUFFICIENT_STOCK:
+                    showErrorMessage("Not enough stock available for product #" + result.failedProductId() + ".");
+                    break;
+                case NOT_FOUND:
+                    showErrorMessage("Product #" + result.failedProductId() + " not found.");
+                    break;
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
-            showErrorMessage("Database error: " + e.getMessage());
+        } finally {
+            SwingUtilities.invokeLater(() -> checkoutButton.setEnabled(true));
         }
     }
 
-    private void updateStock(Connection conn, int productId, int quantity) throws SQLException {
-        String updateQuery = "UPDATE products SET quantity = quantity - ? WHERE id = ?";
-        try (PreparedStatement updateStmt = conn.prepareStatement(updateQuery)) {
-            updateStmt.setInt(1, quantity);
-            updateStmt.setInt(2, productId);
-            updateStmt.executeUpdate();
+    // Takes the sold lines out of the cart, leaving anything scanned while the sale was in
+    // flight. Lines are matched by identity, as the same product may be scanned twice.
+    private void removeSold(List<SaleService.CartLine> basket, String customerId) {
+        Set<SaleService.CartLine> sold = Collections.newSetFromMap(new IdentityHashMap<>());
+        sold.addAll(basket);
+        for (int i = cartLines.size() - 1; i >= 0; i--) {
+            if (sold.contains(cartLines.get(i))) {
+                cartLines.remove(i);
+                cartListModel.remove(i);
+            }
         }
-    }
-
-    private void logSale(Connection conn, int productId, int quantity, double totalPrice) throws SQLException {
-        String insertSaleQuery = "INSERT INTO sales_history (product_id, quantity_sold, sale_date, total_price) VALUES (?, ?, NOW(), ?)";
-
-        try (PreparedStatement stmt = conn.prepareStatement(insertSaleQuery)) {
-            stmt.setInt(1, productId);
-            stmt.setInt(2, quantity);
-            stmt.setDouble(3, totalPrice);
-            stmt.executeUpdate();
+        // The next customer may already have been entered
+        if (customerIdField.getText().trim().equals(customerId)) {
+            customerIdField.setText("");
         }
-
     }
 
+    private void updateReceipt(SaleService.CheckoutResult result) {
+        receiptArea.append(formatReceipt(result));
+    }
 
-    private void updateReceipt(String name, int quantity, double totalPrice) {
-        receiptArea.append(String.format("Product: %s\nQuantity: %d\nTotal: $%.2f\n\n", name, quantity, totalPrice));
+    static String formatReceipt(SaleService.CheckoutResult result) {
+        StringBuilder receipt = new StringBuilder();
+        for (SaleService.SaleResult line : result.lines()) {
+            receipt.append(String.format("Product: %s\nQuantity: %d\nTotal: $%.2f\n", line.name(), line.quantity(), line.totalPrice()));
+        }
+        receipt.append(String.format("Basket Total: $%.2f\n\n", result.total()));
+        return receipt.toString();
     }
 
     private void showErrorMessage(String message) {
@@ -192,7 +266,8 @@ public class POSPanel extends JPanel {
         }
     }
 
+    // Sales already submitted still complete; the pipeline is shared with the other tills
     public void shutDown() {
-        executorService.shutdown();
+        checkoutButton.setEnabled(false);
     }
 }
@@ -0,0 +1,281 @@
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Virtual table over the products table. Only the pages the user scrolls to are fetched,
+// using keyset pagination on (sort column, id), and at most MAX_CACHED_PAGES are kept, so
+// memory stays flat however large the catalog is. Must be used from the EDT.
+public class PagedProductTableModel extends AbstractTableModel {
+    private static final String[] COLUMN_NAMES = {"ID", "Name", "Description", "Price", "Quantity", "Reorder Level"};
+    // Columns the user may sort by, indexed like COLUMN_NAMES; null means not sortable
+    private static final String[] SORT_COLUMNS = {"id", "name", null, "price", "quantity", "reorder_level"};
+    private static final String SELECT_COLUMNS = "SELECT id, name, description, price, quantity, reorder_level FROM products";
+    // Each cached row also holds the raw value of the sort column, NULL included, at this index:
+    // getDouble/getInt read NULL as 0, which would resume the next page in the wrong place
+    private static final int SORT_VALUE = COLUMN_NAMES.length;
+
+    private static final int PAGE_SIZE = 200;
+    private static final int MAX_CACHED_PAGES = 25;
+    private static final Object LOADING = "Loading...";
+
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "inventory-page-loader");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Access-ordered, so the least recently viewed page is dropped first
+    private final Map<Integer, List<Object[]>> pages = new LinkedHashMap<>(MAX_CACHED_PAGES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, List<Object[]>> eldest) {
+            return size() > MAX_CACHED_PAGES;
+        }
+    };
+    private final Set<Integer> pending = new HashSet<>();
+
+    private int rowCount = 0;
+    private int sortColumn = 0;
+    // Bumped on every reset so results from before an edit or re-sort are discarded
+    private int generation = 0;
+
+    public PagedProductTableModel() {
+        reload();
+    }
+
+    // Drops every cached page and re-counts; call after any write to the products table
+    public void reload() {
+        int expected = ++generation;
+        pages.clear();
+        pending.clear();
+        FlightEvents.ProductReload event = new FlightEvents.ProductReload();
+        event.begin();
+        loader.submit(() -> {
+            long start = System.nanoTime();
+            try (Connection conn = DatabaseConnection.getConnection();
+                 Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM products")) {
+                rs.next();
+                int count = rs.getInt(1);
+                event.loadTime = System.nanoTime() - start;
+                SwingUtilities.invokeLater(() -> {
+                    if (expected == generation) {
+                        rowCount = count;
+                        fireTableDataChanged();
+                        commitReload(event, "count", count);
+                    }
+                });
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    // Patches cached rows in place from the shared catalog. A new or deleted product shifts
+    // every row after it, so that falls back to a reload
+    public void applyDelta(Set<Integer> changedIds, Set<Integer> removedIds) {
+        ProductCatalog catalog = ProductCatalog.getInstance();
+        if (!removedIds.isEmpty() || catalog.size() != rowCount) {
+            reload();
+            return;
+        }
+        for (Map.Entry<Integer, List<Object[]>> page : pages.entrySet()) {
+            List<Object[]> rows = page.getValue();
+            for (int i = 0; i < rows.size(); i++) {
+                int productId = (int) rows.get(i)[0];
+                if (!changedIds.contains(productId)) {
+                    continue;
+                }
+                ProductCatalog.Product product;
+                try {
+                    product = catalog.get(productId);
+                } catch (SQLException e) {
+                    continue;  // Catalog is already loaded; this cannot hit the database
+                }
+                if (product != null) {
+                    // Keeps the sort value the row was fetched with, which is where the next page resumes
+                    rows.set(i, new Object[]{product.id(), product.name(), product.description(), product.price(),
+                            product.quantity(), product.reorderLevel(), rows.get(i)[SORT_VALUE]});
+                    int row = page.getKey() * PAGE_SIZE + i;
+                    fireTableRowsUpdated(row, row);
+                }
+            }
+        }
+    }
+
+    public boolean isSortable(int column) {
+        return column >= 0 && column < SORT_COLUMNS.length && SORT_COLUMNS[column] != null;
+    }
+
+    public void sortBy(int column) {
+        if (!isSortable(column) || column == sortColumn) {
+            return;
+        }
+        sortColumn = column;
+        reload();
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return false;
+    }
+
+    @Override
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        int page = rowIndex / PAGE_SIZE;
+        List<Object[]> rows = pages.get(page);
+        if (rows == null) {
+            requestPage(page);
+            return columnIndex == 1 ? LOADING : null;
+        }
+        int offset = rowIndex % PAGE_SIZE;
+        return offset < rows.size() ? rows.get(offset)[columnIndex] : null;
+    }
+
+    public boolean isRowLoaded(int rowIndex) {
+        return pages.containsKey(rowIndex / PAGE_SIZE);
+    }
+
+    private void requestPage(int page) {
+        if (!pending.add(page)) {
+            return;
+        }
+        int expected = generation;
+        String sortKey = SORT_COLUMNS[sortColumn];
+        // Resuming after the previous page's last row avoids an OFFSET scan of the whole table
+        List<Object[]> previous = pages.get(page - 1);
+        Object[] after = previous != null && !previous.isEmpty() ? previous.get(previous.size() - 1) : null;
+
+        FlightEvents.ProductReload event = new FlightEvents.ProductReload();
+        event.begin();
+        loader.submit(() -> {
+            long start = System.nanoTime();
+            List<Object[]> rows;
+            try (Connection conn = DatabaseConnection.getConnection()) {
+                rows = fetchPage(conn, sortKey, page, after);
+            } catch (SQLException e) {
+                e.printStackTrace();
+                SwingUtilities.invokeLater(() -> pending.remove(page));
+                return;
+            }
+            event.loadTime = System.nanoTime() - start;
+            SwingUtilities.invokeLater(() -> {
+                if (expected != generation) {
+                    return;
+                }
+                pending.remove(page);
+                pages.put(page, rows);
+                int first = page * PAGE_SIZE;
+                int last = Math.min(rowCount, first + PAGE_SIZE) - 1;
+                if (last >= first) {
+                    fireTableRowsUpdated(first, last);
+                }
+                commitReload(event, "page " + page, rows.size());
+            });
+        });
+    }
+
+    private static void commitReload(FlightEvents.ProductReload event, String part, int rows) {
+        event.panel = "Inventory";
+        event.part = part;
+        event.rows = rows;
+        event.commit();
+    }
+
+    private List<Object[]> fetchPage(Connection conn, String sortKey, int page, Object[] after) throws SQLException {
+        if (page > 0 && after == null) {
+            after = findPageBoundary(conn, sortKey, page);
+            if (after == null) {
+                return List.of();
+            }
+        }
+
+        String query;
+        if (page == 0) {
+            query = SELECT_COLUMNS + " ORDER BY " + orderBy(sortKey) + " LIMIT ?";
+        } else if (sortKey.equals("id")) {
+            query = SELECT_COLUMNS + " WHERE id > ? ORDER BY id LIMIT ?";
+        } else if (after[SORT_VALUE] == null) {
+            // MySQL sorts NULLs first, so after a NULL come the remaining NULLs by id, then every
+            // non-NULL value; a plain comparison with NULL would match neither
+            query = SELECT_COLUMNS + " WHERE ((" + sortKey + " IS NULL AND id > ?) OR " + sortKey + " IS NOT NULL) ORDER BY "
+                    + orderBy(sortKey) + " LIMIT ?";
+        } else {
+            query = SELECT_COLUMNS + " WHERE (" + sortKey + " > ? OR (" + sortKey + " = ? AND id > ?)) ORDER BY "
+                    + orderBy(sortKey) + " LIMIT ?";
+        }
+
+        try (PreparedStatement pstmt = conn.prepareStatement(query)) {
+            int index = 1;
+            if (page > 0) {
+                Object sortValue = after[SORT_VALUE];
+                int afterId = (int) after[0];
+                if (!sortKey.equals("id") && sortValue != null) {
+                    pstmt.setObject(index++, sortValue);
+                    pstmt.setObject(index++, sortValue);
+                }
+                pstmt.setInt(index++, afterId);
+            }
+            pstmt.setInt(index, PAGE_SIZE);
+
+            List<Object[]> rows = new ArrayList<>(PAGE_SIZE);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    rows.add(new Object[]{rs.getInt("id"), rs.getString("name"), rs.getString("description"),
+                            rs.getDouble("price"), rs.getInt("quantity"), rs.getInt("reorder_level"),
+                            rs.getObject(sortKey)});
+                }
+            }
+            return rows;
+        }
+    }
+
+    // For a jump straight into the middle of the table: reads just the key of the row before
+    // the page, which the (sort column, id) index answers without touching the row data
+    private Object[] findPageBoundary(Connection conn, String sortKey, int page) throws SQLException {
+        String query = "SELECT id" + (sortKey.equals("id") ? "" : ", " + sortKey) + " FROM products ORDER BY "
+                + orderBy(sortKey) + " LIMIT 1 OFFSET ?";
+        try (PreparedStatement pstmt = conn.prepareStatement(query)) {
+            pstmt.setInt(1, page * PAGE_SIZE - 1);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                Object[] row = new Object[COLUMN_NAMES.length + 1];
+                row[0] = rs.getInt(1);
+                row[SORT_VALUE] = rs.getObject(sortKey.equals("id") ? 1 : 2);
+                return row;
+            }
+        }
+    }
+
+    private static String orderBy(String sortKey) {
+        return sortKey.equals("id") ? "id" : sortKey + ", id";
+    }
+}
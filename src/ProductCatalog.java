@@ -0,0 +1,269 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Shared in-memory copy of the products table. Every till polls products.updated_at and
+// pulls only the rows that changed, so lookups are map hits and tills stay coherent.
+public class ProductCatalog {
+    private static final ProductCatalog INSTANCE = new ProductCatalog();
+
+    // Rows are re-read from a little before the newest updated_at we have seen, because a
+    // transaction can stamp a row and still be uncommitted when we poll
+    private static final long SAFETY_WINDOW_MS = 5_000;
+    private static final long POLL_INTERVAL_MS = 2_000;
+
+    private static final String SELECT_COLUMNS =
+            "SELECT id, name, category, description, price, quantity, reorder_level, updated_at FROM products";
+
+    private final Map<Integer, Product> products = new ConcurrentHashMap<>();
+    private volatile boolean loaded = false;
+    private long highWatermark = 0;  // Newest updated_at seen, epoch micros; guarded by this
+    private ScheduledExecutorService poller;
+    private boolean polling = false;
+
+    // Price and quantity are kept as primitives; rows are immutable and replaced whole
+    public record Product(int id, String name, String category, String description, double price,
+                          int quantity, int reorderLevel, long version) {
+        Product withQuantity(int newQuantity) {
+            return new Product(id, name, category, description, price, newQuantity, reorderLevel, version);
+        }
+    }
+
+    public static ProductCatalog getInstance() {
+        return INSTANCE;
+    }
+
+    private ProductCatalog() {
+    }
+
+    // Returns null if the product does not exist (or was not visible at the last refresh)
+    public Product get(int productId) throws SQLException {
+        ensureLoaded();
+        return products.get(productId);
+    }
+
+    public List<Product> getAll() throws SQLException {
+        ensureLoaded();
+        List<Product> snapshot = new ArrayList<>(products.values());
+        snapshot.sort(Comparator.comparingInt(Product::id));
+        return snapshot;
+    }
+
+    // Fills the catalog without a database, for Benchmarks; a later refresh() reconciles it
+    synchronized void preload(Collection<Product> rows) {
+        products.clear();
+        for (Product product : rows) {
+            products.put(product.id(), product);
+        }
+        LowStockMonitor.getInstance().reset(rows);
+        loaded = true;
+    }
+
+    private void ensureLoaded() throws SQLException {
+        if (!loaded) {
+            refresh();
+        }
+    }
+
+    // Pulls rows changed since the last refresh. Falls back to a full reload on first use and
+    // whenever the server's set of ids differs from ours, which is how deletes on other tills
+    // show up. The sets are compared by count, sum and XOR of the ids: one pass over the
+    // primary key on each side, where a plain count misses a delete that coincides with an
+    // insert the delta did not see.
+    public synchronized void refresh() throws SQLException {
+        Set<Integer> changed = new HashSet<>();
+        Set<Integer> removed = new HashSet<>();
+        SchemaMigrator.ensureMigrated();
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            if (!loaded) {
+                fullReload(conn, changed, removed);
+            } else {
+                long serverCount;
+                long serverSum;
+                long serverXor;
+                try (Statement stmt = conn.createStatement();
+                     ResultSet rs = stmt.executeQuery(
+                             "SELECT COUNT(*), COALESCE(SUM(id), 0), COALESCE(BIT_XOR(id), 0) FROM products")) {
+                    rs.next();
+                    serverCount = rs.getLong(1);
+                    serverSum = rs.getLong(2);
+                    serverXor = rs.getLong(3);
+                }
+
+                try (PreparedStatement pstmt = conn.prepareStatement(SELECT_COLUMNS + " WHERE updated_at >= ?")) {
+                    pstmt.setTimestamp(1, toTimestamp(highWatermark - SAFETY_WINDOW_MS * 1_000));
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            if (apply(readProduct(rs))) {
+                                changed.add(rs.getInt("id"));
+                            }
+                        }
+                    }
+                }
+
+                long count = 0;
+                long sum = 0;
+                long xor = 0;
+                for (int id : products.keySet()) {
+                    count++;
+                    sum += id;
+                    xor ^= id;
+                }
+                if (serverCount != count || serverSum != sum || serverXor != xor) {
+                    fullReload(conn, changed, removed);
+                }
+            }
+        }
+        fireChanged(changed, removed);
+    }
+
+    private void fullReload(Connection conn, Set<Integer> changed, Set<Integer> removed) throws SQLException {
+        Map<Integer, Product> fresh = new HashMap<>();
+        long watermark = 0;
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(SELECT_COLUMNS)) {
+            while (rs.next()) {
+                Product product = readProduct(rs);
+                fresh.put(product.id(), product);
+                watermark = Math.max(watermark, product.version());
+            }
+        }
+        for (Integer id : products.keySet()) {
+            if (!fresh.containsKey(id)) {
+                removed.add(id);
+            }
+        }
+        for (Product product : fresh.values()) {
+            if (!product.equals(products.get(product.id()))) {
+                changed.add(product.id());
+            }
+        }
+        products.keySet().retainAll(fresh.keySet());
+        products.putAll(fresh);
+        highWatermark = watermark;
+
+        LowStockMonitor lowStock = LowStockMonitor.getInstance();
+        if (!loaded) {
+            lowStock.reset(fresh.values());
+        } else {
+            removed.forEach(lowStock::productRemoved);
+            for (Integer id : changed) {
+                lowStock.productChanged(fresh.get(id));
+            }
+        }
+        loaded = true;
+    }
+
+    // Only newer versions win, so overlapping polls and local updates are harmless
+    private boolean apply(Product product) {
+        highWatermark = Math.max(highWatermark, product.version());
+        Product current = products.get(product.id());
+        if (current != null && (current.version() > product.version() || current.equals(product))) {
+            return false;
+        }
+        products.put(product.id(), product);
+        LowStockMonitor.getInstance().productChanged(product);
+        return true;
+    }
+
+    private static Product readProduct(ResultSet rs) throws SQLException {
+        Timestamp updatedAt = rs.getTimestamp("updated_at");
+        return new Product(
+                rs.getInt("id"),
+                rs.getString("name"),
+                rs.getString("category"),
+                rs.getString("description"),
+                rs.getDouble("price"),
+                rs.getInt("quantity"),
+                rs.getInt("reorder_level"),
+                updatedAt == null ? 0 : toMicros(updatedAt));
+    }
+
+    private static long toMicros(Timestamp ts) {
+        return ts.getTime() / 1_000 * 1_000_000 + ts.getNanos() / 1_000;
+    }
+
+    private static Timestamp toTimestamp(long micros) {
+        long seconds = Math.floorDiv(Math.max(0, micros), 1_000_000);
+        Timestamp ts = new Timestamp(seconds * 1_000);
+        ts.setNanos(Math.floorMod(Math.max(0, micros), 1_000_000) * 1_000);
+        return ts;
+    }
+
+    // Reflects a stock change this till has just committed, ahead of the next poll
+    public void adjustQuantity(int productId, int delta) {
+        Product updated = products.computeIfPresent(productId, (id, product) -> product.withQuantity(product.quantity() + delta));
+        if (updated != null) {
+            LowStockMonitor.getInstance().productChanged(updated);
+            EventBus.getInstance().publish(new EventBus.StockChanged(Set.of(productId)));
+        }
+    }
+
+    public void remove(int productId) {
+        if (products.remove(productId) != null) {
+            LowStockMonitor.getInstance().productRemoved(productId);
+            fireChanged(Set.of(), Set.of(productId));
+        }
+    }
+
+    // Rows that changed in a refresh or a local delete are announced as ProductEdited
+    private void fireChanged(Set<Integer> changedIds, Set<Integer> removedIds) {
+        if (changedIds.isEmpty() && removedIds.isEmpty()) {
+            return;
+        }
+        EventBus.getInstance().publish(new EventBus.ProductEdited(changedIds, removedIds));
+    }
+
+    public int size() {
+        return products.size();
+    }
+
+    // Starts background polling so lookups never have to go to the database
+    public synchronized void startPolling() {
+        if (polling) {
+            return;
+        }
+        polling = true;
+        poller().scheduleWithFixedDelay(this::refreshQuietly, 0, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    // Asks for an out-of-band refresh; subscribers hear about the result through the EventBus
+    public void requestRefresh() {
+        poller().execute(this::refreshQuietly);
+    }
+
+    private synchronized ScheduledExecutorService poller() {
+        if (poller == null) {
+            poller = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "product-catalog-poller");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return poller;
+    }
+
+    private void refreshQuietly() {
+        try {
+            refresh();
+        } catch (SQLException e) {
+            // Keep serving the last known catalog; the next poll will catch up
+            System.err.println("Product catalog refresh failed: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,523 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Loads a product CSV of any size: rows are parsed one at a time, validated, and upserted in
+// JDBC batches, which rewriteBatchedStatements turns into multi-row INSERTs. Rows that fail
+// validation (or that the database refuses) go to a reject file with the reason, and the
+// rest of the file still loads.
+//
+// Columns are matched by header name, in any order: name, price and quantity are required;
+// id, description and reorder_level are optional. A row with an id updates that product if
+// it exists. A row without one updates the product with the same name (ignoring case), or
+// adds a new product if there is none; it is rejected if several products have that name.
+// So importing the same file twice updates the products rather than adding them again.
+public class ProductImporter {
+    // Override with -Dsmartshop.import.batchSize
+    private static final int DEFAULT_BATCH_SIZE = 2_000;
+    private static final int MAX_NAME_LENGTH = 255;
+
+    private static final String UPSERT = "INSERT INTO products (id, name, description, price, quantity, reorder_level) "
+            + "VALUES (?, ?, ?, ?, ?, ?) ON DUPLICATE KEY UPDATE name = VALUES(name), description = VALUES(description), "
+            + "price = VALUES(price), quantity = VALUES(quantity), reorder_level = VALUES(reorder_level)";
+
+    // rejectFile is null when every row was accepted. cancelled means the batches committed
+    // before the cancel stay in the database.
+    public record Result(long imported, long rejected, Path rejectFile, long millis, boolean cancelled) {
+        public double rowsPerSecond() {
+            return millis == 0 ? imported : imported * 1000.0 / millis;
+        }
+    }
+
+    private record Row(long line, List<String> fields, Integer id, String name, String description,
+                       double price, int quantity, int reorderLevel) {
+        Row withId(int productId) {
+            return new Row(line, fields, productId, name, description, price, quantity, reorderLevel);
+        }
+    }
+
+    private final int batchSize;
+
+    public ProductImporter() {
+        this(Integer.getInteger("smartshop.import.batchSize", DEFAULT_BATCH_SIZE));
+    }
+
+    public ProductImporter(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Invalid batch size: " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    // Rejects go next to the input as <name>.rejects.csv
+    public static Path rejectFileFor(Path csv) {
+        String name = csv.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return csv.resolveSibling((dot > 0 ? name.substring(0, dot) : name) + ".rejects.csv");
+    }
+
+    public Result importFile(Path csv, BackgroundLoader.Progress progress) throws IOException, SQLException {
+        long start = System.nanoTime();
+        Path rejectPath = rejectFileFor(csv);
+        Files.deleteIfExists(rejectPath);
+
+        try (SeekableByteChannel channel = Files.newByteChannel(csv);
+             CsvReader reader = new CsvReader(Channels.newReader(channel, StandardCharsets.UTF_8));
+             RejectWriter rejects = new RejectWriter(rejectPath);
+             Connection conn = DatabaseConnection.getConnection()) {
+
+            long totalBytes = Math.max(1, channel.size());
+            List<String> header = reader.next();
+            if (header == null) {
+                throw new IOException(csv.getFileName() + " is empty");
+            }
+            Map<String, Integer> columns = columnIndexes(header);
+            rejects.setHeader(header);
+
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            long imported = 0;
+            boolean cancelled = false;
+            try (PreparedStatement pstmt = conn.prepareStatement(UPSERT)) {
+                List<Row> batch = new ArrayList<>(batchSize);
+                Set<String> batchNames = new HashSet<>();
+                List<String> fields;
+                while ((fields = reader.next()) != null) {
+                    String error = null;
+                    Row row = null;
+                    try {
+                        row = parse(reader.lineNumber(), fields, columns);
+                    } catch (IllegalArgumentException e) {
+                        error = e.getMessage();
+                    }
+                    if (row == null) {
+                        rejects.write(reader.lineNumber(), fields, error);
+                        continue;
+                    }
+
+                    // A row without an id finds its product by name, so an earlier row of the
+                    // same name has to be in the database first
+                    String nameKey = nameKey(row.name());
+                    if (row.id() == null && batchNames.contains(nameKey)) {
+                        imported += flush(conn, pstmt, batch, rejects);
+                        batchNames.clear();
+                    }
+                    batch.add(row);
+                    batchNames.add(nameKey);
+                    if (batch.size() == batchSize) {
+                        imported += flush(conn, pstmt, batch, rejects);
+                        batchNames.clear();
+                        if (progress.isCancelled()) {
+                            cancelled = true;
+                            break;
+                        }
+                        progress.update((int) Math.min(99, channel.position() * 100 / totalBytes),
+                                String.format("Imported %,d products...", imported));
+                    }
+                }
+                if (!cancelled) {
+                    imported += flush(conn, pstmt, batch, rejects);
+                }
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+
+            // Tills and tables pick the new products up from the catalog's change event
+            ProductCatalog.getInstance().requestRefresh();
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            return new Result(imported, rejects.count(), rejects.count() == 0 ? null : rejectPath, millis, cancelled);
+        }
+    }
+
+    // Commits the batch and returns how many rows went in. If the database refuses the batch
+    // (a value too long for its column, say), the rows are retried one by one so only the bad
+    // ones are rejected.
+    private static long flush(Connection conn, PreparedStatement pstmt, List<Row> batch, RejectWriter rejects)
+            throws SQLException, IOException {
+        matchByName(conn, batch, rejects);
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        long imported;
+        try {
+            for (Row row : batch) {
+                bind(pstmt, row);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+            conn.commit();
+            imported = batch.size();
+        } catch (BatchUpdateException e) {
+            conn.rollback();
+            pstmt.clearBatch();
+            imported = 0;
+            for (Row row : batch) {
+                try {
+                    bind(pstmt, row);
+                    pstmt.executeUpdate();
+                    conn.commit();
+                    imported++;
+                } catch (SQLException single) {
+                    conn.rollback();
+                    rejects.write(row.line(), row.fields(), single.getMessage());
+                }
+            }
+        }
+        batch.clear();
+        return imported;
+    }
+
+    // Gives rows without an id the id of the product with the same name, with one query per
+    // batch on idx_products_name. Rows whose name several products share are rejected.
+    private static void matchByName(Connection conn, List<Row> batch, RejectWriter rejects)
+            throws SQLException, IOException {
+        List<String> names = new ArrayList<>();
+        for (Row row : batch) {
+            if (row.id() == null) {
+                names.add(row.name());
+            }
+        }
+        if (names.isEmpty()) {
+            return;
+        }
+
+        Map<String, List<Integer>> existing = new HashMap<>();
+        String query = "SELECT id, name FROM products WHERE name IN ("
+                + String.join(", ", Collections.nCopies(names.size(), "?")) + ")";
+        try (PreparedStatement select = conn.prepareStatement(query)) {
+            for (int i = 0; i < names.size(); i++) {
+                select.setString(i + 1, names.get(i));
+            }
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    existing.computeIfAbsent(nameKey(rs.getString(2)), k -> new ArrayList<>(1)).add(rs.getInt(1));
+                }
+            }
+        }
+
+        for (ListIterator<Row> it = batch.listIterator(); it.hasNext(); ) {
+            Row row = it.next();
+            List<Integer> ids = row.id() == null ? existing.get(nameKey(row.name())) : null;
+            if (ids == null) {
+                continue;
+            }
+            if (ids.size() == 1) {
+                it.set(row.withId(ids.get(0)));
+            } else {
+                it.remove();
+                rejects.write(row.line(), row.fields(),
+                        ids.size() + " products are named \"" + row.name() + "\"; give the id of the one to update");
+            }
+        }
+    }
+
+    // The products.name collation ignores case, so names are compared the same way here
+    private static String nameKey(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    private static void bind(PreparedStatement pstmt, Row row) throws SQLException {
+        pstmt.setObject(1, row.id(), Types.INTEGER);
+        pstmt.setString(2, row.name());
+        pstmt.setString(3, row.description());
+        pstmt.setDouble(4, row.price());
+        pstmt.setInt(5, row.quantity());
+        pstmt.setInt(6, row.reorderLevel());
+    }
+
+    private static Map<String, Integer> columnIndexes(List<String> header) throws IOException {
+        Map<String, Integer> columns = new HashMap<>();
+        for (int i = 0; i < header.size(); i++) {
+            columns.putIfAbsent(header.get(i).trim().toLowerCase(Locale.ROOT), i);
+        }
+        for (String required : new String[]{"name", "price", "quantity"}) {
+            if (!columns.containsKey(required)) {
+                throw new IOException("The header has no \"" + required + "\" column");
+            }
+        }
+        return columns;
+    }
+
+    // Throws IllegalArgumentException with the reason the row is rejected
+    private static Row parse(long line, List<String> fields, Map<String, Integer> columns) {
+        String idText = field(fields, columns, "id");
+        Integer id = null;
+        if (!idText.isEmpty()) {
+            id = parseInt(idText, "id");
+            if (id <= 0) {
+                throw new IllegalArgumentException("id must be positive");
+            }
+        }
+
+        String name = field(fields, columns, "name");
+        if (name.isEmpty()) {
+            throw new IllegalArgumentException("name is empty");
+        }
+        if (name.length() > MAX_NAME_LENGTH) {
+            throw new IllegalArgumentException("name is longer than " + MAX_NAME_LENGTH + " characters");
+        }
+
+        double price;
+        try {
+            price = Double.parseDouble(field(fields, columns, "price"));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("price is not a number");
+        }
+        if (!(price >= 0) || Double.isInfinite(price)) {
+            throw new IllegalArgumentException("price must be zero or more");
+        }
+
+        int quantity = parseInt(field(fields, columns, "quantity"), "quantity");
+        String reorderText = field(fields, columns, "reorder_level");
+        int reorderLevel = reorderText.isEmpty() ? 0 : parseInt(reorderText, "reorder_level");
+        if (quantity < 0 || reorderLevel < 0) {
+            throw new IllegalArgumentException("quantity and reorder_level must be zero or more");
+        }
+
+        String description = field(fields, columns, "description");
+        return new Row(line, fields, id, name, description.isEmpty() ? null : description, price, quantity, reorderLevel);
+    }
+
+    private static String field(List<String> fields, Map<String, Integer> columns, String column) {
+        Integer index = columns.get(column);
+        return index == null || index >= fields.size() ? "" : fields.get(index).trim();
+    }
+
+    private static int parseInt(String text, String column) {
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(column + " is not a whole number");
+        }
+    }
+
+    // RFC 4180 reader: quoted fields may hold commas, doubled quotes and line breaks. Reads
+    // through its own buffer, so memory stays at one record whatever the file size.
+    static final class CsvReader implements AutoCloseable {
+        private final Reader in;
+        private final char[] buffer = new char[1 << 16];
+        private int position = 0;
+        private int limit = 0;
+        private long lineNumber = 0;
+        private long nextLineNumber = 1;
+        private final StringBuilder field = new StringBuilder();
+
+        CsvReader(Reader in) {
+            this.in = in;
+        }
+
+        // Line on which the record last returned by next() started
+        long lineNumber() {
+            return lineNumber;
+        }
+
+        // Returns null at the end of the input; blank lines are skipped
+        List<String> next() throws IOException {
+            List<String> fields = new ArrayList<>();
+            lineNumber = nextLineNumber;
+            field.setLength(0);
+            boolean quoted = false;
+            boolean sawAnything = false;
+            while (true) {
+                int c = read();
+                if (c < 0) {
+                    if (!sawAnything) {
+                        return null;
+                    }
+                    fields.add(field.toString());
+                    return fields;
+                }
+                if (quoted) {
+                    if (c == '"') {
+                        if (peek() == '"') {
+                            read();
+                            field.append('"');
+                        } else {
+                            quoted = false;
+                        }
+                    } else {
+                        if (c == '\n') {
+                            nextLineNumber++;
+                        }
+                        field.append((char) c);
+                    }
+                    continue;
+                }
+                if (c == '\r' || c == '\n') {
+                    if (c == '\r' && peek() == '\n') {
+                        read();
+                    }
+                    nextLineNumber++;
+                    if (!sawAnything) {
+                        lineNumber = nextLineNumber;
+                        continue;
+                    }
+                    fields.add(field.toString());
+                    return fields;
+                }
+                sawAnything = true;
+                if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else if (c == '"' && field.length() == 0) {
+                    quoted = true;
+                } else {
+                    field.append((char) c);
+                }
+            }
+        }
+
+        private int read() throws IOException {
+            if (position == limit && !fill()) {
+                return -1;
+            }
+            return buffer[position++];
+        }
+
+        private int peek() throws IOException {
+            if (position == limit && !fill()) {
+                return -1;
+            }
+            return buffer[position];
+        }
+
+        private boolean fill() throws IOException {
+            int n = in.read(buffer);
+            if (n <= 0) {
+                return false;
+            }
+            position = 0;
+            limit = n;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    // The rejected rows as they were read, plus the line number and the reason; the file is
+    // only created once there is something to put in it
+    private static final class RejectWriter implements AutoCloseable {
+        private final Path path;
+        private List<String> header;
+        private Writer out;
+        private long count = 0;
+
+        RejectWriter(Path path) {
+            this.path = path;
+        }
+
+        void setHeader(List<String> header) {
+            this.header = header;
+        }
+
+        long count() {
+            return count;
+        }
+
+        void write(long line, List<String> fields, String reason) throws IOException {
+            if (out == null) {
+                out = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+                writeRecord(List.of("line", "error"), header);
+            }
+            writeRecord(List.of(Long.toString(line), reason == null ? "" : reason), fields);
+            count++;
+        }
+
+        private void writeRecord(List<String> prefix, List<String> fields) throws IOException {
+            boolean first = true;
+            for (List<String> part : List.of(prefix, fields)) {
+                for (String value : part) {
+                    if (!first) {
+                        out.write(',');
+                    }
+                    first = false;
+                    writeField(value);
+                }
+            }
+            out.write('\n');
+        }
+
+        private void writeField(String value) throws IOException {
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+                out.write(value);
+                return;
+            }
+            out.write('"');
+            out.write(value.replace("\"", "\"\""));
+            out.write('"');
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+
+    // java ProductImporter <file.csv> [batchSize] imports the file and prints the throughput;
+    // java ProductImporter --generate <rows> <file.csv> writes a sample catalog to try it on
+    public static void main(String[] args) throws Exception {
+        if (args.length == 3 && args[0].equals("--generate")) {
+            int rows = Integer.parseInt(args[1]);
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            try (Writer out = Files.newBufferedWriter(Paths.get(args[2]), StandardCharsets.UTF_8)) {
+                out.write("name,description,price,quantity,reorder_level\n");
+                for (int i = 1; i <= rows; i++) {
+                    out.write(String.format(Locale.ROOT, "Imported item %d,\"Supplier item %d, boxed\",%.2f,%d,%d%n",
+                            i, i, random.nextInt(50, 50_000) / 100.0, random.nextInt(0, 500), random.nextInt(0, 20)));
+                }
+            }
+            return;
+        }
+        if (args.length == 0) {
+            System.err.println("Usage: ProductImporter <file.csv> [batchSize] | --generate <rows> <file.csv>");
+            return;
+        }
+
+        ProductImporter importer = args.length > 1 ? new ProductImporter(Integer.parseInt(args[1])) : new ProductImporter();
+        Result result = importer.importFile(Paths.get(args[0]), new BackgroundLoader.Progress() {
+            @Override
+            public void update(int percent, String message) {
+                System.out.println(percent + "% " + message);
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return false;
+            }
+        });
+        System.out.printf("imported=%,d  rejected=%,d  %d ms  %,.0f rows/s  batch=%d%s%n", result.imported(),
+                result.rejected(), result.millis(), result.rowsPerSecond(), importer.batchSize,
+                result.rejectFile() == null ? "" : "  rejects in " + result.rejectFile());
+        System.exit(0);
+    }
+}
@@ -1,10 +1,16 @@
 import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
 import java.awt.*;
-import java.sql.*;
-import java.util.Vector;
-import javax.swing.table.DefaultTableModel;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 public class ProductListPanel extends JPanel {
     private JTable productTable;
+    private ProductTableModel tableModel;
+    private final BackgroundLoader loader = new BackgroundLoader(this);
 
     public ProductListPanel() {
         // Set the layout
@@ -17,7 +23,8 @@ public class ProductListPanel extends JPanel {
         add(titleLabel, BorderLayout.NORTH);
 
         // Create a table to display the product data
-        productTable = new JTable();
+        tableModel = new ProductTableModel();
+        productTable = new JTable(tableModel);
 
         // Set table properties
         productTable.setFillsViewportHeight(true);
@@ -26,52 +33,135 @@ public class ProductListPanel extends JPanel {
         // Fetch data from the database and display it in the table
         fetchProductData();
 
+        // Apply row-level changes as sales and edits are announced, a burst at a time
+        EventBus.getInstance().subscribe(Set.of(EventBus.StockChanged.class, EventBus.ProductEdited.class),
+                EventBus.UI_REFRESH_MS, batch -> tableModel.applyDelta(batch.changedIds(), batch.removedIds()));
+
         // Add the table to a scroll pane for better viewing
         JScrollPane scrollPane = new JScrollPane(productTable);
         add(scrollPane, BorderLayout.CENTER);
+        add(loader.getStatusBar(), BorderLayout.SOUTH);
     }
 
     public void fetchProductData() {
-        // Database connection information
-        String url = "jdbc:mysql://localhost:3306/shopping_system"; // Adjust for your database
-        String user = "root"; // Replace with your MySQL username
-        String password = ""; // Replace with your MySQL password
-
-        // SQL query to fetch product data
-        String query = "SELECT id, name, category, price, quantity FROM products";
-
-        try (Connection conn = DriverManager.getConnection(url, user, password);
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(query)) {
-
-            // Get the column names dynamically
-            ResultSetMetaData metaData = rs.getMetaData();
-            int columnCount = metaData.getColumnCount();
-            Vector<String> columnNames = new Vector<>();
-            for (int i = 1; i <= columnCount; i++) {
-                columnNames.add(metaData.getColumnName(i));
+        FlightEvents.ProductReload event = new FlightEvents.ProductReload();
+        event.begin();
+        loader.submit("load", progress -> {
+            long start = System.nanoTime();
+            ProductCatalog catalog = ProductCatalog.getInstance();
+            catalog.refresh();
+            List<ProductCatalog.Product> products = catalog.getAll();
+            event.loadTime = System.nanoTime() - start;
+            return products;
+        }, products -> {
+            tableModel.setProducts(products);
+            event.panel = "Available Products";
+            event.part = "catalog";
+            event.rows = products.size();
+            event.commit();
+        }, e -> JOptionPane.showMessageDialog(this,
+                "Error fetching data from database: " + e.getMessage(), "Database Error", JOptionPane.ERROR_MESSAGE));
+    }
+
+    // Only rows changed since the last known version are repainted, so the selection and
+    // scroll position survive a refresh
+    private static class ProductTableModel extends AbstractTableModel {
+        private static final String[] COLUMN_NAMES = {"id", "name", "category", "price", "quantity"};
+
+        private final List<ProductCatalog.Product> rows = new ArrayList<>();
+        private final Map<Integer, Integer> rowIndex = new HashMap<>();
+
+        void setProducts(List<ProductCatalog.Product> products) {
+            rows.clear();
+            rows.addAll(products);
+            reindex();
+            fireTableDataChanged();
+        }
+
+        void applyDelta(Set<Integer> changedIds, Set<Integer> removedIds) {
+            ProductCatalog catalog = ProductCatalog.getInstance();
+            for (Integer id : changedIds) {
+                ProductCatalog.Product product;
+                try {
+                    product = catalog.get(id);
+                } catch (SQLException e) {
+                    continue;  // Catalog is already loaded; this cannot hit the database
+                }
+                if (product == null) {
+                    continue;
+                }
+                Integer row = rowIndex.get(id);
+                if (row != null) {
+                    rows.set(row, product);
+                    fireTableRowsUpdated(row, row);
+                } else {
+                    rows.add(product);
+                    rowIndex.put(id, rows.size() - 1);
+                    fireTableRowsInserted(rows.size() - 1, rows.size() - 1);
+                }
             }
 
-            // Get the row data dynamically
-            Vector<Vector<Object>> data = new Vector<>();
-            while (rs.next()) {
-                Vector<Object> row = new Vector<>();
-                for (int i = 1; i <= columnCount; i++) {
-                    row.add(rs.getObject(i));
+            if (!removedIds.isEmpty()) {
+                for (int row = rows.size() - 1; row >= 0; row--) {
+                    if (removedIds.contains(rows.get(row).id())) {
+                        rows.remove(row);
+                        fireTableRowsDeleted(row, row);
+                    }
                 }
-                data.add(row);
+                reindex();
+            }
+        }
+
+        private void reindex() {
+            rowIndex.clear();
+            for (int i = 0; i < rows.size(); i++) {
+                rowIndex.put(rows.get(i).id(), i);
             }
+        }
 
-            // Create a table model and set it for the JTable
-            productTable.setModel(new DefaultTableModel(data, columnNames));
+        @Override
+        public int getRowCount() {
+            return rows.size();
+        }
 
-        } catch (SQLException e) {
-            JOptionPane.showMessageDialog(this, "Error fetching data from database: " + e.getMessage(),
-                    "Database Error", JOptionPane.ERROR_MESSAGE);
+        @Override
+        public int getColumnCount() {
+            return COLUMN_NAMES.length;
         }
-    }
 
-    public void refreshProductData() {
-        fetchProductData();
+        @Override
+        public String getColumnName(int column) {
+            return COLUMN_NAMES[column];
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column) {
+            switch (column) {
+                case 0:
+                case 4:
+                    return Integer.class;
+                case 3:
+                    return Double.class;
+                default:
+                    return String.class;
+            }
+        }
+
+        @Override
+        public Object getValueAt(int rowIndex, int columnIndex) {
+            ProductCatalog.Product product = rows.get(rowIndex);
+            switch (columnIndex) {
+                case 0:
+                    return product.id();
+                case 1:
+                    return product.name();
+                case 2:
+                    return product.category();
+                case 3:
+                    return product.price();
+                default:
+                    return product.quantity();
+            }
+        }
     }
 }
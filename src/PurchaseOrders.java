@@ -0,0 +1,246 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Purchase orders for restocking. generate() takes the current low-stock set from
+// LowStockMonitor, looks each product up in a freshly loaded SupplierIndex and writes one
+// pending order per supplier, all in one pass and one transaction. Products already on a
+// pending order are left out, so running it twice does not order twice.
+//
+// A product is ordered up to its reorder level times -Dsmartshop.po.targetFactor (2 by
+// default), from its preferred (cheapest known) supplier.
+public class PurchaseOrders {
+    private static final String LOCK_NAME = "shopping_system_purchase_orders";
+    private static final int LOCK_TIMEOUT_SECONDS = 10;
+    private static final int BATCH_SIZE = 2_000;
+    private static final double TARGET_FACTOR = Double.parseDouble(System.getProperty("smartshop.po.targetFactor", "2"));
+
+    public record Line(int productId, int quantity, double unitCost) {
+    }
+
+    public record Order(int supplierId, List<Line> lines) {
+    }
+
+    // unassigned: low products nobody is mapped to supply
+    public record Plan(List<Order> orders, List<Integer> unassigned, int alreadyOnOrder) {
+    }
+
+    public record Result(int orders, int lines, int unassigned, int alreadyOnOrder, long millis) {
+    }
+
+    public record Pending(int orderId, int supplierId, String supplierName, Timestamp createdAt, int lines, long items,
+                          double totalCost) {
+    }
+
+    // Groups the low products by preferred supplier. One lookup per product, so this is
+    // O(k log n) for k low products over an index of n products.
+    static Plan plan(List<LowStockMonitor.Item> low, SupplierIndex index, Set<Integer> onOrder) {
+        Map<Integer, List<Line>> bySupplier = new HashMap<>();
+        List<Integer> unassigned = new ArrayList<>();
+        int alreadyOnOrder = 0;
+        for (LowStockMonitor.Item item : low) {
+            if (onOrder.contains(item.productId())) {
+                alreadyOnOrder++;
+                continue;
+            }
+            int supplierId = index.preferredSupplier(item.productId());
+            if (supplierId < 0) {
+                unassigned.add(item.productId());
+                continue;
+            }
+            bySupplier.computeIfAbsent(supplierId, id -> new ArrayList<>())
+                    .add(new Line(item.productId(), orderQuantity(item), index.preferredUnitCost(item.productId())));
+        }
+        List<Order> orders = new ArrayList<>(bySupplier.size());
+        bySupplier.forEach((supplierId, lines) -> orders.add(new Order(supplierId, lines)));
+        orders.sort((a, b) -> Integer.compare(a.supplierId(), b.supplierId()));
+        return new Plan(orders, unassigned, alreadyOnOrder);
+    }
+
+    static int orderQuantity(LowStockMonitor.Item item) {
+        int target = Math.max((int) Math.ceil(item.reorderLevel() * TARGET_FACTOR), item.reorderLevel() + 1);
+        return Math.max(1, target - Math.max(0, item.available()));
+    }
+
+    public Result generate(BackgroundLoader.Progress progress) throws SQLException {
+        long start = System.currentTimeMillis();
+        // Picks up the latest quantities, which also brings the low-stock set up to date
+        ProductCatalog.getInstance().refresh();
+        List<LowStockMonitor.Item> low = LowStockMonitor.getInstance().lowStock();
+        progress.update(10, low.size() + " products at or below their reorder level");
+        if (low.isEmpty()) {
+            return new Result(0, 0, 0, 0, System.currentTimeMillis() - start);
+        }
+
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            // Two managers pressing the button together must not both order the same products
+            try (PreparedStatement lock = conn.prepareStatement("SELECT GET_LOCK(?, ?)")) {
+                lock.setString(1, LOCK_NAME);
+                lock.setInt(2, LOCK_TIMEOUT_SECONDS);
+                try (ResultSet rs = lock.executeQuery()) {
+                    if (!rs.next() || rs.getInt(1) != 1) {
+                        throw new SQLException("Another till is generating purchase orders; try again shortly");
+                    }
+                }
+            }
+            try {
+                Set<Integer> onOrder = productsOnOrder(conn);
+                progress.update(20, "Loading supplier index...");
+                SupplierIndex index = SupplierIndex.load(conn);
+                Plan plan = plan(low, index, onOrder);
+                if (progress.isCancelled()) {
+                    return null;
+                }
+                progress.update(60, "Writing " + plan.orders().size() + " orders...");
+                int lines = write(conn, plan);
+                return new Result(plan.orders().size(), lines, plan.unassigned().size(), plan.alreadyOnOrder(),
+                        System.currentTimeMillis() - start);
+            } finally {
+                try (PreparedStatement unlock = conn.prepareStatement("SELECT RELEASE_LOCK(?)")) {
+                    unlock.setString(1, LOCK_NAME);
+                    unlock.executeQuery().close();
+                }
+            }
+        }
+    }
+
+    private static Set<Integer> productsOnOrder(Connection conn) throws SQLException {
+        Set<Integer> productIds = new HashSet<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT DISTINCT l.product_id FROM purchase_order_lines l "
+                     + "JOIN purchase_orders o ON o.id = l.order_id WHERE o.status = 'PENDING'")) {
+            while (rs.next()) {
+                productIds.add(rs.getInt(1));
+            }
+        }
+        return productIds;
+    }
+
+    // The orders go in as one multi-row insert and come back with their ids in the same order
+    private static int write(Connection conn, Plan plan) throws SQLException {
+        if (plan.orders().isEmpty()) {
+            return 0;
+        }
+        conn.setAutoCommit(false);
+        try {
+            List<Integer> orderIds = new ArrayList<>(plan.orders().size());
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                    "INSERT INTO purchase_orders (supplier_id, status, total_cost) VALUES (?, 'PENDING', ?)",
+                    Statement.RETURN_GENERATED_KEYS)) {
+                for (Order order : plan.orders()) {
+                    double total = 0;
+                    for (Line line : order.lines()) {
+                        if (!Double.isNaN(line.unitCost())) {
+                            total += line.unitCost() * line.quantity();
+                        }
+                    }
+                    pstmt.setInt(1, order.supplierId());
+                    pstmt.setDouble(2, total);
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+                try (ResultSet keys = pstmt.getGeneratedKeys()) {
+                    while (keys.next()) {
+                        orderIds.add(keys.getInt(1));
+                    }
+                }
+            }
+            if (orderIds.size() != plan.orders().size()) {
+                throw new SQLException("Expected " + plan.orders().size() + " order ids, got " + orderIds.size());
+            }
+
+            int lines = 0;
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                    "INSERT INTO purchase_order_lines (order_id, product_id, quantity, unit_cost) VALUES (?, ?, ?, ?)")) {
+                int batched = 0;
+                for (int i = 0; i < plan.orders().size(); i++) {
+                    for (Line line : plan.orders().get(i).lines()) {
+                        pstmt.setInt(1, orderIds.get(i));
+                        pstmt.setInt(2, line.productId());
+                        pstmt.setInt(3, line.quantity());
+                        if (Double.isNaN(line.unitCost())) {
+                            pstmt.setNull(4, Types.DECIMAL);
+                        } else {
+                            pstmt.setDouble(4, line.unitCost());
+                        }
+                        pstmt.addBatch();
+                        lines++;
+                        if (++batched == BATCH_SIZE) {
+                            pstmt.executeBatch();
+                            batched = 0;
+                        }
+                    }
+                }
+                if (batched > 0) {
+                    pstmt.executeBatch();
+                }
+            }
+            conn.commit();
+            return lines;
+        } catch (SQLException | RuntimeException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    // Oldest first
+    public static List<Pending> pending(Connection conn) throws SQLException {
+        List<Pending> orders = new ArrayList<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("""
+                     SELECT o.id, o.supplier_id, s.name, o.created_at, COUNT(l.product_id), COALESCE(SUM(l.quantity), 0),
+                            o.total_cost
+                     FROM purchase_orders o
+                     LEFT JOIN suppliers s ON s.id = o.supplier_id
+                     LEFT JOIN purchase_order_lines l ON l.order_id = o.id
+                     WHERE o.status = 'PENDING'
+                     GROUP BY o.id, o.supplier_id, s.name, o.created_at, o.total_cost
+                     ORDER BY o.created_at, o.id""")) {
+            while (rs.next()) {
+                orders.add(new Pending(rs.getInt(1), rs.getInt(2), rs.getString(3), rs.getTimestamp(4), rs.getInt(5),
+                        rs.getLong(6), rs.getDouble(7)));
+            }
+        }
+        return orders;
+    }
+
+    // Books the delivered quantities into stock and closes the order; false if it was no
+    // longer pending (received or cancelled elsewhere)
+    public static boolean receive(Connection conn, int orderId) throws SQLException {
+        conn.setAutoCommit(false);
+        try {
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                    "UPDATE purchase_orders SET status = 'RECEIVED', received_at = NOW() WHERE id = ? AND status = 'PENDING'")) {
+                pstmt.setInt(1, orderId);
+                if (pstmt.executeUpdate() == 0) {
+                    conn.rollback();
+                    return false;
+                }
+            }
+            try (PreparedStatement pstmt = conn.prepareStatement("UPDATE products p JOIN purchase_order_lines l "
+                    + "ON l.product_id = p.id SET p.quantity = p.quantity + l.quantity WHERE l.order_id = ?")) {
+                pstmt.setInt(1, orderId);
+                pstmt.executeUpdate();
+            }
+            conn.commit();
+            return true;
+        } catch (SQLException | RuntimeException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+}
@@ -0,0 +1,661 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+// Local write-ahead log for sales. A checkout is done once its entry has been forced to this
+// memory-mapped file; a background drainer then applies entries to MySQL in batches, so a
+// slow or unreachable database delays the books, not the customer. Every sale carries a UUID
+// that is recorded in sale_journal_applied in the same transaction as the sale, so entries
+// replayed after a crash are skipped if they had already made it.
+//
+// Single till only. A journaled sale is checked against this process's catalog less its own
+// pending units, and the drainer then takes the units off whatever the row says, so a second
+// till process selling the same product would not be seen in time and the row goes negative.
+// The journal therefore takes sales only when the deployment says this is the one till
+// (-Dsmartshop.journal.singleTill=true), and then only while this process holds a MySQL named
+// lock, so a second process started with the same setting sells directly instead. Without the
+// setting the journal only drains what an earlier run left behind and every sale goes to
+// MySQL with the conditional UPDATE.
+//
+// File layout: a header (magic, format version, drained offset) followed by entries of
+// [payload length][CRC32 of payload][payload], terminated by a zero length. A payload is the
+// sale UUID, its time, the customer id (-1 for none), the line count and per line the product
+// id, quantity and total price. Once everything has been drained the journal starts again from the top of the file.
+public class SaleJournal {
+    private static final int MAGIC = 0x534A524E;  // "SJRN"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int DRAINED_OFFSET_POSITION = 8;
+    private static final int ENTRY_OVERHEAD = 8;
+    private static final int FIXED_PAYLOAD = 32;
+    private static final int NO_CUSTOMER = -1;
+    private static final int DEFAULT_SIZE = 64 << 20;  // ~1M baskets of a few lines
+    private static final int DRAIN_BATCH_SIZE = 200;
+    private static final long MIN_RETRY_DELAY_MS = 1_000;
+    private static final long MAX_RETRY_DELAY_MS = 30_000;
+    private static final boolean SINGLE_TILL = Boolean.getBoolean("smartshop.journal.singleTill");
+    private static final String TILL_LOCK = "shopping_system_sale_journal";
+    private static final long LOCK_CHECK_MS = 5_000;
+
+    private static SaleJournal instance;
+
+    public record Line(int productId, int quantity, double totalPrice) {
+    }
+
+    // customerId is null for an anonymous sale
+    public record Sale(Integer customerId, List<Line> lines) {
+    }
+
+    public record Entry(UUID saleId, long epochMillis, Integer customerId, List<Line> lines) {
+    }
+
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    // File offsets; all guarded by this. drained <= durable <= write
+    private int writePosition;
+    private int durablePosition;
+    private int drainedPosition;
+    // Sequence numbers let a waiting till tell whether a force covered its entry even if the
+    // journal has wrapped since; guarded by this
+    private long appendedSequence = 0;
+    private long durableSequence = 0;
+    private boolean forcing = false;
+    // Units sold through the journal but not yet applied to products, per product
+    private final Map<Integer, Integer> pendingQuantities = new ConcurrentHashMap<>();
+    // Lines applied to the database whose units stay pending until the catalog has been
+    // refreshed past them; drainer thread only
+    private final List<Line> unreleased = new ArrayList<>();
+    // Whether new sales may be journaled; always for a private journal (tests, load
+    // generator), for the shared one see takeTillLock()
+    private volatile boolean acceptingSales = true;
+    // Holds the named lock for as long as it stays open; drainer thread only after opening
+    private Connection tillLock;
+    private long tillLockCheckedMillis;
+
+    // The journal lives next to the application unless -Dsmartshop.journal points elsewhere
+    public static synchronized SaleJournal getInstance() throws IOException {
+        if (instance == null) {
+            instance = new SaleJournal(journalPath(), DEFAULT_SIZE);
+            instance.acceptingSales = SINGLE_TILL && instance.takeTillLock();
+            instance.startDrainer();
+        }
+        return instance;
+    }
+
+    // Whether a till should open the shared journal at all: to sell through it, or to drain
+    // what an earlier run left behind
+    public static boolean wanted() {
+        return SINGLE_TILL || Files.exists(journalPath());
+    }
+
+    private static Path journalPath() {
+        return Paths.get(System.getProperty("smartshop.journal", "sale-journal.dat"));
+    }
+
+    // The shared journal if something has opened it, otherwise null; for monitoring
+    public static synchronized SaleJournal ifOpen() {
+        return instance;
+    }
+
+    SaleJournal(Path path, int size) throws IOException {
+        this.path = path;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            // The mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, channel.size()));
+        }
+        recover();
+    }
+
+    // Finds the entries that were journaled but not yet applied. A torn or half-written entry
+    // fails its checksum and ends the scan, since nothing after it was ever acknowledged.
+    private void recover() {
+        if (buffer.getInt(0) != MAGIC) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, FORMAT_VERSION);
+            buffer.putInt(DRAINED_OFFSET_POSITION, HEADER_SIZE);
+            buffer.putInt(HEADER_SIZE, 0);
+            buffer.force();
+        } else if (buffer.getInt(4) != FORMAT_VERSION) {
+            throw new IllegalStateException("Unsupported sale journal version " + buffer.getInt(4) + " in " + path);
+        }
+
+        int position = buffer.getInt(DRAINED_OFFSET_POSITION);
+        if (position < HEADER_SIZE || position > buffer.capacity()) {
+            position = HEADER_SIZE;
+        }
+        drainedPosition = position;
+        int recovered = 0;
+        Entry entry;
+        while ((entry = readEntry(position)) != null) {
+            for (Line line : entry.lines()) {
+                pendingQuantities.merge(line.productId(), line.quantity(), Integer::sum);
+                LowStockMonitor.getInstance().pendingChanged(line.productId(), line.quantity());
+            }
+            position += entrySize(position);
+            recovered++;
+        }
+        writePosition = position;
+        durablePosition = position;
+        if (position + 4 <= buffer.capacity()) {
+            buffer.putInt(position, 0);
+        }
+        if (recovered > 0) {
+            System.out.println("Sale journal: replaying " + recovered + " sale(s) not yet applied to the database");
+        }
+    }
+
+    // False when this till must sell directly: not declared the only till, or another process
+    // holds the journal
+    public boolean acceptsSales() {
+        return acceptingSales;
+    }
+
+    // Takes the named lock on a connection kept for the purpose. A till that cannot reach the
+    // database still journals, as the deployment has declared it the only one; it takes the
+    // lock once the database is back.
+    private boolean takeTillLock() {
+        tillLockCheckedMillis = System.currentTimeMillis();
+        Connection conn = null;
+        try {
+            conn = DatabaseConnection.openDedicated();
+            try (PreparedStatement pstmt = conn.prepareStatement("SELECT GET_LOCK(?, 0)")) {
+                pstmt.setString(1, TILL_LOCK);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (rs.next() && rs.getInt(1) == 1) {
+                        tillLock = conn;
+                        return true;
+                    }
+                }
+            }
+            conn.close();
+            System.err.println("Sale journal: another till holds " + TILL_LOCK + "; this one sells directly");
+            return false;
+        } catch (SQLException e) {
+            closeQuietly(conn);
+            tillLock = null;
+            return true;
+        }
+    }
+
+    // Every LOCK_CHECK_MS on the drainer: if the lock's connection was lost (MySQL restarted)
+    // the lock went with it, so take it again, and stop journaling if another till got it first
+    private void checkTillLock() {
+        if (!SINGLE_TILL || !acceptingSales || System.currentTimeMillis() - tillLockCheckedMillis < LOCK_CHECK_MS) {
+            return;
+        }
+        try {
+            if (tillLock != null && tillLock.isValid(2)) {
+                tillLockCheckedMillis = System.currentTimeMillis();
+                return;
+            }
+        } catch (SQLException e) {
+            // Treated as lost
+        }
+        closeQuietly(tillLock);
+        tillLock = null;
+        acceptingSales = takeTillLock();
+    }
+
+    private static void closeQuietly(Connection conn) {
+        if (conn != null) {
+            try {
+                conn.close();
+            } catch (SQLException e) {
+                // Already broken
+            }
+        }
+    }
+
+    private void startDrainer() {
+        Thread drainer = new Thread(this::drainLoop, "sale-journal-drainer");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    // Appends the sale and returns once it is on disk. Returns null when the journal is full,
+    // i.e. the database has been unreachable for a long time; the caller then sells directly.
+    public UUID append(Sale sale) throws IOException {
+        List<UUID> saleIds = appendAll(List.of(sale));
+        return saleIds == null ? null : saleIds.get(0);
+    }
+
+    // Appends several sales with a single force; either all of them fit or none is written
+    public List<UUID> appendAll(List<Sale> sales) throws IOException {
+        long now = System.currentTimeMillis();
+        List<Entry> entries = new ArrayList<>(sales.size());
+        List<byte[]> payloads = new ArrayList<>(sales.size());
+        List<UUID> saleIds = new ArrayList<>(sales.size());
+        int needed = 0;
+        for (Sale sale : sales) {
+            Entry entry = new Entry(UUID.randomUUID(), now, sale.customerId(), List.copyOf(sale.lines()));
+            byte[] payload = encode(entry);
+            entries.add(entry);
+            payloads.add(payload);
+            saleIds.add(entry.saleId());
+            needed += ENTRY_OVERHEAD + payload.length;
+        }
+
+        long sequence;
+        synchronized (this) {
+            if (writePosition + needed + 4 > buffer.capacity()) {
+                return null;
+            }
+            for (int i = 0; i < entries.size(); i++) {
+                byte[] payload = payloads.get(i);
+                int end = writePosition + ENTRY_OVERHEAD + payload.length;
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                // Terminator first and length last, so a reader never sees a length without its payload
+                buffer.putInt(end, 0);
+                buffer.put(writePosition + ENTRY_OVERHEAD, payload);
+                buffer.putInt(writePosition + 4, (int) crc.getValue());
+                buffer.putInt(writePosition, payload.length);
+                writePosition = end;
+                for (Line line : entries.get(i).lines()) {
+                    pendingQuantities.merge(line.productId(), line.quantity(), Integer::sum);
+                }
+            }
+            sequence = ++appendedSequence;
+        }
+        // Outside the lock: the monitor may raise alerts from here
+        LowStockMonitor lowStock = LowStockMonitor.getInstance();
+        for (Entry entry : entries) {
+            for (Line line : entry.lines()) {
+                lowStock.pendingChanged(line.productId(), line.quantity());
+            }
+        }
+        awaitDurable(sequence);
+        return saleIds;
+    }
+
+    // Group commit: one till forces the file while the others wait, and that single force
+    // covers every entry appended before it started, so a rush costs few fsyncs
+    private void awaitDurable(long sequence) throws IOException {
+        while (true) {
+            long targetSequence;
+            int targetPosition;
+            synchronized (this) {
+                while (forcing && durableSequence < sequence) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted waiting for the sale journal");
+                    }
+                }
+                if (durableSequence >= sequence) {
+                    return;
+                }
+                forcing = true;
+                targetSequence = appendedSequence;
+                targetPosition = writePosition;
+            }
+
+            boolean forced = false;
+            try {
+                buffer.force();
+                forced = true;
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                synchronized (this) {
+                    forcing = false;
+                    if (forced) {
+                        durableSequence = targetSequence;
+                        durablePosition = targetPosition;
+                    }
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    // Units of the product sold but not yet taken off products.quantity
+    public int pendingQuantity(int productId) {
+        return pendingQuantities.getOrDefault(productId, 0);
+    }
+
+    public synchronized int pendingBytes() {
+        return writePosition - drainedPosition;
+    }
+
+    private void drainLoop() {
+        long retryDelay = MIN_RETRY_DELAY_MS;
+        while (true) {
+            checkTillLock();
+            List<Entry> batch = new ArrayList<>();
+            int end;
+            synchronized (this) {
+                if (drainedPosition == durablePosition && unreleased.isEmpty()) {
+                    // Woken by a force; when idle, only to check the lock again
+                    try {
+                        wait(LOCK_CHECK_MS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                end = drainedPosition;
+                while (end < durablePosition && batch.size() < DRAIN_BATCH_SIZE) {
+                    Entry entry = readEntry(end);
+                    batch.add(entry);
+                    end += entrySize(end);
+                }
+            }
+
+            if (!batch.isEmpty()) {
+                try {
+                    apply(batch);
+                    retryDelay = MIN_RETRY_DELAY_MS;
+                } catch (SQLException | RuntimeException e) {
+                    System.err.println("Sale journal: database unavailable, retrying in " + retryDelay + " ms: " + e.getMessage());
+                    if (!sleep(retryDelay)) {
+                        return;
+                    }
+                    retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY_MS);
+                    continue;
+                }
+                for (Entry entry : batch) {
+                    unreleased.addAll(entry.lines());
+                }
+            }
+
+            if (releaseApplied()) {
+                retryDelay = MIN_RETRY_DELAY_MS;
+            } else {
+                if (!sleep(retryDelay)) {
+                    return;
+                }
+                retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY_MS);
+            }
+            if (batch.isEmpty()) {
+                continue;
+            }
+
+            synchronized (this) {
+                drainedPosition = end;
+                if (drainedPosition == writePosition && !forcing) {
+                    // Caught up: start again from the top so the file never needs to grow
+                    writePosition = HEADER_SIZE;
+                    durablePosition = HEADER_SIZE;
+                    drainedPosition = HEADER_SIZE;
+                    buffer.putInt(HEADER_SIZE, 0);
+                }
+                // Not forced: if this is lost, replay finds the sales already applied and skips them
+                buffer.putInt(DRAINED_OFFSET_POSITION, drainedPosition);
+            }
+        }
+    }
+
+    // The applied units leave the journal and show up in products.quantity in two steps. The
+    // catalog is refreshed first and the pending units released only if that worked: released
+    // against stale quantities, units already sold would count as available again until the
+    // next poll. Low-stock alerts wait for both steps so the sale is not counted twice in
+    // between. Returns false if the refresh failed; the units then stay pending.
+    private boolean releaseApplied() {
+        if (unreleased.isEmpty()) {
+            return true;
+        }
+        LowStockMonitor lowStock = LowStockMonitor.getInstance();
+        lowStock.holdAlerts();
+        Set<Integer> productIds = new HashSet<>();
+        try {
+            try {
+                ProductCatalog.getInstance().refresh();
+            } catch (SQLException | RuntimeException e) {
+                System.err.println("Sale journal: could not refresh the catalog, keeping " + unreleased.size()
+                        + " applied line(s) pending: " + e.getMessage());
+                return false;
+            }
+            for (Line line : unreleased) {
+                productIds.add(line.productId());
+                pendingQuantities.computeIfPresent(line.productId(),
+                        (id, pending) -> pending == line.quantity() ? null : pending - line.quantity());
+                lowStock.pendingChanged(line.productId(), -line.quantity());
+            }
+            unreleased.clear();
+        } finally {
+            lowStock.releaseAlerts();
+        }
+        EventBus.getInstance().publish(new EventBus.StockChanged(productIds));
+        return true;
+    }
+
+    private static boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+    // Applies a batch of sales in one transaction, skipping any whose UUID is already recorded
+    private void apply(List<Entry> batch) throws SQLException {
+        SchemaMigrator.ensureMigrated();
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                Set<String> applied = alreadyApplied(conn, batch);
+                List<Entry> fresh = new ArrayList<>();
+                for (Entry entry : batch) {
+                    if (!applied.contains(entry.saleId().toString())) {
+                        fresh.add(entry);
+                    }
+                }
+                if (fresh.isEmpty()) {
+                    conn.rollback();
+                    return;
+                }
+
+                // A customer id mistyped at the till must not hold up the sale
+                Map<UUID, Integer> customers = new HashMap<>();
+                for (Entry entry : fresh) {
+                    Integer customerId = entry.customerId();
+                    if (customerId != null && !CustomerStats.customerExists(conn, customerId)) {
+                        System.err.println("Sale journal: sale " + entry.saleId() + " names unknown customer #"
+                                + customerId + "; recorded without a customer");
+                        customerId = null;
+                    }
+                    customers.put(entry.saleId(), customerId);
+                }
+
+                // The goods have already left the store, so the units come off whatever the row
+                // says. With one till the row cannot go below zero; if it does, another process
+                // sold without going through this journal's lock, and reportOversold says so.
+                Set<Integer> missingProducts = new HashSet<>();
+                Set<Integer> soldProducts = new HashSet<>();
+                String updateQuery = "UPDATE products SET quantity = quantity - ? WHERE id = ?";
+                try (PreparedStatement updateStmt = conn.prepareStatement(updateQuery)) {
+                    for (Entry entry : fresh) {
+                        for (Line line : entry.lines()) {
+                            updateStmt.setInt(1, line.quantity());
+                            updateStmt.setInt(2, line.productId());
+                            updateStmt.addBatch();
+                        }
+                    }
+                    int[] counts = updateStmt.executeBatch();
+                    int index = 0;
+                    for (Entry entry : fresh) {
+                        for (Line line : entry.lines()) {
+                            if (counts[index++] != 0) {
+                                soldProducts.add(line.productId());
+                                continue;
+                            }
+                            missingProducts.add(line.productId());
+                            System.err.println("Sale journal: sale " + entry.saleId() + " refers to deleted product #"
+                                    + line.productId() + "; not recorded in sales_history");
+                        }
+                    }
+                }
+                reportOversold(conn, soldProducts);
+
+                String insertSaleQuery = "INSERT INTO sales_history (product_id, quantity_sold, sale_date, total_price, customer_id) "
+                        + "VALUES (?, ?, ?, ?, ?)";
+                try (PreparedStatement insertStmt = conn.prepareStatement(insertSaleQuery)) {
+                    for (Entry entry : fresh) {
+                        Integer customerId = customers.get(entry.saleId());
+                        for (Line line : entry.lines()) {
+                            if (missingProducts.contains(line.productId())) {
+                                continue;
+                            }
+                            insertStmt.setInt(1, line.productId());
+                            insertStmt.setInt(2, line.quantity());
+                            insertStmt.setTimestamp(3, new Timestamp(entry.epochMillis()));
+                            insertStmt.setDouble(4, line.totalPrice());
+                            insertStmt.setObject(5, customerId, Types.INTEGER);
+                            insertStmt.addBatch();
+                        }
+                    }
+                    insertStmt.executeBatch();
+                }
+
+                try (PreparedStatement markStmt = conn.prepareStatement("INSERT INTO sale_journal_applied (sale_uuid) VALUES (?)")) {
+                    for (Entry entry : fresh) {
+                        markStmt.setString(1, entry.saleId().toString());
+                        markStmt.addBatch();
+                    }
+                    markStmt.executeBatch();
+                }
+
+                for (Entry entry : fresh) {
+                    double total = 0;
+                    int itemCount = 0;
+                    for (Line line : entry.lines()) {
+                        total += line.totalPrice();
+                        itemCount += line.quantity();
+                    }
+                    Timestamp saleDate = new Timestamp(entry.epochMillis());
+                    Integer customerId = customers.get(entry.saleId());
+                    SalesRollups.recordSale(conn, saleDate, total, itemCount, customerId);
+                    if (customerId != null) {
+                        CustomerStats.recordVisit(conn, customerId, saleDate, entry.lines());
+                    }
+                }
+
+                conn.commit();
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    private static void reportOversold(Connection conn, Set<Integer> productIds) throws SQLException {
+        if (productIds.isEmpty()) {
+            return;
+        }
+        StringBuilder query = new StringBuilder("SELECT id, quantity FROM products WHERE quantity < 0 AND id IN (");
+        for (int i = 0; i < productIds.size(); i++) {
+            query.append(i == 0 ? "?" : ", ?");
+        }
+        query.append(")");
+        try (PreparedStatement pstmt = conn.prepareStatement(query.toString())) {
+            int index = 1;
+            for (int productId : productIds) {
+                pstmt.setInt(index++, productId);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    System.err.println("Sale journal: product #" + rs.getInt(1) + " oversold; stock is now "
+                            + rs.getInt(2));
+                }
+            }
+        }
+    }
+
+    private static Set<String> alreadyApplied(Connection conn, List<Entry> batch) throws SQLException {
+        StringBuilder query = new StringBuilder("SELECT sale_uuid FROM sale_journal_applied WHERE sale_uuid IN (");
+        for (int i = 0; i < batch.size(); i++) {
+            query.append(i == 0 ? "?" : ", ?");
+        }
+        query.append(")");
+
+        Set<String> applied = new HashSet<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(query.toString())) {
+            int index = 1;
+            for (Entry entry : batch) {
+                pstmt.setString(index++, entry.saleId().toString());
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    applied.add(rs.getString(1));
+                }
+            }
+        }
+        return applied;
+    }
+
+    private static byte[] encode(Entry entry) {
+        ByteBuffer payload = ByteBuffer.allocate(FIXED_PAYLOAD + 16 * entry.lines().size());
+        payload.putLong(entry.saleId().getMostSignificantBits());
+        payload.putLong(entry.saleId().getLeastSignificantBits());
+        payload.putLong(entry.epochMillis());
+        payload.putInt(entry.customerId() == null ? NO_CUSTOMER : entry.customerId());
+        payload.putInt(entry.lines().size());
+        for (Line line : entry.lines()) {
+            payload.putInt(line.productId());
+            payload.putInt(line.quantity());
+            payload.putDouble(line.totalPrice());
+        }
+        return payload.array();
+    }
+
+    private int entrySize(int position) {
+        return ENTRY_OVERHEAD + buffer.getInt(position);
+    }
+
+    // Returns null at the end of the log or at an entry that did not survive intact
+    private Entry readEntry(int position) {
+        if (position + ENTRY_OVERHEAD > buffer.capacity()) {
+            return null;
+        }
+        int length = buffer.getInt(position);
+        if (length < FIXED_PAYLOAD || (length - FIXED_PAYLOAD) % 16 != 0 || position + ENTRY_OVERHEAD + length > buffer.capacity()) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        buffer.get(position + ENTRY_OVERHEAD, payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+            return null;
+        }
+
+        ByteBuffer in = ByteBuffer.wrap(payload);
+        UUID saleId = new UUID(in.getLong(), in.getLong());
+        long epochMillis = in.getLong();
+        int customerId = in.getInt();
+        int lineCount = in.getInt();
+        if (lineCount != (length - FIXED_PAYLOAD) / 16) {
+            return null;
+        }
+        List<Line> lines = new ArrayList<>(lineCount);
+        for (int i = 0; i < lineCount; i++) {
+            lines.add(new Line(in.getInt(), in.getInt(), in.getDouble()));
+        }
+        return new Entry(saleId, epochMillis, customerId == NO_CUSTOMER ? null : customerId, lines);
+    }
+}
@@ -0,0 +1,173 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// Collects checkouts from every till in the process and commits them in small groups, so a
+// rush pays one commit (or one journal force) per group instead of one per basket. The queue
+// is bounded: when it is full, submit() refuses the basket and the till asks the cashier to
+// retry instead of piling up sales nobody is waiting for.
+public class SalePipeline {
+    // Defaults; override with -Dsmartshop.pipeline.maxBatch / .lingerMs / .queueCapacity
+    private static final int DEFAULT_MAX_BATCH = 32;
+    private static final long DEFAULT_LINGER_MS = 5;
+    private static final int DEFAULT_QUEUE_CAPACITY = 256;
+
+    private static SalePipeline instance;
+
+    private record Request(SaleService.Basket basket, CompletableFuture<SaleService.CheckoutResult> result,
+                           long submittedNanos, FlightEvents.Sale event) {
+    }
+
+    private final SaleService saleService;
+    private final int maxBatch;
+    private final long lingerNanos;
+    private final BlockingQueue<Request> queue;
+
+    // Shared by all tills, selling through the sale journal
+    public static synchronized SalePipeline getInstance() {
+        if (instance == null) {
+            instance = new SalePipeline(SaleService.journaled(),
+                    Integer.getInteger("smartshop.pipeline.maxBatch", DEFAULT_MAX_BATCH),
+                    Long.getLong("smartshop.pipeline.lingerMs", DEFAULT_LINGER_MS),
+                    Integer.getInteger("smartshop.pipeline.queueCapacity", DEFAULT_QUEUE_CAPACITY));
+        }
+        return instance;
+    }
+
+    // The shared pipeline if a till has started it, otherwise null; for monitoring
+    public static synchronized SalePipeline ifStarted() {
+        return instance;
+    }
+
+    public SalePipeline(SaleService saleService, int maxBatch, long lingerMillis, int queueCapacity) {
+        if (maxBatch < 1 || lingerMillis < 0 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Invalid pipeline settings: maxBatch=" + maxBatch
+                    + ", lingerMs=" + lingerMillis + ", queueCapacity=" + queueCapacity);
+        }
+        this.saleService = saleService;
+        this.maxBatch = maxBatch;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        Thread committer = new Thread(this::commitLoop, "sale-pipeline");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    // Never blocks. Returns null when the queue is full; otherwise the future completes with
+    // the basket's result, or exceptionally with the SQLException that failed it. customerId
+    // is null for an anonymous sale.
+    public CompletableFuture<SaleService.CheckoutResult> submit(Integer customerId, List<SaleService.CartLine> basket) {
+        FlightEvents.Sale event = new FlightEvents.Sale();
+        event.begin();
+        Request request = new Request(new SaleService.Basket(customerId, List.copyOf(basket)), new CompletableFuture<>(),
+                System.nanoTime(), event);
+        return queue.offer(request) ? request.result() : null;
+    }
+
+    public int queuedSales() {
+        return queue.size();
+    }
+
+    private void commitLoop() {
+        List<Request> batch = new ArrayList<>(maxBatch);
+        while (true) {
+            try {
+                batch.add(queue.take());
+                // Give other tills a moment to join this group, but never longer than the linger
+                long deadline = System.nanoTime() + lingerNanos;
+                while (batch.size() < maxBatch) {
+                    Request next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                for (Request request : batch) {
+                    request.result().cancel(false);
+                }
+                return;
+            }
+
+            commit(batch);
+            batch.clear();
+        }
+    }
+
+    private void commit(List<Request> batch) {
+        List<SaleService.Basket> baskets = new ArrayList<>(batch.size());
+        for (Request request : batch) {
+            baskets.add(request.basket());
+        }
+        long start = System.nanoTime();
+        try {
+            List<SaleService.CheckoutResult> results = saleService.checkoutAll(baskets);
+            long dbNanos = System.nanoTime() - start;
+            for (int i = 0; i < batch.size(); i++) {
+                finish(batch.get(i), results.get(i), null, start, dbNanos, batch.size());
+            }
+        } catch (SaleService.OutcomeUnknownException e) {
+            // The group may have been recorded, so a retry could sell every basket twice
+            long dbNanos = System.nanoTime() - start;
+            for (Request request : batch) {
+                finish(request, null, e, start, dbNanos, batch.size());
+            }
+        } catch (Exception e) {
+            if (batch.size() == 1) {
+                finish(batch.get(0), null, e, start, System.nanoTime() - start, 1);
+                return;
+            }
+            // Something in the group broke the transaction before it was committed; retry one
+            // by one so only the offending basket fails
+            for (Request request : batch) {
+                long retryStart = System.nanoTime();
+                try {
+                    SaleService.CheckoutResult result = saleService.checkoutAll(List.of(request.basket())).get(0);
+                    finish(request, result, null, start, System.nanoTime() - start, 1);
+                } catch (Exception single) {
+                    finish(request, null, single, start, System.nanoTime() - retryStart, 1);
+                }
+            }
+        }
+    }
+
+    // Completes the till's future and records the sale for the flight recorder. Database time
+    // is the group's commit; for a basket retried alone it runs from the failed group attempt
+    // to the end of its own retry.
+    private static void finish(Request request, SaleService.CheckoutResult result, Exception error,
+                               long committedNanos, long dbNanos, int groupSize) {
+        FlightEvents.Sale event = request.event();
+        event.end();
+        if (event.shouldCommit()) {
+            SaleService.Basket basket = request.basket();
+            StringBuilder products = new StringBuilder();
+            int items = 0;
+            for (SaleService.CartLine line : basket.lines()) {
+                if (products.length() > 0) {
+                    products.append(", ");
+                }
+                products.append(line.productId()).append(" x ").append(line.quantity());
+                items += line.quantity();
+            }
+            event.customerId = basket.customerId() == null ? -1 : basket.customerId();
+            event.lines = basket.lines().size();
+            event.items = items;
+            event.products = products.toString();
+            event.outcome = error != null ? "ERROR" : result.status().name();
+            event.groupSize = groupSize;
+            event.queueWait = committedNanos - request.submittedNanos();
+            event.dbTime = dbNanos;
+            event.commit();
+        }
+
+        if (error != null) {
+            request.result().completeExceptionally(error);
+        } else {
+            request.result().complete(result);
+        }
+    }
+}
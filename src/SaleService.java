@@ -0,0 +1,475 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Sale logic shared by every till, kept free of Swing so it can run headless
+public class SaleService {
+    // Shared by all tills in this process so two panels selling the same product queue
+    // here instead of on the row lock in MySQL
+    private static final StripedLock STOCK_LOCKS = new StripedLock(64);
+
+    public enum Status { OK, INSUFFICIENT_STOCK, NOT_FOUND }
+
+    public record SaleResult(Status status, int productId, String name, int quantity, double totalPrice) {
+        public boolean isSuccess() {
+            return status == Status.OK;
+        }
+    }
+
+    public record CartLine(int productId, int quantity) {
+    }
+
+    // customerId is null for an anonymous sale
+    public record Basket(Integer customerId, List<CartLine> lines) {
+    }
+
+    // failedProductId is only meaningful when status is not OK
+    public record CheckoutResult(Status status, int failedProductId, List<SaleResult> lines, double total) {
+        public boolean isSuccess() {
+            return status == Status.OK;
+        }
+    }
+
+    // The sale was sent but it is not known whether it was recorded: the connection broke
+    // during the commit, or the journal entry was written but could not be forced. Must not
+    // be retried automatically, or the baskets may be sold twice.
+    public static final class OutcomeUnknownException extends SQLException {
+        public OutcomeUnknownException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    // Prepared once per SaleWorker connection and reused for every sale
+    private static final String DECREMENT_STOCK = "UPDATE products SET quantity = quantity - ? WHERE id = ? AND quantity >= ?";
+    private static final String INSERT_SALE = "INSERT INTO sales_history (product_id, quantity_sold, sale_date, total_price, customer_id) "
+            + "VALUES (?, ?, NOW(), ?, ?)";
+
+    // null when sales go straight to the database
+    private final SaleJournal journal;
+
+    public SaleService() {
+        this(null);
+    }
+
+    public SaleService(SaleJournal journal) {
+        this.journal = journal;
+    }
+
+    // Sales go to the local journal first and reach MySQL in the background, when this is the
+    // only till (see SaleJournal); otherwise, or if the journal cannot be opened, the till
+    // sells directly against the database as before
+    public static SaleService journaled() {
+        if (!SaleJournal.wanted()) {
+            return new SaleService();
+        }
+        try {
+            return new SaleService(SaleJournal.getInstance());
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            return new SaleService();
+        }
+    }
+
+    // Sells a whole basket in one transaction. Lines for the same product are merged, all
+    // decrements go out as one JDBC batch and all sales_history rows as another, so the
+    // round trips stay constant no matter how many items were scanned.
+    public CheckoutResult checkout(List<CartLine> cart) throws SQLException {
+        return checkout(null, cart);
+    }
+
+    // As above, crediting the sale to the customer's purchase totals; an id that does not
+    // match a customer is sold anonymously rather than refused
+    public CheckoutResult checkout(Integer customerId, List<CartLine> cart) throws SQLException {
+        return checkoutAll(List.of(new Basket(customerId, cart))).get(0);
+    }
+
+    // Sells several independent baskets with a single commit (or a single journal force),
+    // one result per basket in order. A basket that fails its stock check does not affect
+    // the others; an exception fails the whole group. Any exception but
+    // OutcomeUnknownException means nothing was recorded, so the baskets may be sold again.
+    public List<CheckoutResult> checkoutAll(List<Basket> baskets) throws SQLException {
+        List<CheckoutResult> results = sellAll(baskets);
+        try {
+            for (CheckoutResult result : results) {
+                if (result.isSuccess() && !result.lines().isEmpty()) {
+                    Set<Integer> productIds = new HashSet<>();
+                    for (SaleResult line : result.lines()) {
+                        productIds.add(line.productId());
+                    }
+                    EventBus.getInstance().publish(new EventBus.SaleCompleted(productIds, result.total()));
+                }
+            }
+        } catch (RuntimeException e) {
+            // Recorded already; a failing subscriber must not make the caller sell it again
+            e.printStackTrace();
+        }
+        return results;
+    }
+
+    private List<CheckoutResult> sellAll(List<Basket> baskets) throws SQLException {
+        List<Map<Integer, Integer>> merged = new ArrayList<>();
+        Set<Integer> allProductIds = new HashSet<>();
+        for (Basket basket : baskets) {
+            Map<Integer, Integer> quantities = new LinkedHashMap<>();
+            for (CartLine line : basket.lines()) {
+                if (line.quantity() <= 0) {
+                    throw new IllegalArgumentException("Quantity must be positive: " + line.quantity());
+                }
+                quantities.merge(line.productId(), line.quantity(), Integer::sum);
+            }
+            merged.add(quantities);
+            allProductIds.addAll(quantities.keySet());
+        }
+        int[] productIds = allProductIds.stream().mapToInt(Integer::intValue).toArray();
+
+        if (journal != null && journal.acceptsSales()) {
+            List<CheckoutResult> results = checkoutToJournal(baskets, merged, productIds);
+            if (results != null) {
+                return results;
+            }
+            // Journal full: the database has been away a long time, so wait on it directly
+        }
+
+        SchemaMigrator.ensureMigrated();
+        List<ReentrantLock> locks = STOCK_LOCKS.forKeys(productIds);
+        locks.forEach(ReentrantLock::lock);
+        try {
+            // This thread's own connection and statements; nothing is prepared per sale unless a
+            // product is missing from the catalog (see priceLines)
+            List<CheckoutResult> results = SaleWorker.forCurrentThread().inTransaction(worker -> {
+                Connection conn = worker.connection();
+                List<CheckoutResult> sold = new ArrayList<>();
+                for (int i = 0; i < merged.size(); i++) {
+                    Map<Integer, Integer> quantities = merged.get(i);
+                    if (quantities.isEmpty()) {
+                        sold.add(new CheckoutResult(Status.OK, 0, List.of(), 0));
+                        continue;
+                    }
+                    // Undo only this basket if it cannot be sold
+                    Savepoint basketStart = conn.setSavepoint();
+                    CheckoutResult result = sellBasket(worker, journal, baskets.get(i).customerId(), quantities);
+                    if (!result.isSuccess()) {
+                        conn.rollback(basketStart);
+                    }
+                    sold.add(result);
+                }
+                return sold;
+            });
+
+            try {
+                for (CheckoutResult result : results) {
+                    for (SaleResult line : result.lines()) {
+                        ProductCatalog.getInstance().adjustQuantity(line.productId(), -line.quantity());
+                    }
+                }
+            } catch (RuntimeException e) {
+                // Committed; the catalog catches up on its next refresh
+                e.printStackTrace();
+            }
+            return results;
+        } finally {
+            for (int i = locks.size() - 1; i >= 0; i--) {
+                locks.get(i).unlock();
+            }
+        }
+    }
+
+    // Writes one basket inside the caller's transaction; the caller rolls back if it fails.
+    // Units still waiting in the journal are already sold but not yet off the row, so they must
+    // stay on the shelf as well.
+    private static CheckoutResult sellBasket(SaleWorker worker, SaleJournal journal, Integer customerId,
+                                             Map<Integer, Integer> quantities) throws SQLException {
+        Connection conn = worker.connection();
+        Map<Integer, SaleResult> priced = priceLines(conn, quantities);
+        for (int productId : quantities.keySet()) {
+            if (!priced.containsKey(productId)) {
+                return new CheckoutResult(Status.NOT_FOUND, productId, List.of(), 0);
+            }
+        }
+
+        PreparedStatement updateStmt = worker.statement(DECREMENT_STOCK);
+        for (SaleResult line : priced.values()) {
+            updateStmt.setInt(1, line.quantity());
+            updateStmt.setInt(2, line.productId());
+            updateStmt.setInt(3, line.quantity() + (journal == null ? 0 : journal.pendingQuantity(line.productId())));
+            updateStmt.addBatch();
+        }
+        int[] counts = updateStmt.executeBatch();
+        int index = 0;
+        for (SaleResult line : priced.values()) {
+            // SUCCESS_NO_INFO only comes back from drivers that cannot report counts
+            if (counts[index++] == 0) {
+                return new CheckoutResult(Status.INSUFFICIENT_STOCK, line.productId(), List.of(), 0);
+            }
+        }
+
+        if (customerId != null && !CustomerStats.customerExists(worker, customerId)) {
+            customerId = null;
+        }
+
+        PreparedStatement insertStmt = worker.statement(INSERT_SALE);
+        for (SaleResult line : priced.values()) {
+            insertStmt.setInt(1, line.productId());
+            insertStmt.setInt(2, line.quantity());
+            insertStmt.setDouble(3, line.totalPrice());
+            insertStmt.setObject(4, customerId, Types.INTEGER);
+            insertStmt.addBatch();
+        }
+        insertStmt.executeBatch();
+
+        List<SaleResult> lines = new ArrayList<>(priced.values());
+        List<SaleJournal.Line> visit = new ArrayList<>(lines.size());
+        double total = 0;
+        int itemCount = 0;
+        for (SaleResult line : lines) {
+            total += line.totalPrice();
+            itemCount += line.quantity();
+            visit.add(new SaleJournal.Line(line.productId(), line.quantity(), line.totalPrice()));
+        }
+        SalesRollups.recordSale(worker, total, itemCount, customerId);
+        if (customerId != null) {
+            CustomerStats.recordVisit(worker, customerId, visit);
+        }
+        return new CheckoutResult(Status.OK, 0, lines, total);
+    }
+
+    // Checks stock against the catalog less what is still waiting in the journal (and less
+    // earlier baskets of this group), and records all sold baskets with one force; returns
+    // null if the journal has no room left
+    private List<CheckoutResult> checkoutToJournal(List<Basket> baskets, List<Map<Integer, Integer>> merged, int[] productIds)
+            throws SQLException {
+        ProductCatalog catalog = ProductCatalog.getInstance();
+        List<ReentrantLock> locks = STOCK_LOCKS.forKeys(productIds);
+        locks.forEach(ReentrantLock::lock);
+        try {
+            List<CheckoutResult> results = new ArrayList<>();
+            List<SaleJournal.Sale> journaled = new ArrayList<>();
+            Map<Integer, Integer> reserved = new HashMap<>();
+            for (int i = 0; i < merged.size(); i++) {
+                Map<Integer, Integer> quantities = merged.get(i);
+                CheckoutResult result = null;
+                List<SaleResult> lines = new ArrayList<>();
+                List<SaleJournal.Line> journalLines = new ArrayList<>();
+                double total = 0;
+                for (Map.Entry<Integer, Integer> entry : quantities.entrySet()) {
+                    int productId = entry.getKey();
+                    int quantity = entry.getValue();
+                    ProductCatalog.Product product = catalog.get(productId);
+                    if (product == null) {
+                        result = new CheckoutResult(Status.NOT_FOUND, productId, List.of(), 0);
+                        break;
+                    }
+                    int available = product.quantity() - journal.pendingQuantity(productId)
+                            - reserved.getOrDefault(productId, 0);
+                    if (available < quantity) {
+                        result = new CheckoutResult(Status.INSUFFICIENT_STOCK, productId, List.of(), 0);
+                        break;
+                    }
+                    double totalPrice = product.price() * quantity;
+                    lines.add(new SaleResult(Status.OK, productId, product.name(), quantity, totalPrice));
+                    journalLines.add(new SaleJournal.Line(productId, quantity, totalPrice));
+                    total += totalPrice;
+                }
+
+                if (result == null) {
+                    result = new CheckoutResult(Status.OK, 0, lines, total);
+                    if (!journalLines.isEmpty()) {
+                        // The customer is checked when the sale is drained to the database
+                        journaled.add(new SaleJournal.Sale(baskets.get(i).customerId(), journalLines));
+                        for (SaleJournal.Line line : journalLines) {
+                            reserved.merge(line.productId(), line.quantity(), Integer::sum);
+                        }
+                    }
+                }
+                results.add(result);
+            }
+
+            if (journaled.isEmpty()) {
+                return results;
+            }
+            try {
+                return journal.appendAll(journaled) == null ? null : results;
+            } catch (IOException | RuntimeException e) {
+                // The entries are in the file and the drainer may still apply them
+                throw new OutcomeUnknownException("Could not force the sale journal: " + e.getMessage(), e);
+            }
+        } finally {
+            for (int i = locks.size() - 1; i >= 0; i--) {
+                locks.get(i).unlock();
+            }
+        }
+    }
+
+    // Prices the lines from the shared catalog; only products the catalog has not seen yet
+    // (e.g. added on another till since the last poll) are looked up with a single IN query
+    private static Map<Integer, SaleResult> priceLines(Connection conn, Map<Integer, Integer> quantities) throws SQLException {
+        ProductCatalog catalog = ProductCatalog.getInstance();
+        Map<Integer, SaleResult> priced = new LinkedHashMap<>();
+        List<Integer> missing = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> entry : quantities.entrySet()) {
+            ProductCatalog.Product product = catalog.get(entry.getKey());
+            if (product == null) {
+                missing.add(entry.getKey());
+            } else {
+                priced.put(product.id(), new SaleResult(Status.OK, product.id(), product.name(), entry.getValue(),
+                        product.price() * entry.getValue()));
+            }
+        }
+        if (missing.isEmpty()) {
+            return priced;
+        }
+
+        StringBuilder query = new StringBuilder("SELECT id, name, price FROM products WHERE id IN (");
+        for (int i = 0; i < missing.size(); i++) {
+            query.append(i == 0 ? "?" : ", ?");
+        }
+        query.append(")");
+
+        try (PreparedStatement pstmt = conn.prepareStatement(query.toString())) {
+            int index = 1;
+            for (int productId : missing) {
+                pstmt.setInt(index++, productId);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    int productId = rs.getInt("id");
+                    int quantity = quantities.get(productId);
+                    priced.put(productId, new SaleResult(Status.OK, productId, rs.getString("name"), quantity,
+                            rs.getDouble("price") * quantity));
+                }
+            }
+        }
+        return priced;
+    }
+
+    // Returns false without touching the row when there is not enough stock
+    static boolean decrementStock(SaleWorker worker, int productId, int quantity) throws SQLException {
+        PreparedStatement updateStmt = worker.statement(DECREMENT_STOCK);
+        updateStmt.setInt(1, quantity);
+        updateStmt.setInt(2, productId);
+        updateStmt.setInt(3, quantity);
+        return updateStmt.executeUpdate() == 1;
+    }
+
+    static void logSale(SaleWorker worker, int productId, int quantity, double totalPrice) throws SQLException {
+        PreparedStatement stmt = worker.statement(INSERT_SALE);
+        stmt.setInt(1, productId);
+        stmt.setInt(2, quantity);
+        stmt.setDouble(3, totalPrice);
+        stmt.setNull(4, Types.INTEGER);
+        stmt.executeUpdate();
+    }
+
+    // Oversell check: N threads sell one product until it runs out, then the units sold must
+    // not exceed the starting stock. By default it runs against a private journal and a
+    // synthetic product, which checks the journal path only: the conditional UPDATE of a
+    // direct sale needs MySQL and is covered only with --mysql, against a real product (which
+    // it sells out; use a test database).
+    //
+    //   java SaleService [--threads 32] [--stock 1000] [--mysql <productId>]
+    public static void main(String[] args) throws Exception {
+        int threads = 32;
+        int stock = 1_000;
+        Integer mysqlProductId = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--threads" -> threads = Integer.parseInt(args[++i]);
+                case "--stock" -> stock = Integer.parseInt(args[++i]);
+                case "--mysql" -> mysqlProductId = Integer.parseInt(args[++i]);
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        SaleService service;
+        int productId;
+        if (mysqlProductId == null) {
+            productId = 1;
+            ProductCatalog.getInstance().preload(List.of(
+                    new ProductCatalog.Product(productId, "Stress product", "General", null, 1.0, stock, 0, 0)));
+            Path journalFile = Files.createTempFile("stress-journal", ".dat");
+            journalFile.toFile().deleteOnExit();
+            service = new SaleService(new SaleJournal(journalFile, 1 << 26));
+        } else {
+            productId = mysqlProductId;
+            stock = stockInDatabase(productId);
+            service = new SaleService();
+        }
+
+        AtomicLong sold = new AtomicLong();
+        AtomicLong failures = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> sellers = new ArrayList<>(threads);
+        for (int t = 0; t < threads; t++) {
+            Thread seller = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    start.await();
+                    // Keep selling until not even one unit is left
+                    int quantity = random.nextInt(1, 4);
+                    while (true) {
+                        CheckoutResult result = service.checkout(List.of(new CartLine(productId, quantity)));
+                        if (result.isSuccess()) {
+                            sold.addAndGet(quantity);
+                        } else if (result.status() == Status.INSUFFICIENT_STOCK && quantity > 1) {
+                            quantity = 1;
+                        } else {
+                            break;
+                        }
+                    }
+                } catch (Exception e) {
+                    failures.incrementAndGet();
+                    e.printStackTrace();
+                }
+            }, "seller-" + (t + 1));
+            sellers.add(seller);
+            seller.start();
+        }
+        long t0 = System.nanoTime();
+        start.countDown();
+        for (Thread seller : sellers) {
+            seller.join();
+        }
+        System.out.printf("threads=%d  stock=%,d  sold=%,d  failed sellers=%d  in %.0f ms%n", threads, stock, sold.get(),
+                failures.get(), (System.nanoTime() - t0) / 1e6);
+
+        int left = mysqlProductId == null ? stock - service.journal.pendingQuantity(productId) : stockInDatabase(productId);
+        if (sold.get() > stock || left < 0 || sold.get() != stock - left) {
+            System.out.printf("FAILED: sold %,d of %,d, %,d left%n", sold.get(), stock, left);
+            System.exit(1);
+        }
+        System.out.println("OK: nothing oversold" + (mysqlProductId == null
+                ? " (journal path only; the conditional UPDATE was not tested, run with --mysql <productId> for that)"
+                : " (conditional UPDATE against MySQL)"));
+        System.exit(0);
+    }
+
+    private static int stockInDatabase(int productId) throws SQLException {
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement("SELECT quantity FROM products WHERE id = ?")) {
+            pstmt.setInt(1, productId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {
+                    throw new IllegalArgumentException("No product " + productId);
+                }
+                return rs.getInt(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+import java.lang.ref.Cleaner;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientConnectionException;
+import java.util.HashMap;
+import java.util.Map;
+
+// A database connection kept by one selling thread (the pipeline's committer, a load
+// generator terminal) together with the statements it uses on every sale, so a sale costs
+// only the executes: nothing is borrowed, prepared or closed per sale. The connection is
+// opened with server-side prepared statements, so the statements are parsed by MySQL once.
+//
+// A broken connection (MySQL restarted, idle timeout) is replaced on the next use. If it
+// breaks in the middle of a sale before the commit was sent, the server has rolled it back
+// and the sale is run once more on a fresh connection; if it breaks during the commit the
+// outcome is unknown and the caller gets a SaleService.OutcomeUnknownException.
+public class SaleWorker {
+    // A connection idle longer than this is checked before use; MySQL drops idle ones after
+    // wait_timeout, and a check is cheaper than a failed sale
+    private static final long VALIDATE_AFTER_IDLE_MS = 30_000;
+    private static final int VALIDATE_TIMEOUT_SECONDS = 2;
+
+    private static final ThreadLocal<SaleWorker> WORKERS = ThreadLocal.withInitial(SaleWorker::new);
+    // Closes a worker's connection once its thread has ended and been collected
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    public interface Work<T> {
+        T run(SaleWorker worker) throws SQLException;
+    }
+
+    // Kept apart from the worker so the cleaner does not keep the thread reachable
+    private static final class State implements Runnable {
+        Connection conn;
+        final Map<String, PreparedStatement> statements = new HashMap<>();
+        long lastUsedMillis;
+
+        @Override
+        public void run() {
+            statements.clear();
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                    // Already broken; nothing to release
+                }
+                conn = null;
+            }
+        }
+    }
+
+    private final State state = new State();
+    private int reconnects = 0;
+
+    // The calling thread's worker, created on first use
+    public static SaleWorker forCurrentThread() {
+        return WORKERS.get();
+    }
+
+    private SaleWorker() {
+        CLEANER.register(Thread.currentThread(), state);
+    }
+
+    // Runs the work in one transaction and commits it. The work may roll back (or back to a
+    // savepoint) itself when a sale cannot go ahead. Must not be nested.
+    public <T> T inTransaction(Work<T> work) throws SQLException {
+        for (int attempt = 0; ; attempt++) {
+            Connection conn = connection();
+            boolean committing = false;
+            try {
+                T result = work.run(this);
+                committing = true;
+                conn.commit();
+                state.lastUsedMillis = System.currentTimeMillis();
+                return result;
+            } catch (SQLException e) {
+                if (isConnectionFailure(e)) {
+                    state.run();
+                    reconnects++;
+                    if (committing) {
+                        throw new SaleService.OutcomeUnknownException(
+                                "Connection lost during commit; the sale may have been recorded: " + e.getMessage(), e);
+                    }
+                    if (attempt == 0) {
+                        continue;
+                    }
+                    throw e;
+                }
+                rollbackQuietly(conn, e);
+                throw e;
+            } catch (RuntimeException e) {
+                rollbackQuietly(conn, e);
+                throw e;
+            }
+        }
+    }
+
+    // The worker's connection, inside a transaction; only valid within inTransaction
+    public Connection connection() throws SQLException {
+        long now = System.currentTimeMillis();
+        if (state.conn != null && now - state.lastUsedMillis > VALIDATE_AFTER_IDLE_MS
+                && !state.conn.isValid(VALIDATE_TIMEOUT_SECONDS)) {
+            state.run();
+            reconnects++;
+        }
+        if (state.conn == null) {
+            state.conn = DatabaseConnection.openDedicated();
+            state.conn.setAutoCommit(false);
+        }
+        state.lastUsedMillis = now;
+        return state.conn;
+    }
+
+    // Prepared once per connection and kept; callers must not close it
+    public PreparedStatement statement(String sql) throws SQLException {
+        PreparedStatement pstmt = state.statements.get(sql);
+        if (pstmt == null) {
+            pstmt = connection().prepareStatement(sql);
+            state.statements.put(sql, pstmt);
+        }
+        return pstmt;
+    }
+
+    // How often this worker had to replace its connection
+    public int reconnects() {
+        return reconnects;
+    }
+
+    private static boolean isConnectionFailure(SQLException e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SQLRecoverableException || t instanceof SQLNonTransientConnectionException
+                    || t instanceof SQLTransientConnectionException) {
+                return true;
+            }
+            // SQLState class 08 is "connection exception"
+            if (t instanceof SQLException sql && sql.getSQLState() != null && sql.getSQLState().startsWith("08")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void rollbackQuietly(Connection conn, Exception cause) {
+        try {
+            conn.rollback();
+        } catch (SQLException rollbackFailure) {
+            cause.addSuppressed(rollbackFailure);
+        }
+    }
+}
@@ -0,0 +1,427 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ThreadLocalRandom;
+
+// sales_history held in memory as primitive columns for ad-hoc analysis. It is loaded once,
+// then new rows are tailed by id (with an overlap, see TAIL_OVERLAP_IDS), and aggregations
+// over any time window run as fork-join scans.
+//
+// Memory: 28 bytes per sale (int product + long epoch second + long cents + int quantity +
+// int customer), up to twice that right after the arrays grow. Ten million sales is ~280 MB.
+// Run main() to measure it and the scan speed on this machine.
+public class SalesColumnStore {
+    private static final SalesColumnStore INSTANCE = new SalesColumnStore();
+
+    private static final int INITIAL_CAPACITY = 1 << 16;
+    // Minimum rows per fork-join leaf. Leaves are also capped at a few per core, because each
+    // group-by leaf allocates its own dense per-key arrays
+    private static final int MIN_LEAF_SIZE = 1 << 16;
+    // Above this many possible keys (about 15 years of hours) a leaf sums into a hash table of
+    // the keys it actually sees instead of dense arrays, which for a custom range spanning
+    // centuries would be millions of entries per leaf
+    private static final int MAX_DENSE_KEYS = 1 << 17;
+    private static final int NO_CUSTOMER = -1;
+    // AUTO_INCREMENT ids are handed out at insert but become visible at commit, so a sale can
+    // appear after others with higher ids (the journal drainer and the tills commit
+    // independently). Each catch-up re-reads this many ids below the highest seen and skips
+    // the ones already loaded.
+    private static final long TAIL_OVERLAP_IDS = 10_000;
+
+    public enum GroupBy { PRODUCT, CUSTOMER, HOUR }
+
+    public record Totals(long cents, long quantity, long sales) {
+        public double amount() {
+            return cents / 100.0;
+        }
+    }
+
+    public record Group(long key, long cents, long quantity, long sales) {
+        public double amount() {
+            return cents / 100.0;
+        }
+    }
+
+    // Immutable view of the columns; appends publish a new one, so readers never lock
+    private record Columns(int[] productIds, long[] epochSeconds, long[] cents, int[] quantities,
+                           int[] customerIds, int size, int maxProductId, int maxCustomerId) {
+    }
+
+    private volatile Columns columns = new Columns(new int[INITIAL_CAPACITY], new long[INITIAL_CAPACITY],
+            new long[INITIAL_CAPACITY], new int[INITIAL_CAPACITY], new int[INITIAL_CAPACITY], 0, 0, 0);
+    // Rows appended but not yet visible to readers; guarded by this
+    private Columns pending;
+    private long lastSaleId = 0;  // guarded by this
+    // Ids loaded within TAIL_OVERLAP_IDS of lastSaleId; guarded by this
+    private final Set<Long> recentIds = new HashSet<>();
+
+    public static SalesColumnStore getInstance() {
+        return INSTANCE;
+    }
+
+    // Loads everything on the first call and only rows not seen before afterwards
+    public synchronized int catchUp() throws SQLException {
+        String query = "SELECT id, product_id, UNIX_TIMESTAMP(sale_date) AS epoch_second, "
+                + "ROUND(total_price * 100) AS cents, quantity_sold, customer_id "
+                + "FROM sales_history WHERE id > ? ORDER BY id";
+        int added = 0;
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            // Connector/J streams row by row instead of buffering the whole result
+            pstmt.setFetchSize(Integer.MIN_VALUE);
+            pstmt.setLong(1, Math.max(0, lastSaleId - TAIL_OVERLAP_IDS));
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    long id = rs.getLong("id");
+                    if (!recentIds.add(id)) {
+                        continue;  // Loaded by an earlier catch-up
+                    }
+                    int customerId = rs.getInt("customer_id");
+                    if (rs.wasNull()) {
+                        customerId = NO_CUSTOMER;  // Anonymous sale
+                    }
+                    append(rs.getInt("product_id"), rs.getLong("epoch_second"), rs.getLong("cents"),
+                            rs.getInt("quantity_sold"), customerId, false);
+                    lastSaleId = Math.max(lastSaleId, id);
+                    added++;
+                    if (recentIds.size() > 2 * TAIL_OVERLAP_IDS) {
+                        forgetOldIds();
+                    }
+                }
+            }
+            forgetOldIds();
+        }
+        publish();
+        return added;
+    }
+
+    private void forgetOldIds() {
+        long oldest = lastSaleId - TAIL_OVERLAP_IDS;
+        recentIds.removeIf(id -> id <= oldest);
+    }
+
+    private void append(int productId, long epochSecond, long cents, int quantity, int customerId, boolean publishNow) {
+        Columns c = pending != null ? pending : columns;
+        int size = c.size();
+        if (size == c.productIds().length) {
+            int capacity = size * 2;
+            c = new Columns(Arrays.copyOf(c.productIds(), capacity), Arrays.copyOf(c.epochSeconds(), capacity),
+                    Arrays.copyOf(c.cents(), capacity), Arrays.copyOf(c.quantities(), capacity),
+                    Arrays.copyOf(c.customerIds(), capacity), size, c.maxProductId(), c.maxCustomerId());
+        }
+        c.productIds()[size] = productId;
+        c.epochSeconds()[size] = epochSecond;
+        c.cents()[size] = cents;
+        c.quantities()[size] = quantity;
+        c.customerIds()[size] = customerId;
+        pending = new Columns(c.productIds(), c.epochSeconds(), c.cents(), c.quantities(), c.customerIds(), size + 1,
+                Math.max(c.maxProductId(), productId), Math.max(c.maxCustomerId(), customerId));
+        if (publishNow) {
+            publish();
+        }
+    }
+
+    private void publish() {
+        if (pending != null) {
+            columns = pending;
+            pending = null;
+        }
+    }
+
+    // For synthetic data (main() and the benchmark); sales in the database arrive by catchUp()
+    public synchronized void append(int productId, long epochSecond, long cents, int quantity, int customerId) {
+        append(productId, epochSecond, cents, quantity, customerId, true);
+    }
+
+    public int size() {
+        return columns.size();
+    }
+
+    // Sales with fromEpochSecond <= sale time < toEpochSecond
+    public Totals totals(long fromEpochSecond, long toEpochSecond) {
+        Columns c = columns;
+        long[] result = ForkJoinPool.commonPool().invoke(new TotalsTask(c, fromEpochSecond, toEpochSecond, 0, c.size()));
+        return new Totals(result[0], result[1], result[2]);
+    }
+
+    // Groups sales in the window by product, customer or hour (key = hours since the window
+    // start), largest revenue first, at most limit groups
+    public List<Group> groupBy(GroupBy groupBy, long fromEpochSecond, long toEpochSecond, int limit) {
+        Columns c = columns;
+        int keys;
+        switch (groupBy) {
+            case PRODUCT:
+                keys = c.maxProductId() + 1;
+                break;
+            case CUSTOMER:
+                keys = c.maxCustomerId() + 1;
+                break;
+            default:
+                keys = (int) Math.max(0, Math.min(Integer.MAX_VALUE - 8, (toEpochSecond - fromEpochSecond + 3599) / 3600));
+                break;
+        }
+
+        KeySums sums = ForkJoinPool.commonPool().invoke(
+                new GroupTask(c, groupBy, keys, fromEpochSecond, toEpochSecond, 0, c.size()));
+        List<Group> groups = new ArrayList<>();
+        sums.forEach((key, cents, quantity, sales) -> groups.add(
+                new Group(groupBy == GroupBy.HOUR ? fromEpochSecond + key * 3600L : key, cents, quantity, sales)));
+        if (groupBy != GroupBy.HOUR) {
+            groups.sort(Comparator.comparingLong(Group::cents).reversed());
+        } else {
+            groups.sort(Comparator.comparingLong(Group::key));
+        }
+        return groups.size() > limit ? new ArrayList<>(groups.subList(0, limit)) : groups;
+    }
+
+    private static int leafSize(Columns c) {
+        return Math.max(MIN_LEAF_SIZE, c.size() / (ForkJoinPool.getCommonPoolParallelism() * 4) + 1);
+    }
+
+    private static class TotalsTask extends RecursiveTask<long[]> {
+        private final Columns c;
+        private final long from, to;
+        private final int start, end;
+
+        TotalsTask(Columns c, long from, long to, int start, int end) {
+            this.c = c;
+            this.from = from;
+            this.to = to;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected long[] compute() {
+            if (end - start <= leafSize(c)) {
+                long cents = 0, quantity = 0, sales = 0;
+                long[] time = c.epochSeconds();
+                for (int i = start; i < end; i++) {
+                    long t = time[i];
+                    if (t >= from && t < to) {
+                        cents += c.cents()[i];
+                        quantity += c.quantities()[i];
+                        sales++;
+                    }
+                }
+                return new long[]{cents, quantity, sales};
+            }
+            int mid = (start + end) >>> 1;
+            TotalsTask left = new TotalsTask(c, from, to, start, mid);
+            left.fork();
+            long[] right = new TotalsTask(c, from, to, mid, end).compute();
+            long[] result = left.join();
+            for (int i = 0; i < result.length; i++) {
+                result[i] += right[i];
+            }
+            return result;
+        }
+    }
+
+    private interface GroupConsumer {
+        void accept(int key, long cents, long quantity, long sales);
+    }
+
+    // One leaf's sums per key: dense arrays indexed by key, or above MAX_DENSE_KEYS an
+    // open-addressing table holding only the keys seen. Primitive either way, so the hot loop
+    // does not box.
+    private static final class KeySums {
+        private final long[][] dense;  // cents, quantity, sales; null when sparse
+        private int[] keys;            // sparse slots; EMPTY where unused
+        private long[][] sparse;
+        private int used = 0;
+
+        private static final int EMPTY = -1;
+
+        KeySums(int keyCount) {
+            if (keyCount <= MAX_DENSE_KEYS) {
+                dense = new long[3][keyCount];
+            } else {
+                dense = null;
+                allocate(1024);
+            }
+        }
+
+        private void allocate(int capacity) {
+            keys = new int[capacity];
+            Arrays.fill(keys, EMPTY);
+            sparse = new long[3][capacity];
+            used = 0;
+        }
+
+        void add(int key, long cents, long quantity, long sales) {
+            long[][] sums = dense;
+            int slot = key;
+            if (sums == null) {
+                slot = slotFor(key);
+                sums = sparse;
+            }
+            sums[0][slot] += cents;
+            sums[1][slot] += quantity;
+            sums[2][slot] += sales;
+        }
+
+        private int slotFor(int key) {
+            int mask = keys.length - 1;
+            int hash = key * 0x9E3779B9;
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while (keys[slot] != key) {
+                if (keys[slot] == EMPTY) {
+                    if (used * 2 >= keys.length) {
+                        grow();
+                        return slotFor(key);
+                    }
+                    keys[slot] = key;
+                    used++;
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void grow() {
+            int[] oldKeys = keys;
+            long[][] oldSums = sparse;
+            allocate(oldKeys.length * 2);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    add(oldKeys[i], oldSums[0][i], oldSums[1][i], oldSums[2][i]);
+                }
+            }
+        }
+
+        void addAll(KeySums other) {
+            other.forEach(this::add);
+        }
+
+        // Keys with at least one sale; dense keys in order, sparse ones in no particular order
+        void forEach(GroupConsumer consumer) {
+            if (dense != null) {
+                for (int key = 0; key < dense[0].length; key++) {
+                    if (dense[2][key] > 0) {
+                        consumer.accept(key, dense[0][key], dense[1][key], dense[2][key]);
+                    }
+                }
+            } else {
+                for (int i = 0; i < keys.length; i++) {
+                    if (keys[i] != EMPTY) {
+                        consumer.accept(keys[i], sparse[0][i], sparse[1][i], sparse[2][i]);
+                    }
+                }
+            }
+        }
+    }
+
+    // Each leaf sums into its own KeySums and the halves are combined on the way up, so no
+    // locking and no boxing on the hot loop
+    private static class GroupTask extends RecursiveTask<KeySums> {
+        private final Columns c;
+        private final GroupBy groupBy;
+        private final int keys;
+        private final long from, to;
+        private final int start, end;
+
+        GroupTask(Columns c, GroupBy groupBy, int keys, long from, long to, int start, int end) {
+            this.c = c;
+            this.groupBy = groupBy;
+            this.keys = keys;
+            this.from = from;
+            this.to = to;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected KeySums compute() {
+            if (end - start <= leafSize(c)) {
+                KeySums sums = new KeySums(keys);
+                long[] time = c.epochSeconds();
+                for (int i = start; i < end; i++) {
+                    long t = time[i];
+                    if (t < from || t >= to) {
+                        continue;
+                    }
+                    int key;
+                    switch (groupBy) {
+                        case PRODUCT:
+                            key = c.productIds()[i];
+                            break;
+                        case CUSTOMER:
+                            key = c.customerIds()[i];
+                            if (key == NO_CUSTOMER) {
+                                continue;
+                            }
+                            break;
+                        default:
+                            key = (int) ((t - from) / 3600);
+                            break;
+                    }
+                    sums.add(key, c.cents()[i], c.quantities()[i], 1);
+                }
+                return sums;
+            }
+            int mid = (start + end) >>> 1;
+            GroupTask left = new GroupTask(c, groupBy, keys, from, to, start, mid);
+            left.fork();
+            KeySums right = new GroupTask(c, groupBy, keys, from, to, mid, end).compute();
+            KeySums result = left.join();
+            result.addAll(right);
+            return result;
+        }
+    }
+
+    // Fills a store with synthetic sales and reports heap per row and aggregation times.
+    // Usage: java SalesColumnStore [rows]
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        long now = System.currentTimeMillis() / 1000;
+        long yearAgo = now - 365L * 24 * 3600;
+
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+
+        SalesColumnStore store = new SalesColumnStore();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long loadStart = System.nanoTime();
+        synchronized (store) {
+            for (int i = 0; i < rows; i++) {
+                store.append(random.nextInt(50_000), yearAgo + random.nextLong(now - yearAgo),
+                        random.nextLong(100, 50_000), random.nextInt(1, 10), random.nextInt(200_000), false);
+            }
+            store.publish();
+        }
+        long loadMillis = (System.nanoTime() - loadStart) / 1_000_000;
+
+        System.gc();
+        long heapAfter = runtime.totalMemory() - runtime.freeMemory();
+        System.out.printf("rows=%,d  load=%d ms  heap=%.1f bytes/row (capacity %,d)%n", rows, loadMillis,
+                (double) (heapAfter - heapBefore) / rows, store.columns.productIds().length);
+
+        long monthAgo = now - 30L * 24 * 3600;
+        for (int round = 0; round < 5; round++) {
+            long t0 = System.nanoTime();
+            Totals totals = store.totals(monthAgo, now);
+            long t1 = System.nanoTime();
+            List<Group> products = store.groupBy(GroupBy.PRODUCT, monthAgo, now, 10);
+            long t2 = System.nanoTime();
+            List<Group> hours = store.groupBy(GroupBy.HOUR, monthAgo, now, Integer.MAX_VALUE);
+            long t3 = System.nanoTime();
+            List<Group> customers = store.groupBy(GroupBy.CUSTOMER, monthAgo, now, 10);
+            long t4 = System.nanoTime();
+            System.out.printf("round %d: totals %.1f ms (%,d sales)  top products %.1f ms (%d)  byHour %.1f ms (%d)  byCustomer %.1f ms (%d)%n",
+                    round, (t1 - t0) / 1e6, totals.sales(), (t2 - t1) / 1e6, products.size(), (t3 - t2) / 1e6, hours.size(),
+                    (t4 - t3) / 1e6, customers.size());
+        }
+    }
+}
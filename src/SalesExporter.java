@@ -0,0 +1,219 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+// Writes sales_history to a file for accounting, however many rows there are. Rows come from
+// a streaming cursor one at a time and are encoded straight into a fixed buffer that is
+// drained to the file channel (through gzip for .gz files), so the heap used does not grow
+// with the export. The file is written under a .part name and only renamed once complete.
+public class SalesExporter {
+    private static final int BUFFER_SIZE = 1 << 18;
+    private static final int GZIP_BUFFER_SIZE = 1 << 16;
+    // Longest encoded row is well under this; the buffer is drained when less is left
+    private static final int MAX_ROW_BYTES = 512;
+    private static final int PROGRESS_EVERY = 100_000;
+
+    private static final String[] COLUMNS = {"id", "sale_date", "product_id", "customer_id", "quantity_sold", "total_price"};
+
+    // CSV has a header row; JSON_LINES is one JSON object per line
+    public enum Format { CSV, JSON_LINES }
+
+    // from and to are inclusive days and may be null for an open end; an empty product set
+    // exports every product
+    public record Filter(LocalDate from, LocalDate to, Set<Integer> productIds) {
+    }
+
+    public record Result(long rows, long bytes, long millis, Path file) {
+    }
+
+    // The file name decides the layout: *.jsonl / *.jsonl.gz for JSON lines, anything else CSV;
+    // a .gz suffix compresses it
+    public static Format formatFor(Path file) {
+        String name = stripGzip(file.getFileName().toString());
+        return name.endsWith(".jsonl") || name.endsWith(".ndjson") ? Format.JSON_LINES : Format.CSV;
+    }
+
+    public static boolean isCompressed(Path file) {
+        return file.getFileName().toString().endsWith(".gz");
+    }
+
+    private static String stripGzip(String name) {
+        return name.endsWith(".gz") ? name.substring(0, name.length() - 3) : name;
+    }
+
+    // Returns null if cancelled; nothing is left behind in that case
+    public Result export(Filter filter, Path file, BackgroundLoader.Progress progress) throws IOException, SQLException {
+        long start = System.nanoTime();
+        Format format = formatFor(file);
+        Path partFile = file.resolveSibling(file.getFileName() + ".part");
+        long rows = 0;
+        boolean complete = false;
+
+        List<Object> parameters = new ArrayList<>();
+        String query = buildQuery(filter, parameters);
+
+        try (FileChannel fileChannel = FileChannel.open(partFile, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            // Closed however the export ends, so the gzip deflater's native memory is freed
+            try (WritableByteChannel sink = isCompressed(file)
+                    ? Channels.newChannel(new GZIPOutputStream(Channels.newOutputStream(fileChannel), GZIP_BUFFER_SIZE))
+                    : fileChannel;
+                 Connection conn = DatabaseConnection.getConnection();
+                 PreparedStatement pstmt = conn.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                // Connector/J streams row by row instead of buffering the whole result
+                pstmt.setFetchSize(Integer.MIN_VALUE);
+                for (int i = 0; i < parameters.size(); i++) {
+                    pstmt.setObject(i + 1, parameters.get(i));
+                }
+
+                if (format == Format.CSV) {
+                    putAscii(buffer, String.join(",", COLUMNS));
+                    buffer.put((byte) '\n');
+                }
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        if (buffer.remaining() < MAX_ROW_BYTES) {
+                            drain(buffer, sink);
+                        }
+                        // Every value here is digits, dashes, colons and spaces, so strings
+                        // go out byte for byte without a charset encoder
+                        String saleDate = rs.getString(2);
+                        String customerId = rs.getString(4);
+                        if (format == Format.CSV) {
+                            putAscii(buffer, rs.getString(1)).put((byte) ',');
+                            putAscii(buffer, saleDate).put((byte) ',');
+                            putAscii(buffer, rs.getString(3)).put((byte) ',');
+                            putAscii(buffer, customerId == null ? "" : customerId).put((byte) ',');
+                            putAscii(buffer, rs.getString(5)).put((byte) ',');
+                            putAscii(buffer, rs.getString(6)).put((byte) '\n');
+                        } else {
+                            putAscii(buffer, "{\"id\":");
+                            putAscii(buffer, rs.getString(1));
+                            putAscii(buffer, ",\"sale_date\":\"");
+                            putAscii(buffer, saleDate);
+                            putAscii(buffer, "\",\"product_id\":");
+                            putAscii(buffer, rs.getString(3));
+                            putAscii(buffer, ",\"customer_id\":");
+                            putAscii(buffer, customerId == null ? "null" : customerId);
+                            putAscii(buffer, ",\"quantity_sold\":");
+                            putAscii(buffer, rs.getString(5));
+                            putAscii(buffer, ",\"total_price\":");
+                            putAscii(buffer, rs.getString(6));
+                            putAscii(buffer, "}\n");
+                        }
+
+                        rows++;
+                        if (rows % PROGRESS_EVERY == 0) {
+                            if (progress.isCancelled()) {
+                                // Closing a streaming result reads every remaining row first;
+                                // cancelling the query makes the server stop sending them
+                                pstmt.cancel();
+                                return null;
+                            }
+                            progress.update(-1, String.format("Exported %,d sales...", rows));
+                        }
+                    }
+                }
+                drain(buffer, sink);
+            }
+            complete = true;
+        } finally {
+            if (!complete) {
+                Files.deleteIfExists(partFile);
+            }
+        }
+
+        Files.move(partFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return new Result(rows, Files.size(file), (System.nanoTime() - start) / 1_000_000, file);
+    }
+
+    // sale_date and the product filter match idx_sales_history_sale_date and
+    // idx_sales_history_product_date. With a date range, ordering by (sale_date, id) follows
+    // the first index; without one the whole table is read, and primary key order lets the
+    // first row arrive at once instead of after a server-side sort of every sale.
+    private static String buildQuery(Filter filter, List<Object> parameters) {
+        StringBuilder query = new StringBuilder(
+                "SELECT id, DATE_FORMAT(sale_date, '%Y-%m-%d %H:%i:%s'), product_id, customer_id, quantity_sold, total_price "
+                        + "FROM sales_history WHERE 1 = 1");
+        if (filter.from() != null) {
+            query.append(" AND sale_date >= ?");
+            parameters.add(Timestamp.valueOf(filter.from().atStartOfDay()));
+        }
+        if (filter.to() != null) {
+            query.append(" AND sale_date < ?");
+            parameters.add(Timestamp.valueOf(filter.to().plusDays(1).atStartOfDay()));
+        }
+        if (filter.productIds() != null && !filter.productIds().isEmpty()) {
+            query.append(" AND product_id IN (");
+            boolean first = true;
+            for (int productId : filter.productIds()) {
+                query.append(first ? "?" : ", ?");
+                parameters.add(productId);
+                first = false;
+            }
+            query.append(")");
+        }
+        boolean dateRange = filter.from() != null || filter.to() != null;
+        return query.append(dateRange ? " ORDER BY sale_date, id" : " ORDER BY id").toString();
+    }
+
+    private static ByteBuffer putAscii(ByteBuffer buffer, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            buffer.put((byte) text.charAt(i));
+        }
+        return buffer;
+    }
+
+    private static void drain(ByteBuffer buffer, WritableByteChannel sink) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            sink.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // java SalesExporter <file> [from yyyy-MM-dd] [to yyyy-MM-dd] exports and prints the rate
+    // and the heap in use afterwards, which should not depend on the number of rows
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: SalesExporter <file.csv|file.csv.gz|file.jsonl|file.jsonl.gz> [from] [to]");
+            return;
+        }
+        Filter filter = new Filter(args.length > 1 ? LocalDate.parse(args[1]) : null,
+                args.length > 2 ? LocalDate.parse(args[2]) : null, Set.of());
+        Result result = new SalesExporter().export(filter, Paths.get(args[0]), new BackgroundLoader.Progress() {
+            @Override
+            public void update(int percent, String message) {
+                System.out.println(message);
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return false;
+            }
+        });
+        Runtime runtime = Runtime.getRuntime();
+        System.out.printf("rows=%,d  bytes=%,d  %d ms  %,.0f rows/s  heap in use %.1f MB%n", result.rows(), result.bytes(),
+                result.millis(), result.rows() * 1000.0 / Math.max(1, result.millis()),
+                (runtime.totalMemory() - runtime.freeMemory()) / 1e6);
+        System.exit(0);
+    }
+}
@@ -0,0 +1,168 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+
+// Hour/day/month sales totals kept up to date inside each sale transaction, so reports
+// read a handful of pre-aggregated rows instead of re-scanning sales_history.
+public class SalesRollups {
+    private static final String DAY = "D";
+    private static final String MONTH = "M";
+
+    private static final String MONTH_START = "CURDATE() - INTERVAL (DAYOFMONTH(CURDATE()) - 1) DAY";
+    static final String TODAY_BY_HOUR = "SELECT HOUR(bucket_start) AS hour_of_day, total_sales FROM sales_rollup "
+            + "WHERE granularity = 'H' AND bucket_start >= CURDATE() AND bucket_start < CURDATE() + INTERVAL 1 DAY";
+
+    // Till sales prepare these once per SaleWorker connection; the _AT forms replay the journal
+    private static final String ROLLUP_UPSERT_NOW = rollupUpsert("NOW()");
+    private static final String ROLLUP_UPSERT_AT = rollupUpsert("?");
+    // Distinct customers do not add up across buckets, so they are tracked per day
+    private static final String CUSTOMER_UPSERT_NOW = customerUpsert("NOW()");
+    private static final String CUSTOMER_UPSERT_AT = customerUpsert("?");
+
+    public enum Period { DAILY, WEEKLY, MONTHLY, ANNUAL, ALL_TIME }
+
+    public record Totals(double totalSales, long productsSold, long saleCount, long customers) {
+    }
+
+    // Adds one sale (or one basket) to all three granularities in a single round trip.
+    // Callers run SchemaMigrator.ensureMigrated() before opening their transaction.
+    // Buckets come from the database clock, the same one that stamps sales_history.sale_date.
+    // Uses the worker's prepared statements, so a till sale prepares nothing here.
+    public static void recordSale(SaleWorker worker, double totalPrice, int quantity, Integer customerId) throws SQLException {
+        PreparedStatement pstmt = worker.statement(ROLLUP_UPSERT_NOW);
+        bindRollup(pstmt, null, totalPrice, quantity);
+        pstmt.executeUpdate();
+        if (customerId != null) {
+            PreparedStatement customerStmt = worker.statement(CUSTOMER_UPSERT_NOW);
+            bindCustomer(customerStmt, null, customerId);
+            customerStmt.executeUpdate();
+        }
+    }
+
+    // Same, for a sale that happened at saleDate rather than now (e.g. replayed from the journal)
+    public static void recordSale(Connection conn, Timestamp saleDate, double totalPrice, int quantity,
+                                  Integer customerId) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(saleDate == null ? ROLLUP_UPSERT_NOW : ROLLUP_UPSERT_AT)) {
+            bindRollup(pstmt, saleDate, totalPrice, quantity);
+            pstmt.executeUpdate();
+        }
+        if (customerId != null) {
+            try (PreparedStatement pstmt = conn.prepareStatement(saleDate == null ? CUSTOMER_UPSERT_NOW : CUSTOMER_UPSERT_AT)) {
+                bindCustomer(pstmt, saleDate, customerId);
+                pstmt.executeUpdate();
+            }
+        }
+    }
+
+    private static String rollupUpsert(String at) {
+        return "INSERT INTO sales_rollup (granularity, bucket_start, total_sales, products_sold, sale_count) "
+                + "VALUES ('H', DATE_FORMAT(" + at + ", '%Y-%m-%d %H:00:00'), ?, ?, 1), "
+                + "('D', DATE(" + at + "), ?, ?, 1), "
+                + "('M', DATE(" + at + ") - INTERVAL (DAYOFMONTH(" + at + ") - 1) DAY, ?, ?, 1) "
+                + "ON DUPLICATE KEY UPDATE total_sales = total_sales + VALUES(total_sales), "
+                + "products_sold = products_sold + VALUES(products_sold), sale_count = sale_count + 1";
+    }
+
+    private static String customerUpsert(String at) {
+        return "INSERT IGNORE INTO sales_rollup_customers (bucket_start, customer_id) VALUES (DATE(" + at + "), ?)";
+    }
+
+    private static void bindRollup(PreparedStatement pstmt, Timestamp saleDate, double totalPrice, int quantity)
+            throws SQLException {
+        int index = 1;
+        for (int i = 0; i < 3; i++) {
+            if (saleDate != null) {
+                pstmt.setTimestamp(index++, saleDate);
+                if (i == 2) {
+                    pstmt.setTimestamp(index++, saleDate);  // DAYOFMONTH(?) in the month bucket
+                }
+            }
+            pstmt.setDouble(index++, totalPrice);
+            pstmt.setInt(index++, quantity);
+        }
+    }
+
+    private static void bindCustomer(PreparedStatement pstmt, Timestamp saleDate, int customerId) throws SQLException {
+        int index = 1;
+        if (saleDate != null) {
+            pstmt.setTimestamp(index++, saleDate);
+        }
+        pstmt.setInt(index, customerId);
+    }
+
+    // Reads at most 12 rollup rows whatever the size of sales_history
+    public static Totals query(Connection conn, Period period) throws SQLException {
+        SchemaMigrator.ensureMigrated();
+        try (Statement stmt = conn.createStatement()) {
+            double totalSales;
+            long productsSold;
+            long saleCount;
+            try (ResultSet rs = stmt.executeQuery(totalsQuery(period))) {
+                rs.next();
+                totalSales = rs.getDouble("total_sales");
+                productsSold = rs.getLong("products_sold");
+                saleCount = rs.getLong("sale_count");
+            }
+            try (ResultSet rs = stmt.executeQuery(customersQuery(period))) {
+                rs.next();
+                return new Totals(totalSales, productsSold, saleCount, rs.getLong(1));
+            }
+        }
+    }
+
+    // Day rows for periods up to a week, month rows beyond that
+    static String totalsQuery(Period period) {
+        String granularity = period == Period.DAILY || period == Period.WEEKLY ? DAY : MONTH;
+        return "SELECT IFNULL(SUM(total_sales), 0) AS total_sales, IFNULL(SUM(products_sold), 0) AS products_sold, "
+                + "IFNULL(SUM(sale_count), 0) AS sale_count FROM sales_rollup WHERE granularity = '" + granularity
+                + "' AND " + bucketRange(period);
+    }
+
+    static String customersQuery(Period period) {
+        return "SELECT COUNT(DISTINCT customer_id) FROM sales_rollup_customers WHERE " + bucketRange(period);
+    }
+
+    // Today's sales per hour of day, from at most 24 hour rows
+    public static double[] todayByHour(Connection conn) throws SQLException {
+        SchemaMigrator.ensureMigrated();
+        double[] byHour = new double[24];
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(TODAY_BY_HOUR)) {
+            while (rs.next()) {
+                byHour[rs.getInt("hour_of_day")] = rs.getDouble("total_sales");
+            }
+        }
+        return byHour;
+    }
+
+    // Half-open range of bucket_start values covering the period
+    private static String bucketRange(Period period) {
+        String start;
+        String end;
+        switch (period) {
+            case DAILY:
+                start = "CURDATE()";
+                end = start + " + INTERVAL 1 DAY";
+                break;
+            case WEEKLY:
+                // ISO week, Monday first, matching YEARWEEK(..., 1)
+                start = "CURDATE() - INTERVAL WEEKDAY(CURDATE()) DAY";
+                end = start + " + INTERVAL 7 DAY";
+                break;
+            case MONTHLY:
+                start = MONTH_START;
+                end = start + " + INTERVAL 1 MONTH";
+                break;
+            case ANNUAL:
+                start = "MAKEDATE(YEAR(CURDATE()), 1)";
+                end = start + " + INTERVAL 1 YEAR";
+                break;
+            default:
+                return "bucket_start IS NOT NULL";
+        }
+        return "bucket_start >= " + start + " AND bucket_start < " + end;
+    }
+}
@@ -0,0 +1,444 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+// Versioned schema changes, applied once per database in order at startup. Applied versions
+// are recorded in schema_version; add new steps to the end of MIGRATIONS, never edit old ones.
+public class SchemaMigrator {
+    private static final String LOCK_NAME = "shopping_system_schema_migration";
+    private static final int LOCK_TIMEOUT_SECONDS = 60;
+
+    private static volatile boolean migrated = false;
+
+    private interface Step {
+        void apply(Connection conn) throws SQLException;
+    }
+
+    private record Migration(int version, String description, Step step) {
+    }
+
+    private static final List<Migration> MIGRATIONS = List.of(
+            new Migration(1, "products.updated_at for catalog delta polling", SchemaMigrator::addProductVersionColumn),
+            new Migration(2, "sales rollup tables", SchemaMigrator::createSalesRollupTables),
+            new Migration(3, "sales_history range indexes", SchemaMigrator::addSalesHistoryIndexes),
+            new Migration(4, "products sort indexes for paged inventory", SchemaMigrator::addProductSortIndexes),
+            new Migration(5, "sale journal replay markers", SchemaMigrator::createSaleJournalTable),
+            new Migration(6, "per-customer purchase totals", SchemaMigrator::createCustomerStatsTables),
+            new Migration(7, "supplier-product mapping and purchase orders", SchemaMigrator::createPurchaseOrderTables)
+    );
+
+    // Cheap after the first call; safe to call from every component that needs the schema
+    public static void ensureMigrated() throws SQLException {
+        if (migrated) {
+            return;
+        }
+        synchronized (SchemaMigrator.class) {
+            if (migrated) {
+                return;
+            }
+            try (Connection conn = DatabaseConnection.getConnection()) {
+                migrate(conn);
+            }
+            migrated = true;
+        }
+    }
+
+    private static void migrate(Connection conn) throws SQLException {
+        // Two tills starting together must not both run the same ALTER
+        try (PreparedStatement lock = conn.prepareStatement("SELECT GET_LOCK(?, ?)")) {
+            lock.setString(1, LOCK_NAME);
+            lock.setInt(2, LOCK_TIMEOUT_SECONDS);
+            try (ResultSet rs = lock.executeQuery()) {
+                if (!rs.next() || rs.getInt(1) != 1) {
+                    throw new SQLException("Timed out waiting for another instance to finish schema migration");
+                }
+            }
+        }
+
+        try {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate("""
+                        CREATE TABLE IF NOT EXISTS schema_version (
+                            version INT PRIMARY KEY,
+                            description VARCHAR(255) NOT NULL,
+                            applied_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+                            duration_ms BIGINT NOT NULL
+                        )""");
+            }
+
+            Set<Integer> applied = new HashSet<>();
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT version FROM schema_version")) {
+                while (rs.next()) {
+                    applied.add(rs.getInt(1));
+                }
+            }
+
+            for (Migration migration : MIGRATIONS) {
+                if (applied.contains(migration.version())) {
+                    continue;
+                }
+                long start = System.currentTimeMillis();
+                // MySQL commits implicitly at every CREATE or ALTER, so the transaction covers
+                // what a step writes after its last DDL statement: a backfill and its version
+                // row are committed together or not at all, and a step cut short runs again
+                conn.setAutoCommit(false);
+                long duration;
+                try {
+                    migration.step().apply(conn);
+                    duration = System.currentTimeMillis() - start;
+                    try (PreparedStatement pstmt = conn.prepareStatement(
+                            "INSERT INTO schema_version (version, description, duration_ms) VALUES (?, ?, ?)")) {
+                        pstmt.setInt(1, migration.version());
+                        pstmt.setString(2, migration.description());
+                        pstmt.setLong(3, duration);
+                        pstmt.executeUpdate();
+                    }
+                    conn.commit();
+                } catch (SQLException | RuntimeException e) {
+                    conn.rollback();
+                    throw e;
+                } finally {
+                    conn.setAutoCommit(true);
+                }
+                System.out.println("Applied schema migration " + migration.version() + " ("
+                        + migration.description() + ") in " + duration + " ms");
+            }
+        } finally {
+            try (PreparedStatement unlock = conn.prepareStatement("SELECT RELEASE_LOCK(?)")) {
+                unlock.setString(1, LOCK_NAME);
+                unlock.executeQuery().close();
+            }
+        }
+    }
+
+    // products.updated_at is maintained by MySQL on every write, so no panel has to remember
+    // to bump it; the index keeps the catalog's delta poll from scanning the table
+    private static void addProductVersionColumn(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            if (!columnExists(conn, "products", "updated_at")) {
+                stmt.executeUpdate("ALTER TABLE products ADD COLUMN updated_at TIMESTAMP(6) NOT NULL "
+                        + "DEFAULT CURRENT_TIMESTAMP(6) ON UPDATE CURRENT_TIMESTAMP(6)");
+            }
+            createIndexIfMissing(conn, "products", "idx_products_updated_at", "updated_at");
+        }
+    }
+
+    // One row per (granularity, bucket), backfilled from sales_history; afterwards
+    // SalesRollups.recordSale keeps it current inside every sale transaction
+    private static void createSalesRollupTables(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("""
+                    CREATE TABLE IF NOT EXISTS sales_rollup_customers (
+                        bucket_start DATE NOT NULL,
+                        customer_id INT NOT NULL,
+                        PRIMARY KEY (bucket_start, customer_id)
+                    )""");
+            stmt.executeUpdate("""
+                    INSERT IGNORE INTO sales_rollup_customers (bucket_start, customer_id)
+                    SELECT DISTINCT DATE(sale_date), customer_id FROM sales_history WHERE customer_id IS NOT NULL""");
+
+            if (tableExists(conn, "sales_rollup")) {
+                return;
+            }
+            stmt.executeUpdate("DROP TABLE IF EXISTS sales_rollup_staging");
+            stmt.executeUpdate("""
+                    CREATE TABLE sales_rollup_staging (
+                        granularity CHAR(1) NOT NULL,
+                        bucket_start DATETIME NOT NULL,
+                        total_sales DECIMAL(15, 2) NOT NULL DEFAULT 0,
+                        products_sold BIGINT NOT NULL DEFAULT 0,
+                        sale_count BIGINT NOT NULL DEFAULT 0,
+                        PRIMARY KEY (granularity, bucket_start)
+                    )""");
+            stmt.executeUpdate("""
+                    INSERT INTO sales_rollup_staging (granularity, bucket_start, total_sales, products_sold, sale_count)
+                    SELECT 'H', DATE_FORMAT(sale_date, '%Y-%m-%d %H:00:00'), SUM(total_price), SUM(quantity_sold), COUNT(*)
+                    FROM sales_history GROUP BY DATE_FORMAT(sale_date, '%Y-%m-%d %H:00:00')""");
+            stmt.executeUpdate("""
+                    INSERT INTO sales_rollup_staging (granularity, bucket_start, total_sales, products_sold, sale_count)
+                    SELECT 'D', DATE(bucket_start), SUM(total_sales), SUM(products_sold), SUM(sale_count)
+                    FROM sales_rollup_staging WHERE granularity = 'H' GROUP BY DATE(bucket_start)""");
+            stmt.executeUpdate("""
+                    INSERT INTO sales_rollup_staging (granularity, bucket_start, total_sales, products_sold, sale_count)
+                    SELECT 'M', bucket_start - INTERVAL (DAYOFMONTH(bucket_start) - 1) DAY,
+                           SUM(total_sales), SUM(products_sold), SUM(sale_count)
+                    FROM sales_rollup_staging WHERE granularity = 'D'
+                    GROUP BY bucket_start - INTERVAL (DAYOFMONTH(bucket_start) - 1) DAY""");
+            // Renaming last means a half-finished backfill is simply redone next start
+            stmt.executeUpdate("RENAME TABLE sales_rollup_staging TO sales_rollup");
+        }
+    }
+
+    // Every sales_history read filters on a half-open sale_date range, optionally narrowed by
+    // product or customer; each of these indexes serves one of those shapes
+    private static void addSalesHistoryIndexes(Connection conn) throws SQLException {
+        createIndexIfMissing(conn, "sales_history", "idx_sales_history_sale_date", "sale_date");
+        createIndexIfMissing(conn, "sales_history", "idx_sales_history_product_date", "product_id, sale_date");
+        createIndexIfMissing(conn, "sales_history", "idx_sales_history_customer_date", "customer_id, sale_date");
+        if (tableExists(conn, "sales_data")) {
+            createIndexIfMissing(conn, "sales_data", "idx_sales_data_sale_date", "sale_date, customer_id");
+        }
+    }
+
+    // PagedProductTableModel pages on (column, id); InnoDB appends the primary key to every
+    // secondary index, so a single-column index is enough for each sortable column
+    private static void addProductSortIndexes(Connection conn) throws SQLException {
+        createIndexIfMissing(conn, "products", "idx_products_name", "name");
+        createIndexIfMissing(conn, "products", "idx_products_price", "price");
+        createIndexIfMissing(conn, "products", "idx_products_quantity", "quantity");
+        createIndexIfMissing(conn, "products", "idx_products_reorder_level", "reorder_level");
+    }
+
+    // One row per journaled sale applied to the database, written in the same transaction as
+    // the sale itself, so replaying the journal after a crash never sells anything twice
+    private static void createSaleJournalTable(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("""
+                    CREATE TABLE IF NOT EXISTS sale_journal_applied (
+                        sale_uuid CHAR(36) PRIMARY KEY,
+                        applied_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+                    )""");
+        }
+    }
+
+    // Lifetime totals per customer and per (customer, product), backfilled from sales_history;
+    // afterwards CustomerStats.recordVisit keeps them current inside every sale transaction.
+    // History has no basket id, so backfilled visits count distinct sale times.
+    private static void createCustomerStatsTables(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("""
+                    CREATE TABLE IF NOT EXISTS customer_stats (
+                        customer_id INT PRIMARY KEY,
+                        lifetime_spend DECIMAL(15, 2) NOT NULL DEFAULT 0,
+                        visit_count BIGINT NOT NULL DEFAULT 0,
+                        items_bought BIGINT NOT NULL DEFAULT 0,
+                        first_visit DATETIME NOT NULL,
+                        last_visit DATETIME NOT NULL
+                    )""");
+            stmt.executeUpdate("""
+                    CREATE TABLE IF NOT EXISTS customer_product_stats (
+                        customer_id INT NOT NULL,
+                        product_id INT NOT NULL,
+                        quantity BIGINT NOT NULL DEFAULT 0,
+                        spend DECIMAL(15, 2) NOT NULL DEFAULT 0,
+                        PRIMARY KEY (customer_id, product_id),
+                        INDEX idx_customer_product_stats_spend (customer_id, spend)
+                    )""");
+            // In the migration's transaction with the backfill, so a crash in between rolls the
+            // DELETEs back instead of leaving the tables empty
+            stmt.executeUpdate("DELETE FROM customer_stats");
+            stmt.executeUpdate("DELETE FROM customer_product_stats");
+            stmt.executeUpdate("""
+                    INSERT INTO customer_stats (customer_id, lifetime_spend, visit_count, items_bought, first_visit, last_visit)
+                    SELECT customer_id, SUM(total_price), COUNT(DISTINCT sale_date), SUM(quantity_sold), MIN(sale_date), MAX(sale_date)
+                    FROM sales_history WHERE customer_id IS NOT NULL GROUP BY customer_id""");
+            stmt.executeUpdate("""
+                    INSERT INTO customer_product_stats (customer_id, product_id, quantity, spend)
+                    SELECT customer_id, product_id, SUM(quantity_sold), SUM(total_price)
+                    FROM sales_history WHERE customer_id IS NOT NULL GROUP BY customer_id, product_id""");
+        }
+    }
+
+    // suppliers.products_supplied stays as the text the manager types; supplier_products is
+    // its structured form, which SupplierIndex and PurchaseOrders read. Backfilled by parsing
+    // the text against product ids, names and categories; see backfillSupplierProducts.
+    private static void createPurchaseOrderTables(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("""
+                    CREATE TABLE IF NOT EXISTS supplier_products (
+                        supplier_id INT NOT NULL,
+                        product_id INT NOT NULL,
+                        unit_cost DECIMAL(10, 2) NULL,
+                        PRIMARY KEY (supplier_id, product_id),
+                        INDEX idx_supplier_products_product (product_id, unit_cost)
+                    )""");
+            stmt.executeUpdate("""
+                    CREATE TABLE IF NOT EXISTS purchase_orders (
+                        id INT AUTO_INCREMENT PRIMARY KEY,
+                        supplier_id INT NOT NULL,
+                        status VARCHAR(16) NOT NULL DEFAULT 'PENDING',
+                        total_cost DECIMAL(15, 2) NOT NULL DEFAULT 0,
+                        created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+                        received_at TIMESTAMP NULL,
+                        INDEX idx_purchase_orders_status (status, created_at)
+                    )""");
+            stmt.executeUpdate("""
+                    CREATE TABLE IF NOT EXISTS purchase_order_lines (
+                        order_id INT NOT NULL,
+                        product_id INT NOT NULL,
+                        quantity INT NOT NULL,
+                        unit_cost DECIMAL(10, 2) NULL,
+                        PRIMARY KEY (order_id, product_id),
+                        INDEX idx_purchase_order_lines_product (product_id)
+                    )""");
+            // Start over if an earlier attempt stopped halfway
+            stmt.executeUpdate("DELETE FROM supplier_products");
+        }
+        backfillSupplierProducts(conn);
+    }
+
+    // Migration 7's reading of products_supplied, kept here as it was when the migration was
+    // written: entries separated by commas, semicolons or new lines, each a product id, name
+    // or category, ignoring case. SupplierIndex.Resolver may change later; this must not.
+    private static void backfillSupplierProducts(Connection conn) throws SQLException {
+        Set<Integer> ids = new HashSet<>();
+        Map<String, List<Integer>> byName = new HashMap<>();
+        Map<String, List<Integer>> byCategory = new HashMap<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT id, name, category FROM products")) {
+            while (rs.next()) {
+                int id = rs.getInt(1);
+                String name = rs.getString(2);
+                String category = rs.getString(3);
+                ids.add(id);
+                if (name != null) {
+                    byName.computeIfAbsent(name.trim().toLowerCase(Locale.ROOT), k -> new ArrayList<>(1)).add(id);
+                }
+                if (category != null) {
+                    byCategory.computeIfAbsent(category.trim().toLowerCase(Locale.ROOT), k -> new ArrayList<>()).add(id);
+                }
+            }
+        }
+
+        Map<Integer, Set<Integer>> mappings = new HashMap<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT id, products_supplied FROM suppliers")) {
+            while (rs.next()) {
+                Set<Integer> productIds = new LinkedHashSet<>();
+                String productsSupplied = rs.getString(2);
+                if (productsSupplied != null) {
+                    for (String entry : productsSupplied.split("[,;\\n]")) {
+                        String key = entry.trim().toLowerCase(Locale.ROOT);
+                        if (key.isEmpty()) {
+                            continue;
+                        }
+                        if (key.chars().allMatch(Character::isDigit) && key.length() < 10
+                                && ids.contains(Integer.parseInt(key))) {
+                            productIds.add(Integer.parseInt(key));
+                            continue;
+                        }
+                        productIds.addAll(byName.getOrDefault(key, List.of()));
+                        productIds.addAll(byCategory.getOrDefault(key, List.of()));
+                    }
+                }
+                mappings.put(rs.getInt(1), productIds);
+            }
+        }
+
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "INSERT INTO supplier_products (supplier_id, product_id, unit_cost) VALUES (?, ?, NULL)")) {
+            int batched = 0;
+            for (Map.Entry<Integer, Set<Integer>> supplier : mappings.entrySet()) {
+                for (int productId : supplier.getValue()) {
+                    pstmt.setInt(1, supplier.getKey());
+                    pstmt.setInt(2, productId);
+                    pstmt.addBatch();
+                    if (++batched == 2_000) {
+                        pstmt.executeBatch();
+                        batched = 0;
+                    }
+                }
+            }
+            if (batched > 0) {
+                pstmt.executeBatch();
+            }
+        }
+    }
+
+    private static void createIndexIfMissing(Connection conn, String table, String index, String columns) throws SQLException {
+        String query = "SELECT 1 FROM information_schema.STATISTICS WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND INDEX_NAME = ?";
+        try (PreparedStatement pstmt = conn.prepareStatement(query)) {
+            pstmt.setString(1, table);
+            pstmt.setString(2, index);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    return;
+                }
+            }
+        }
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("CREATE INDEX " + index + " ON " + table + " (" + columns + ")");
+        }
+    }
+
+    private static boolean tableExists(Connection conn, String table) throws SQLException {
+        String query = "SELECT 1 FROM information_schema.TABLES WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ?";
+        try (PreparedStatement pstmt = conn.prepareStatement(query)) {
+            pstmt.setString(1, table);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    private static boolean columnExists(Connection conn, String table, String column) throws SQLException {
+        String query = "SELECT 1 FROM information_schema.COLUMNS WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND COLUMN_NAME = ?";
+        try (PreparedStatement pstmt = conn.prepareStatement(query)) {
+            pstmt.setString(1, table);
+            pstmt.setString(2, column);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    // Checks with EXPLAIN, against the configured database after migrating it, that the report
+    // range queries are answered from the indexes created above rather than by a table scan.
+    // Exits non-zero if any is not. On a nearly empty table MySQL may prefer a scan anyway, so
+    // run it against a database with realistic data.
+    public static void main(String[] args) throws Exception {
+        ensureMigrated();
+        Map<String, String> expectedIndexes = new LinkedHashMap<>();
+        for (SalesRollups.Period period : SalesRollups.Period.values()) {
+            if (period != SalesRollups.Period.ALL_TIME) {  // Reads every row by design
+                expectedIndexes.put(SalesRollups.totalsQuery(period), "PRIMARY");
+                expectedIndexes.put(SalesRollups.customersQuery(period), "PRIMARY");
+            }
+        }
+        expectedIndexes.put(SalesRollups.TODAY_BY_HOUR, "PRIMARY");
+        expectedIndexes.put("SELECT id, product_id, quantity_sold, total_price FROM sales_history "
+                + "WHERE sale_date >= CURDATE() - INTERVAL 1 DAY AND sale_date < CURDATE()", "idx_sales_history_sale_date");
+        expectedIndexes.put("SELECT SUM(quantity_sold), SUM(total_price) FROM sales_history "
+                + "WHERE product_id = 1 AND sale_date >= CURDATE() - INTERVAL 30 DAY AND sale_date < CURDATE()",
+                "idx_sales_history_product_date");
+        expectedIndexes.put("SELECT SUM(total_price) FROM sales_history "
+                + "WHERE customer_id = 1 AND sale_date >= CURDATE() - INTERVAL 30 DAY AND sale_date < CURDATE()",
+                "idx_sales_history_customer_date");
+
+        int failed = 0;
+        try (Connection conn = DatabaseConnection.getConnection();
+             Statement stmt = conn.createStatement()) {
+            for (Map.Entry<String, String> check : expectedIndexes.entrySet()) {
+                try (ResultSet rs = stmt.executeQuery("EXPLAIN " + check.getKey())) {
+                    rs.next();
+                    String key = rs.getString("key");
+                    String extra = rs.getString("Extra");
+                    // MySQL answers some queries on empty tables without choosing any index
+                    boolean nothingToRead = key == null && extra != null && (extra.contains("no matching row")
+                            || extra.contains("Impossible WHERE") || extra.contains("optimized away"));
+                    boolean ok = check.getValue().equals(key) || nothingToRead;
+                    if (!ok) {
+                        failed++;
+                    }
+                    System.out.printf("%-4s %-32s type=%-6s key=%-32s rows=%-8s %s%n    %s%n", ok ? "OK" : "FAIL",
+                            check.getValue(), rs.getString("type"), key, rs.getString("rows"), extra == null ? "" : extra,
+                            check.getKey());
+                }
+            }
+        }
+        System.out.println(failed == 0 ? "All report queries use their indexes" : failed + " queries do not use their index");
+        System.exit(failed == 0 ? 0 : 1);
+    }
+}
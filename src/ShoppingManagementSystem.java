@@ -2,6 +2,9 @@ import javax.swing.*;
 
 public class ShoppingManagementSystem {
     public static void main(String[] args) {
+        // Keep the last minutes of flight recorder data in case a till stalls
+        FlightEvents.startContinuous();
+
         SwingUtilities.invokeLater(() -> {
             // Show the login screen
             JFrame loginFrame = new JFrame("Login");
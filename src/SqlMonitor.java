@@ -0,0 +1,356 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Times every statement run through DatabaseConnection. Connections are wrapped in a proxy
+// that wraps the statements it creates; each execute is timed into a histogram for its SQL
+// (literals and IN lists folded, so one shape is one entry), with row counts and errors.
+// Anything slower than the threshold is also logged to stderr and kept for the Diagnostics tab.
+// Calls, rows, errors and total time count from startup; the latency percentiles cover only
+// the last 30 to 60 seconds (-Dsmartshop.sqlMonitor.windowSeconds sets the 30), so they show
+// how the database is doing now rather than averaged over the whole uptime.
+//
+// -Dsmartshop.sqlMonitor=false turns it off entirely (connections are then not wrapped);
+// -Dsmartshop.slowQueryMs sets the threshold, 200 ms by default. When on, the cost is a
+// proxy call and a few counter updates per execute. Result sets are wrapped in
+// CountingResultSet, a plain delegating class, so reading rows involves no reflection and
+// streaming reads stay cheap.
+public class SqlMonitor {
+    private static final SqlMonitor INSTANCE = new SqlMonitor(
+            !"false".equalsIgnoreCase(System.getProperty("smartshop.sqlMonitor")),
+            Long.getLong("smartshop.slowQueryMs", 200));
+
+    // Beyond this many shapes new SQL is counted under one entry, so a caller building SQL
+    // with values spliced in cannot grow the map without bound
+    private static final int MAX_QUERIES = 256;
+    private static final int MAX_RAW_KEYS = 4_096;
+    private static final int SLOW_LOG_SIZE = 100;
+    private static final String OTHER = "(other statements)";
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+    private static final long WINDOW_MILLIS = Long.getLong("smartshop.sqlMonitor.windowSeconds", 30) * 1_000;
+
+    public static final class QueryStats {
+        private final String sql;
+        private final LatencyHistogram.Window latency = new LatencyHistogram.Window(WINDOW_MILLIS);
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+
+        private QueryStats(String sql) {
+            this.sql = sql;
+        }
+
+        public String sql() {
+            return sql;
+        }
+
+        // Recent executions only
+        public LatencyHistogram.Window latency() {
+            return latency;
+        }
+
+        public long calls() {
+            return calls.sum();
+        }
+
+        public long rows() {
+            return rows.sum();
+        }
+
+        public long errors() {
+            return errors.sum();
+        }
+
+        public double totalMillis() {
+            return totalNanos.sum() / 1e6;
+        }
+
+        void addRows(long count) {
+            rows.add(count);
+        }
+    }
+
+    public record SlowQuery(String time, String thread, String sql, long millis, long rows) {
+        @Override
+        public String toString() {
+            return String.format("%s  %6d ms  %6d rows  [%s]  %s", time, millis, rows, thread, sql);
+        }
+    }
+
+    private final boolean enabled;
+    private final long slowNanos;
+    private final Map<String, QueryStats> queries = new ConcurrentHashMap<>();
+    // SQL text exactly as prepared -> its entry, so the folding runs once per distinct string
+    private final Map<String, QueryStats> byRawSql = new ConcurrentHashMap<>();
+    private final LatencyHistogram.Window acquire = new LatencyHistogram.Window(WINDOW_MILLIS);
+    private final Deque<SlowQuery> slowQueries = new ArrayDeque<>();  // guarded by itself
+
+    public static SqlMonitor getInstance() {
+        return INSTANCE;
+    }
+
+    private SqlMonitor(boolean enabled, long slowMillis) {
+        this.enabled = enabled;
+        this.slowNanos = slowMillis * 1_000_000;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long slowQueryMillis() {
+        return slowNanos / 1_000_000;
+    }
+
+    // Time spent getting a connection from the pool
+    public void recordAcquire(long nanos) {
+        if (enabled) {
+            acquire.record(nanos);
+        }
+    }
+
+    public LatencyHistogram.Window acquireLatency() {
+        return acquire;
+    }
+
+    public Connection wrap(Connection conn) {
+        if (!enabled) {
+            return conn;
+        }
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new ConnectionHandler(conn));
+    }
+
+    // Busiest first, by total time spent
+    public List<QueryStats> snapshot() {
+        List<QueryStats> snapshot = new ArrayList<>(queries.values());
+        snapshot.sort(Comparator.comparingDouble(QueryStats::totalMillis).reversed());
+        return snapshot;
+    }
+
+    // Newest first
+    public List<SlowQuery> slowQueries() {
+        synchronized (slowQueries) {
+            return new ArrayList<>(slowQueries);
+        }
+    }
+
+    private QueryStats statsFor(String rawSql) {
+        if (rawSql == null) {
+            return queries.computeIfAbsent(OTHER, QueryStats::new);
+        }
+        QueryStats stats = byRawSql.get(rawSql);
+        if (stats != null) {
+            return stats;
+        }
+        String shape = shapeOf(rawSql);
+        stats = queries.get(shape);
+        if (stats == null) {
+            stats = queries.size() < MAX_QUERIES ? queries.computeIfAbsent(shape, QueryStats::new)
+                    : queries.computeIfAbsent(OTHER, QueryStats::new);
+        }
+        if (byRawSql.size() < MAX_RAW_KEYS) {
+            byRawSql.put(rawSql, stats);
+        }
+        return stats;
+    }
+
+    private void record(QueryStats stats, long nanos, long rows, boolean failed) {
+        stats.latency.record(nanos);
+        stats.calls.increment();
+        stats.totalNanos.add(nanos);
+        if (rows > 0) {
+            stats.rows.add(rows);
+        }
+        if (failed) {
+            stats.errors.increment();
+        }
+        if (nanos >= slowNanos) {
+            SlowQuery slow = new SlowQuery(LocalTime.now().format(TIME), Thread.currentThread().getName(), stats.sql,
+                    nanos / 1_000_000, rows);
+            System.err.println("Slow query: " + slow);
+            synchronized (slowQueries) {
+                slowQueries.addFirst(slow);
+                if (slowQueries.size() > SLOW_LOG_SIZE) {
+                    slowQueries.removeLast();
+                }
+            }
+        }
+    }
+
+    // Collapses whitespace, replaces string and number literals with ? and shortens IN lists
+    // to IN (...), so statements that differ only in their values share one entry
+    static String shapeOf(String sql) {
+        StringBuilder shape = new StringBuilder(Math.min(sql.length(), 512));
+        int n = sql.length();
+        int i = 0;
+        while (i < n) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                while (i < n && Character.isWhitespace(sql.charAt(i))) {
+                    i++;
+                }
+                if (shape.length() > 0) {
+                    shape.append(' ');
+                }
+                continue;
+            }
+            if (c == '\'' || c == '"') {
+                // A doubled quote is an escaped quote inside the same literal
+                do {
+                    i++;
+                    while (i < n && sql.charAt(i) != c) {
+                        i += sql.charAt(i) == '\\' ? 2 : 1;
+                    }
+                    i++;
+                } while (i < n && sql.charAt(i) == c);
+                shape.append('?');
+                continue;
+            }
+            boolean startsWord = shape.length() == 0 || !Character.isLetterOrDigit(shape.charAt(shape.length() - 1))
+                    && shape.charAt(shape.length() - 1) != '_';
+            if (Character.isDigit(c) && startsWord) {
+                while (i < n && (Character.isDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+                    i++;
+                }
+                shape.append('?');
+                continue;
+            }
+            if (c == '(' && endsWithIn(shape)) {
+                int close = sql.indexOf(')', i);
+                if (close > 0) {
+                    shape.append("(...)");
+                    i = close + 1;
+                    continue;
+                }
+            }
+            shape.append(c);
+            i++;
+        }
+        return shape.toString().trim();
+    }
+
+    private static boolean endsWithIn(StringBuilder shape) {
+        int end = shape.length();
+        while (end > 0 && shape.charAt(end - 1) == ' ') {
+            end--;
+        }
+        return end >= 3 && shape.substring(end - 2, end).equalsIgnoreCase("IN") && !Character.isLetterOrDigit(shape.charAt(end - 3));
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private final class ConnectionHandler implements InvocationHandler {
+        private final Connection conn;
+
+        ConnectionHandler(Connection conn) {
+            this.conn = conn;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    break;
+            }
+            Object result = SqlMonitor.invoke(conn, method, args);
+            if (result instanceof Statement statement) {
+                String sql = method.getName().startsWith("prepare") ? (String) args[0] : null;
+                Class<?> type = result instanceof CallableStatement ? CallableStatement.class
+                        : result instanceof PreparedStatement ? PreparedStatement.class : Statement.class;
+                return Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[]{type},
+                        new StatementHandler(statement, sql == null ? null : statsFor(sql)));
+            }
+            return result;
+        }
+    }
+
+    private final class StatementHandler implements InvocationHandler {
+        private final Statement statement;
+        // null for a plain Statement, whose SQL arrives with each execute
+        private final QueryStats prepared;
+
+        StatementHandler(Statement statement, QueryStats prepared) {
+            this.statement = statement;
+            this.prepared = prepared;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (!name.startsWith("execute")) {
+                switch (name) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    default:
+                        return SqlMonitor.invoke(statement, method, args);
+                }
+            }
+
+            QueryStats stats = prepared;
+            if (stats == null) {
+                stats = statsFor(args != null && args.length > 0 && args[0] instanceof String sql ? sql : null);
+            }
+            long start = System.nanoTime();
+            Object result;
+            try {
+                result = SqlMonitor.invoke(statement, method, args);
+            } catch (Throwable t) {
+                record(stats, System.nanoTime() - start, 0, true);
+                throw t;
+            }
+            long nanos = System.nanoTime() - start;
+
+            if (result instanceof ResultSet rs) {
+                // Rows are counted as they are read and recorded when the result is closed
+                record(stats, nanos, 0, false);
+                return new CountingResultSet(rs, stats);
+            }
+            long rows = 0;
+            if (result instanceof Integer count) {
+                rows = Math.max(0, count);
+            } else if (result instanceof Long count) {
+                rows = Math.max(0, count);
+            } else if (result instanceof int[] counts) {
+                for (int count : counts) {
+                    rows += Math.max(0, count);
+                }
+            } else if (result instanceof long[] counts) {
+                for (long count : counts) {
+                    rows += Math.max(0, count);
+                }
+            }
+            record(stats, nanos, rows, false);
+            return result;
+        }
+    }
+}
@@ -4,12 +4,15 @@ import java.awt.*;
 import java.sql.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.List;
 
 public class StaffPanel extends JPanel {
     private JTable staffTable;
     private DefaultTableModel tableModel;
     private JTextField nameField, roleField, scheduleField;
     private JButton addButton, updateButton, deleteButton;
+    private final BackgroundLoader loader = new BackgroundLoader(this);
 
     public StaffPanel() {
         setLayout(new BorderLayout(10, 10));  // Add padding between components
@@ -32,9 +35,11 @@ public class StaffPanel extends JPanel {
         JPanel formPanel = createFormPanel();
         add(formPanel, BorderLayout.NORTH);
 
-        // Add a panel for the buttons
-        JPanel buttonPanel = createButtonPanel();
-        add(buttonPanel, BorderLayout.SOUTH);
+        // Add a panel for the buttons, above the loading status
+        JPanel southPanel = new JPanel(new BorderLayout());
+        southPanel.add(createButtonPanel(), BorderLayout.CENTER);
+        southPanel.add(loader.getStatusBar(), BorderLayout.SOUTH);
+        add(southPanel, BorderLayout.SOUTH);
     }
 
     private JPanel createFormPanel() {
@@ -113,23 +118,28 @@ public class StaffPanel extends JPanel {
     }
 
     private void loadStaffData() {
-        try (Connection conn = DatabaseConnection.getConnection();
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery("SELECT * FROM staff")) {
-
-            while (rs.next()) {
-                int id = rs.getInt("id");
-                String name = rs.getString("name");
-                String role = rs.getString("role");
-                String schedule = rs.getString("schedule");
-
-                // Add the staff data to the table
-                tableModel.addRow(new Object[]{id, name, role, schedule});
+        loader.submit("load", progress -> {
+            List<Object[]> rows = new ArrayList<>();
+            try (Connection conn = DatabaseConnection.getConnection();
+                 Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT * FROM staff")) {
+
+                while (rs.next() && !progress.isCancelled()) {
+                    int id = rs.getInt("id");
+                    String name = rs.getString("name");
+                    String role = rs.getString("role");
+                    String schedule = rs.getString("schedule");
+                    rows.add(new Object[]{id, name, role, schedule});
+                }
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(this, "Error loading staff data.");
-        }
+            return rows;
+        }, rows -> {
+            // Add the staff data to the table
+            tableModel.setRowCount(0);
+            for (Object[] row : rows) {
+                tableModel.addRow(row);
+            }
+        }, "Error loading staff data.");
     }
 
     private void addStaff() {
@@ -137,31 +147,23 @@ public class StaffPanel extends JPanel {
         String role = roleField.getText().trim();
         String schedule = scheduleField.getText().trim();
 
-        try (Connection conn = DatabaseConnection.getConnection()) {
+        loader.execute(progress -> {
             String query = "INSERT INTO staff (name, role, schedule) VALUES (?, ?, ?)";
-            try (PreparedStatement pstmt = conn.prepareStatement(query)) {
+            try (Connection conn = DatabaseConnection.getConnection();
+                 PreparedStatement pstmt = conn.prepareStatement(query, Statement.RETURN_GENERATED_KEYS)) {
                 pstmt.setString(1, name);
                 pstmt.setString(2, role);
                 pstmt.setString(3, schedule);
                 pstmt.executeUpdate();
-                JOptionPane.showMessageDialog(this, "Staff added successfully.");
-                // Add the new staff to the table
-                tableModel.addRow(new Object[]{getLastInsertedId(conn), name, role, schedule});
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(this, "Error adding staff.");
-        }
-    }
-
-    private int getLastInsertedId(Connection conn) throws SQLException {
-        String query = "SELECT LAST_INSERT_ID()";
-        try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(query)) {
-            if (rs.next()) {
-                return rs.getInt(1);
+                try (ResultSet rs = pstmt.getGeneratedKeys()) {
+                    return rs.next() ? rs.getInt(1) : -1; // -1 if no ID is found
+                }
             }
-        }
-        return -1; // Return -1 if no ID is found
+        }, id -> {
+            JOptionPane.showMessageDialog(this, "Staff added successfully.");
+            // Add the new staff to the table
+            tableModel.addRow(new Object[]{id, name, role, schedule});
+        }, "Error adding staff.");
     }
 
     private void updateStaff() {
@@ -172,24 +174,26 @@ public class StaffPanel extends JPanel {
             String role = roleField.getText().trim();
             String schedule = scheduleField.getText().trim();
 
-            try (Connection conn = DatabaseConnection.getConnection()) {
+            loader.execute(progress -> {
                 String query = "UPDATE staff SET name = ?, role = ?, schedule = ? WHERE id = ?";
-                try (PreparedStatement pstmt = conn.prepareStatement(query)) {
+                try (Connection conn = DatabaseConnection.getConnection();
+                     PreparedStatement pstmt = conn.prepareStatement(query)) {
                     pstmt.setString(1, name);
                     pstmt.setString(2, role);
                     pstmt.setString(3, schedule);
                     pstmt.setInt(4, id);
-                    pstmt.executeUpdate();
-                    // Update the table with the new values
-                    tableModel.setValueAt(name, selectedRow, 1);
-                    tableModel.setValueAt(role, selectedRow, 2);
-                    tableModel.setValueAt(schedule, selectedRow, 3);
-                    JOptionPane.showMessageDialog(this, "Staff updated successfully.");
+                    return pstmt.executeUpdate();
                 }
-            } catch (SQLException e) {
-                e.printStackTrace();
-                JOptionPane.showMessageDialog(this, "Error updating staff.");
-            }
+            }, updated -> {
+                // Update the table with the new values; the row may have moved while saving
+                int row = findRow(id);
+                if (row >= 0) {
+                    tableModel.setValueAt(name, row, 1);
+                    tableModel.setValueAt(role, row, 2);
+                    tableModel.setValueAt(schedule, row, 3);
+                }
+                JOptionPane.showMessageDialog(this, "Staff updated successfully.");
+            }, "Error updating staff.");
         } else {
             JOptionPane.showMessageDialog(this, "No staff selected for update.");
         }
@@ -200,21 +204,32 @@ public class StaffPanel extends JPanel {
         if (selectedRow >= 0) {
             int id = (int) tableModel.getValueAt(selectedRow, 0);
 
-            try (Connection conn = DatabaseConnection.getConnection()) {
+            loader.execute(progress -> {
                 String query = "DELETE FROM staff WHERE id = ?";
-                try (PreparedStatement pstmt = conn.prepareStatement(query)) {
+                try (Connection conn = DatabaseConnection.getConnection();
+                     PreparedStatement pstmt = conn.prepareStatement(query)) {
                     pstmt.setInt(1, id);
-                    pstmt.executeUpdate();
-                    // Remove the staff from the table
-                    tableModel.removeRow(selectedRow);
-                    JOptionPane.showMessageDialog(this, "Staff deleted successfully.");
+                    return pstmt.executeUpdate();
                 }
-            } catch (SQLException e) {
-                e.printStackTrace();
-                JOptionPane.showMessageDialog(this, "Error deleting staff.");
-            }
+            }, deleted -> {
+                // Remove the staff from the table
+                int row = findRow(id);
+                if (row >= 0) {
+                    tableModel.removeRow(row);
+                }
+                JOptionPane.showMessageDialog(this, "Staff deleted successfully.");
+            }, "Error deleting staff.");
         } else {
             JOptionPane.showMessageDialog(this, "No staff selected for deletion.");
         }
     }
+
+    private int findRow(int id) {
+        for (int row = 0; row < tableModel.getRowCount(); row++) {
+            if ((int) tableModel.getValueAt(row, 0) == id) {
+                return row;
+            }
+        }
+        return -1;
+    }
 }
@@ -0,0 +1,49 @@
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Fixed set of locks indexed by key hash. Work on the same key is serialized while
+// work on different keys almost always proceeds in parallel, without a lock per key.
+public class StripedLock {
+    private final ReentrantLock[] stripes;
+    private final int mask;
+
+    public StripedLock(int minimumStripes) {
+        // Round up to a power of two so the stripe index is a cheap mask
+        int size = Integer.highestOneBit(Math.max(1, minimumStripes - 1)) << 1;
+        stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        mask = size - 1;
+    }
+
+    public ReentrantLock forKey(int key) {
+        return stripes[indexFor(key)];
+    }
+
+    // Distinct stripes for all keys, always in stripe order so that two threads locking
+    // overlapping key sets cannot deadlock
+    public List<ReentrantLock> forKeys(int... keys) {
+        BitSet indexes = new BitSet(stripes.length);
+        for (int key : keys) {
+            indexes.set(indexFor(key));
+        }
+        List<ReentrantLock> locks = new ArrayList<>(indexes.cardinality());
+        for (int i = indexes.nextSetBit(0); i >= 0; i = indexes.nextSetBit(i + 1)) {
+            locks.add(stripes[i]);
+        }
+        return locks;
+    }
+
+    private int indexFor(int key) {
+        // Spread the bits so sequential product ids do not all land on neighbouring stripes
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    public int size() {
+        return stripes.length;
+    }
+}
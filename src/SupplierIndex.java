@@ -0,0 +1,257 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+// Which suppliers deliver which products, from supplier_products, inverted so a product finds
+// its suppliers (cheapest known cost first) with one binary search. Costs are entered with
+// Set Unit Cost in the Suppliers tab. Held as sorted primitive arrays rather than a map of
+// lists: with hundreds of thousands of products that is a few MB and no per-entry objects.
+// An index is a snapshot; load a new one to see later edits.
+public final class SupplierIndex {
+    private static final int BATCH_SIZE = 2_000;
+
+    public record Supplier(int id, String name, String contact) {
+    }
+
+    private final int[] productIds;    // sorted, one entry per product
+    private final int[] offsets;       // suppliers of productIds[i] are at offsets[i]..offsets[i + 1]
+    private final int[] supplierIds;
+    private final double[] unitCosts;  // NaN where the cost is not known
+    private final Map<Integer, Supplier> suppliers;
+
+    private SupplierIndex(int[] productIds, int[] offsets, int[] supplierIds, double[] unitCosts,
+                          Map<Integer, Supplier> suppliers) {
+        this.productIds = productIds;
+        this.offsets = offsets;
+        this.supplierIds = supplierIds;
+        this.unitCosts = unitCosts;
+        this.suppliers = suppliers;
+    }
+
+    // Rows must arrive grouped by product, in order of preference within each product
+    static final class Builder {
+        private int[] productIds = new int[1024];
+        private int[] offsets = new int[1025];
+        private int[] supplierIds = new int[1024];
+        private double[] unitCosts = new double[1024];
+        private int products = 0;
+        private int mappings = 0;
+
+        void add(int productId, int supplierId, double unitCost) {
+            if (products == 0 || productIds[products - 1] != productId) {
+                if (products > 0 && productIds[products - 1] > productId) {
+                    throw new IllegalArgumentException("Rows must be ordered by product id");
+                }
+                if (products == productIds.length) {
+                    productIds = Arrays.copyOf(productIds, products * 2);
+                    offsets = Arrays.copyOf(offsets, products * 2 + 1);
+                }
+                offsets[products] = mappings;
+                productIds[products++] = productId;
+            }
+            if (mappings == supplierIds.length) {
+                supplierIds = Arrays.copyOf(supplierIds, mappings * 2);
+                unitCosts = Arrays.copyOf(unitCosts, mappings * 2);
+            }
+            supplierIds[mappings] = supplierId;
+            unitCosts[mappings++] = unitCost;
+        }
+
+        SupplierIndex build(Map<Integer, Supplier> suppliers) {
+            offsets[products] = mappings;
+            return new SupplierIndex(Arrays.copyOf(productIds, products), Arrays.copyOf(offsets, products + 1),
+                    Arrays.copyOf(supplierIds, mappings), Arrays.copyOf(unitCosts, mappings), Map.copyOf(suppliers));
+        }
+    }
+
+    // One streamed pass over supplier_products; MySQL does the ordering
+    public static SupplierIndex load(Connection conn) throws SQLException {
+        Map<Integer, Supplier> suppliers = new HashMap<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT id, name, contact FROM suppliers")) {
+            while (rs.next()) {
+                suppliers.put(rs.getInt(1), new Supplier(rs.getInt(1), rs.getString(2), rs.getString(3)));
+            }
+        }
+
+        Builder builder = new Builder();
+        try (Statement stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            stmt.setFetchSize(Integer.MIN_VALUE);  // Stream rows instead of buffering them all
+            try (ResultSet rs = stmt.executeQuery("SELECT product_id, supplier_id, unit_cost FROM supplier_products "
+                    + "ORDER BY product_id, unit_cost IS NULL, unit_cost, supplier_id")) {
+                while (rs.next()) {
+                    int productId = rs.getInt(1);
+                    int supplierId = rs.getInt(2);
+                    double cost = rs.getDouble(3);
+                    builder.add(productId, supplierId, rs.wasNull() ? Double.NaN : cost);
+                }
+            }
+        }
+        return builder.build(suppliers);
+    }
+
+    // The cheapest supplier with a known cost, else the lowest id; -1 if nobody supplies it
+    public int preferredSupplier(int productId) {
+        int i = Arrays.binarySearch(productIds, productId);
+        return i < 0 ? -1 : supplierIds[offsets[i]];
+    }
+
+    // NaN when unknown or when nobody supplies the product
+    public double preferredUnitCost(int productId) {
+        int i = Arrays.binarySearch(productIds, productId);
+        return i < 0 ? Double.NaN : unitCosts[offsets[i]];
+    }
+
+    public int[] suppliersOf(int productId) {
+        int i = Arrays.binarySearch(productIds, productId);
+        return i < 0 ? new int[0] : Arrays.copyOfRange(supplierIds, offsets[i], offsets[i + 1]);
+    }
+
+    public Supplier supplier(int supplierId) {
+        return suppliers.get(supplierId);
+    }
+
+    public int productCount() {
+        return productIds.length;
+    }
+
+    public int mappingCount() {
+        return supplierIds.length;
+    }
+
+    // Reads the free-text products_supplied column: a list separated by commas, semicolons or
+    // new lines, where each entry is a product id, a product name or a category (which means
+    // every product in it). Matching ignores case; entries that match nothing are ignored.
+    static final class Resolver {
+        private final Set<Integer> ids = new HashSet<>();
+        private final Map<String, List<Integer>> byName = new HashMap<>();
+        private final Map<String, List<Integer>> byCategory = new HashMap<>();
+
+        static Resolver of(Collection<ProductCatalog.Product> products) {
+            Resolver resolver = new Resolver();
+            for (ProductCatalog.Product product : products) {
+                resolver.add(product.id(), product.name(), product.category());
+            }
+            return resolver;
+        }
+
+        void add(int productId, String name, String category) {
+            ids.add(productId);
+            if (name != null) {
+                byName.computeIfAbsent(key(name), k -> new ArrayList<>(1)).add(productId);
+            }
+            if (category != null) {
+                byCategory.computeIfAbsent(key(category), k -> new ArrayList<>()).add(productId);
+            }
+        }
+
+        Set<Integer> resolve(String productsSupplied) {
+            Set<Integer> productIds = new LinkedHashSet<>();
+            if (productsSupplied == null) {
+                return productIds;
+            }
+            for (String entry : productsSupplied.split("[,;\\n]")) {
+                String key = key(entry);
+                if (key.isEmpty()) {
+                    continue;
+                }
+                if (key.chars().allMatch(Character::isDigit) && key.length() < 10) {
+                    int id = Integer.parseInt(key);
+                    if (ids.contains(id)) {
+                        productIds.add(id);
+                        continue;
+                    }
+                }
+                productIds.addAll(byName.getOrDefault(key, List.of()));
+                productIds.addAll(byCategory.getOrDefault(key, List.of()));
+            }
+            return productIds;
+        }
+
+        private static String key(String text) {
+            return text.trim().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    // Replaces the supplier's rows, keeping the unit cost of products it still supplies
+    public static void replaceMapping(Connection conn, int supplierId, Set<Integer> productIds) throws SQLException {
+        Map<Integer, Double> costs = new HashMap<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT product_id, unit_cost FROM supplier_products WHERE supplier_id = ? AND unit_cost IS NOT NULL")) {
+            pstmt.setInt(1, supplierId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    costs.put(rs.getInt(1), rs.getDouble(2));
+                }
+            }
+        }
+        try (PreparedStatement pstmt = conn.prepareStatement("DELETE FROM supplier_products WHERE supplier_id = ?")) {
+            pstmt.setInt(1, supplierId);
+            pstmt.executeUpdate();
+        }
+        insertMappings(conn, supplierId, productIds, costs);
+    }
+
+    // Sets what the supplier charges for one of its products, or clears it when unitCost is
+    // null; false if the supplier is not mapped to that product
+    public static boolean setUnitCost(Connection conn, int supplierId, int productId, Double unitCost) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "UPDATE supplier_products SET unit_cost = ? WHERE supplier_id = ? AND product_id = ?")) {
+            if (unitCost == null) {
+                pstmt.setNull(1, Types.DECIMAL);
+            } else {
+                pstmt.setDouble(1, unitCost);
+            }
+            pstmt.setInt(2, supplierId);
+            pstmt.setInt(3, productId);
+            // Counts matched rows (the driver default), so saving an unchanged cost is still true
+            return pstmt.executeUpdate() > 0;
+        }
+    }
+
+    public static void deleteMapping(Connection conn, int supplierId) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement("DELETE FROM supplier_products WHERE supplier_id = ?")) {
+            pstmt.setInt(1, supplierId);
+            pstmt.executeUpdate();
+        }
+    }
+
+    private static void insertMappings(Connection conn, int supplierId, Set<Integer> productIds,
+                                       Map<Integer, Double> costs) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "INSERT INTO supplier_products (supplier_id, product_id, unit_cost) VALUES (?, ?, ?)")) {
+            int batched = 0;
+            for (int productId : productIds) {
+                pstmt.setInt(1, supplierId);
+                pstmt.setInt(2, productId);
+                Double cost = costs.get(productId);
+                if (cost == null) {
+                    pstmt.setNull(3, Types.DECIMAL);
+                } else {
+                    pstmt.setDouble(3, cost);
+                }
+                pstmt.addBatch();
+                if (++batched == BATCH_SIZE) {
+                    pstmt.executeBatch();
+                    batched = 0;
+                }
+            }
+            if (batched > 0) {
+                pstmt.executeBatch();
+            }
+        }
+    }
+}
@@ -4,12 +4,22 @@ import java.awt.*;
 import java.sql.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
 
 public class SupplierPanel extends JPanel {
     private JTable supplierTable;
     private DefaultTableModel tableModel;
     private JTextField nameField, contactField, productsSuppliedField;
-    private JButton addButton, updateButton, deleteButton;
+    private JButton addButton, updateButton, deleteButton, unitCostButton, generateOrdersButton, receiveOrderButton;
+    private JTable orderTable;
+    private DefaultTableModel orderTableModel;
+    private final BackgroundLoader loader = new BackgroundLoader(this);
+
+    // A saved supplier and how many products its "Products Supplied" text matched
+    private record Saved(int id, int mappedProducts) {
+    }
 
     public SupplierPanel() {
         setLayout(new BorderLayout(10, 10));  // Add padding between components
@@ -20,21 +30,39 @@ public class SupplierPanel extends JPanel {
         supplierTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);  // Single row selection
         supplierTable.setRowHeight(30); // Increase row height for readability
 
-        // Load the supplier data from the database
+        // Pending purchase orders, read-only
+        orderTableModel = new DefaultTableModel(new String[]{"Order", "Supplier", "Created", "Lines", "Items", "Total Cost"}, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        orderTable = new JTable(orderTableModel);
+        orderTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        orderTable.setRowHeight(25);
+
+        // Load the supplier data and pending orders from the database
         loadSupplierData();
+        loadPendingOrders();
 
-        // Add the table to a scroll pane and add to the panel with styling
+        // Add the tables to scroll panes, suppliers above pending orders
         JScrollPane tableScrollPane = new JScrollPane(supplierTable);
         tableScrollPane.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5)); // Remove border around table
-        add(tableScrollPane, BorderLayout.CENTER);
+        JScrollPane orderScrollPane = new JScrollPane(orderTable);
+        orderScrollPane.setBorder(BorderFactory.createTitledBorder("Pending Purchase Orders"));
+        JSplitPane splitPane = new JSplitPane(JSplitPane.VERTICAL_SPLIT, tableScrollPane, orderScrollPane);
+        splitPane.setResizeWeight(0.6);
+        add(splitPane, BorderLayout.CENTER);
 
         // Add a form for entering supplier details at the top with padding and styling
         JPanel formPanel = createFormPanel();
         add(formPanel, BorderLayout.NORTH);
 
-        // Add a panel for the buttons with styling
-        JPanel buttonPanel = createButtonPanel();
-        add(buttonPanel, BorderLayout.SOUTH);
+        // Add a panel for the buttons with styling, above the loading status
+        JPanel southPanel = new JPanel(new BorderLayout());
+        southPanel.add(createButtonPanel(), BorderLayout.CENTER);
+        southPanel.add(loader.getStatusBar(), BorderLayout.SOUTH);
+        add(southPanel, BorderLayout.SOUTH);
     }
 
     private JPanel createFormPanel() {
@@ -66,21 +94,33 @@ public class SupplierPanel extends JPanel {
         addButton = new JButton("Add Supplier");
         updateButton = new JButton("Update Supplier");
         deleteButton = new JButton("Delete Supplier");
+        unitCostButton = new JButton("Set Unit Cost");
+        generateOrdersButton = new JButton("Generate Orders");
+        receiveOrderButton = new JButton("Receive Order");
 
         // Button styling for consistency
         styleButton(addButton);
         styleButton(updateButton);
         styleButton(deleteButton);
+        styleButton(unitCostButton);
+        styleButton(generateOrdersButton);
+        styleButton(receiveOrderButton);
 
         // Add buttons with some spacing between them
         buttonPanel.add(addButton);
         buttonPanel.add(updateButton);
         buttonPanel.add(deleteButton);
+        buttonPanel.add(unitCostButton);
+        buttonPanel.add(generateOrdersButton);
+        buttonPanel.add(receiveOrderButton);
 
         // Action Listeners for buttons
         addButton.addActionListener(e -> addSupplier());
         updateButton.addActionListener(e -> updateSupplier());
         deleteButton.addActionListener(e -> deleteSupplier());
+        unitCostButton.addActionListener(e -> setUnitCost());
+        generateOrdersButton.addActionListener(e -> generateOrders());
+        receiveOrderButton.addActionListener(e -> receiveOrder());
 
         return buttonPanel;
     }
@@ -96,25 +136,32 @@ public class SupplierPanel extends JPanel {
     }
 
     private void loadSupplierData() {
-        String query = "SELECT * FROM suppliers";
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(query);
-             ResultSet rs = pstmt.executeQuery()) {
-
-            // Clear existing data in the table
+        loader.submit("load", progress -> {
+            List<Object[]> rows = new ArrayList<>();
+            String query = "SELECT * FROM suppliers";
+            try (Connection conn = DatabaseConnection.getConnection();
+                 PreparedStatement pstmt = conn.prepareStatement(query);
+                 ResultSet rs = pstmt.executeQuery()) {
+
+                while (rs.next() && !progress.isCancelled()) {
+                    int id = rs.getInt("id");
+                    String name = rs.getString("name");
+                    String contact = rs.getString("contact");
+                    String productsSupplied = rs.getString("products_supplied");
+                    rows.add(new Object[]{id, name, contact, productsSupplied});
+                    if (rows.size() % 1000 == 0) {
+                        progress.update(-1, "Loaded " + rows.size() + " suppliers...");
+                    }
+                }
+            }
+            return rows;
+        }, rows -> {
+            // Clear existing data in the table and add the supplier data
             tableModel.setRowCount(0);
-
-            // Add the supplier data to the table
-            while (rs.next()) {
-                int id = rs.getInt("id");
-                String name = rs.getString("name");
-                String contact = rs.getString("contact");
-                String productsSupplied = rs.getString("products_supplied");
-                tableModel.addRow(new Object[]{id, name, contact, productsSupplied});
+            for (Object[] row : rows) {
+                tableModel.addRow(row);
             }
-        } catch (SQLException e) {
-            showErrorMessage("Error loading supplier data.");
-        }
+        }, "Error loading supplier data.");
     }
 
     private void addSupplier() {
@@ -123,26 +170,36 @@ public class SupplierPanel extends JPanel {
         String productsSupplied = productsSuppliedField.getText().trim();
 
         if (validateFields(name, contact, productsSupplied)) {
-            String query = "INSERT INTO suppliers (name, contact, products_supplied) VALUES (?, ?, ?)";
-            try (Connection conn = DatabaseConnection.getConnection();
-                 PreparedStatement pstmt = conn.prepareStatement(query, Statement.RETURN_GENERATED_KEYS)) {
-
-                pstmt.setString(1, name);
-                pstmt.setString(2, contact);
-                pstmt.setString(3, productsSupplied);
-                pstmt.executeUpdate();
-
-                // Get the generated ID and add it to the table
-                try (ResultSet rs = pstmt.getGeneratedKeys()) {
-                    if (rs.next()) {
-                        int generatedId = rs.getInt(1);
-                        tableModel.addRow(new Object[]{generatedId, name, contact, productsSupplied});
-                        showMessage("Supplier added successfully.");
+            loader.execute(progress -> {
+                String query = "INSERT INTO suppliers (name, contact, products_supplied) VALUES (?, ?, ?)";
+                Set<Integer> productIds = resolveProducts(productsSupplied);
+                try (Connection conn = DatabaseConnection.getConnection()) {
+                    conn.setAutoCommit(false);
+                    try (PreparedStatement pstmt = conn.prepareStatement(query, Statement.RETURN_GENERATED_KEYS)) {
+                        pstmt.setString(1, name);
+                        pstmt.setString(2, contact);
+                        pstmt.setString(3, productsSupplied);
+                        pstmt.executeUpdate();
+
+                        // Get the generated ID so it can be added to the table
+                        int generatedId;
+                        try (ResultSet rs = pstmt.getGeneratedKeys()) {
+                            generatedId = rs.next() ? rs.getInt(1) : -1;
+                        }
+                        SupplierIndex.replaceMapping(conn, generatedId, productIds);
+                        conn.commit();
+                        return new Saved(generatedId, productIds.size());
+                    } catch (SQLException e) {
+                        conn.rollback();
+                        throw e;
+                    } finally {
+                        conn.setAutoCommit(true);
                     }
                 }
-            } catch (SQLException e) {
-                showErrorMessage("Error adding supplier.");
-            }
+            }, saved -> {
+                tableModel.addRow(new Object[]{saved.id(), name, contact, productsSupplied});
+                showMessage("Supplier added successfully (" + saved.mappedProducts() + " products matched).");
+            }, "Error adding supplier.");
         }
     }
 
@@ -155,24 +212,37 @@ public class SupplierPanel extends JPanel {
             String productsSupplied = productsSuppliedField.getText().trim();
 
             if (validateFields(name, contact, productsSupplied)) {
-                String query = "UPDATE suppliers SET name = ?, contact = ?, products_supplied = ? WHERE id = ?";
-                try (Connection conn = DatabaseConnection.getConnection();
-                     PreparedStatement pstmt = conn.prepareStatement(query)) {
-
-                    pstmt.setString(1, name);
-                    pstmt.setString(2, contact);
-                    pstmt.setString(3, productsSupplied);
-                    pstmt.setInt(4, id);
-                    pstmt.executeUpdate();
-
-                    // Update the table with the new values
-                    tableModel.setValueAt(name, selectedRow, 1);
-                    tableModel.setValueAt(contact, selectedRow, 2);
-                    tableModel.setValueAt(productsSupplied, selectedRow, 3);
-                    showMessage("Supplier updated successfully.");
-                } catch (SQLException e) {
-                    showErrorMessage("Error updating supplier.");
-                }
+                loader.execute(progress -> {
+                    String query = "UPDATE suppliers SET name = ?, contact = ?, products_supplied = ? WHERE id = ?";
+                    Set<Integer> productIds = resolveProducts(productsSupplied);
+                    try (Connection conn = DatabaseConnection.getConnection()) {
+                        conn.setAutoCommit(false);
+                        try (PreparedStatement pstmt = conn.prepareStatement(query)) {
+                            pstmt.setString(1, name);
+                            pstmt.setString(2, contact);
+                            pstmt.setString(3, productsSupplied);
+                            pstmt.setInt(4, id);
+                            pstmt.executeUpdate();
+                            SupplierIndex.replaceMapping(conn, id, productIds);
+                            conn.commit();
+                            return new Saved(id, productIds.size());
+                        } catch (SQLException e) {
+                            conn.rollback();
+                            throw e;
+                        } finally {
+                            conn.setAutoCommit(true);
+                        }
+                    }
+                }, saved -> {
+                    // Update the table with the new values; the row may have moved while saving
+                    int row = findRow(id);
+                    if (row >= 0) {
+                        tableModel.setValueAt(name, row, 1);
+                        tableModel.setValueAt(contact, row, 2);
+                        tableModel.setValueAt(productsSupplied, row, 3);
+                    }
+                    showMessage("Supplier updated successfully (" + saved.mappedProducts() + " products matched).");
+                }, "Error updating supplier.");
             }
         } else {
             showErrorMessage("No supplier selected for update.");
@@ -184,24 +254,148 @@ public class SupplierPanel extends JPanel {
         if (selectedRow >= 0) {
             int id = (int) tableModel.getValueAt(selectedRow, 0);
 
-            String query = "DELETE FROM suppliers WHERE id = ?";
-            try (Connection conn = DatabaseConnection.getConnection();
-                 PreparedStatement pstmt = conn.prepareStatement(query)) {
-
-                pstmt.setInt(1, id);
-                pstmt.executeUpdate();
+            loader.execute(progress -> {
+                String query = "DELETE FROM suppliers WHERE id = ?";
+                try (Connection conn = DatabaseConnection.getConnection();
+                     PreparedStatement pstmt = conn.prepareStatement(query)) {
 
+                    pstmt.setInt(1, id);
+                    int deleted = pstmt.executeUpdate();
+                    SupplierIndex.deleteMapping(conn, id);
+                    return deleted;
+                }
+            }, deleted -> {
                 // Remove the supplier from the table
-                tableModel.removeRow(selectedRow);
+                int row = findRow(id);
+                if (row >= 0) {
+                    tableModel.removeRow(row);
+                }
                 showMessage("Supplier deleted successfully.");
-            } catch (SQLException e) {
-                showErrorMessage("Error deleting supplier.");
-            }
+            }, "Error deleting supplier.");
         } else {
             showErrorMessage("No supplier selected for deletion.");
         }
     }
 
+    // What the selected supplier charges for one of its products; generateOrders() orders from
+    // the cheapest supplier with a known cost and totals the orders from it
+    private void setUnitCost() {
+        int selectedRow = supplierTable.getSelectedRow();
+        if (selectedRow < 0) {
+            showErrorMessage("No supplier selected.");
+            return;
+        }
+        int supplierId = (int) tableModel.getValueAt(selectedRow, 0);
+        String productText = JOptionPane.showInputDialog(this, "Product ID:");
+        if (productText == null) {
+            return;
+        }
+        String costText = JOptionPane.showInputDialog(this, "Unit cost (blank if not known):");
+        if (costText == null) {
+            return;
+        }
+        int productId;
+        Double unitCost;
+        try {
+            productId = Integer.parseInt(productText.trim());
+            unitCost = costText.isBlank() ? null : Double.parseDouble(costText.trim());
+        } catch (NumberFormatException e) {
+            showErrorMessage("Please enter a whole product ID and a numeric unit cost.");
+            return;
+        }
+        if (unitCost != null && unitCost < 0) {
+            showErrorMessage("Unit cost cannot be negative.");
+            return;
+        }
+        loader.execute(progress -> {
+            try (Connection conn = DatabaseConnection.getConnection()) {
+                return SupplierIndex.setUnitCost(conn, supplierId, productId, unitCost);
+            }
+        }, updated -> {
+            if (updated) {
+                showMessage("Unit cost of product " + productId + " saved.");
+            } else {
+                showErrorMessage("Product " + productId + " is not in this supplier's Products Supplied.");
+            }
+        }, "Error saving unit cost.");
+    }
+
+    // Matches the free text against the shared catalog's ids, names and categories
+    private static Set<Integer> resolveProducts(String productsSupplied) throws SQLException {
+        return SupplierIndex.Resolver.of(ProductCatalog.getInstance().getAll()).resolve(productsSupplied);
+    }
+
+    private void loadPendingOrders() {
+        loader.submit("orders", progress -> {
+            try (Connection conn = DatabaseConnection.getConnection()) {
+                return PurchaseOrders.pending(conn);
+            }
+        }, orders -> {
+            orderTableModel.setRowCount(0);
+            for (PurchaseOrders.Pending order : orders) {
+                String supplier = order.supplierName() != null ? order.supplierName() : "Supplier #" + order.supplierId();
+                orderTableModel.addRow(new Object[]{order.orderId(), supplier, order.createdAt(), order.lines(),
+                        order.items(), String.format("%.2f", order.totalCost())});
+            }
+        }, "Error loading purchase orders.");
+    }
+
+    // Orders everything at or below its reorder level from its preferred supplier, one order
+    // per supplier, skipping products that are already on a pending order
+    private void generateOrders() {
+        generateOrdersButton.setEnabled(false);
+        loader.submit("generate", progress -> new PurchaseOrders().generate(progress), result -> {
+            generateOrdersButton.setEnabled(true);
+            if (result == null) {
+                return;
+            }
+            loadPendingOrders();
+            StringBuilder message = new StringBuilder();
+            message.append(result.orders()).append(" orders with ").append(result.lines()).append(" lines created in ")
+                    .append(result.millis()).append(" ms.");
+            if (result.alreadyOnOrder() > 0) {
+                message.append("\n").append(result.alreadyOnOrder()).append(" low products are already on order.");
+            }
+            if (result.unassigned() > 0) {
+                message.append("\n").append(result.unassigned())
+                        .append(" low products have no supplier; add them to a supplier's Products Supplied.");
+            }
+            showMessage(message.toString());
+        }, e -> {
+            generateOrdersButton.setEnabled(true);
+            e.printStackTrace();
+            showErrorMessage("Error generating purchase orders: " + e.getMessage());
+        });
+    }
+
+    private void receiveOrder() {
+        int selectedRow = orderTable.getSelectedRow();
+        if (selectedRow < 0) {
+            showErrorMessage("No purchase order selected.");
+            return;
+        }
+        int orderId = (int) orderTableModel.getValueAt(selectedRow, 0);
+        loader.execute(progress -> {
+            try (Connection conn = DatabaseConnection.getConnection()) {
+                return PurchaseOrders.receive(conn, orderId);
+            }
+        }, received -> {
+            // The new stock reaches the catalog, the tables and the low-stock set on the refresh
+            ProductCatalog.getInstance().requestRefresh();
+            loadPendingOrders();
+            showMessage(received ? "Order " + orderId + " received into stock." : "Order " + orderId + " was no longer pending.");
+        }, "Error receiving purchase order.");
+    }
+
+    private int findRow(int id) {
+        for (int row = 0; row < tableModel.getRowCount(); row++) {
+            if ((int) tableModel.getValueAt(row, 0) == id) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
     private boolean validateFields(String name, String contact, String productsSupplied) {
         if (name.isEmpty() || contact.isEmpty() || productsSupplied.isEmpty()) {
             showErrorMessage("Please fill in all fields.");